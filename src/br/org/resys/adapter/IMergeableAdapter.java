@@ -0,0 +1,42 @@
+package br.org.resys.adapter;
+
+import br.org.resys.adapter.connector.SparqlConnector;
+
+/**
+ * Adapter whose processing can be split among partitions of a resultset
+ * <p>
+ * {@link SparqlConnector} may split a statement into partitions (ranges of
+ * datetime) and execute them concurrently. Each partition is processed by a
+ * fork of the adapter and the forks are merged back into it, in the order of
+ * the partitions (i.e. in the order of the statement), before
+ * {@link #conclude()} is called. The output must be the same as if the rows
+ * were processed by the adapter itself.
+ *
+ * @author Luis Paulo
+ */
+public interface IMergeableAdapter extends ISparqlProcessingAdapter {
+
+	/**
+	 * Create an adapter with the same configuration and an empty state, to
+	 * process a partition of the resultset
+	 * <p>
+	 * Forks must not produce any output on their own (e.g. csv files), nor be
+	 * concluded.
+	 *
+	 * @return a fork of the adapter
+	 * @throws Exception
+	 */
+	public IMergeableAdapter fork() throws Exception;
+
+	/**
+	 * Merge the state of a fork into the adapter
+	 *
+	 * @param fork
+	 *            a fork created by {@link #fork()}, after processing its
+	 *            partition
+	 * @return instance of #IMergeableAdapter
+	 * @throws Exception
+	 */
+	public IMergeableAdapter merge(IMergeableAdapter fork) throws Exception;
+
+}
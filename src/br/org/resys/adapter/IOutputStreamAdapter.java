@@ -0,0 +1,24 @@
+package br.org.resys.adapter;
+
+import java.io.OutputStream;
+
+/**
+ * Adapter whose output can be written to a stream (e.g. the body of an http
+ * response) instead of a file under "csv.output.path"
+ * <p>
+ * The stream must be set before {@link #init(java.util.Properties)}. The
+ * adapter writes to it as it processes the rows and flushes it on
+ * {@link #conclude()}, but it does not close it.
+ *
+ * @author Luis Paulo
+ */
+public interface IOutputStreamAdapter extends ISparqlProcessingAdapter {
+
+	/**
+	 * @param out
+	 *            stream the output is written to
+	 * @return instance of #IOutputStreamAdapter
+	 */
+	public IOutputStreamAdapter setOutputStream(OutputStream out);
+
+}
@@ -3,6 +3,7 @@ package br.org.resys.adapter;
 import java.util.Properties;
 
 import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
 
 import br.org.resys.adapter.connector.SparqlConnector;
 import br.org.resys.en.Sparqls;
@@ -29,6 +30,17 @@ public interface ISparqlProcessingAdapter {
 	 */
 	public String getSparql();
 
+	/**
+	 * Values of the parameters of the sparql statement
+	 * <p>
+	 * Parameters are variables of the statement (e.g. ?correlation) which are
+	 * bound to these values when the statement is executed. Values must not be
+	 * concatenated into the statement.
+	 * 
+	 * @return values by parameter (empty if the statement has no parameters)
+	 */
+	public QuerySolutionMap getParameters();
+
 	/**
 	 * Initialization of the adapter
 	 * <p>
@@ -0,0 +1,18 @@
+package br.org.resys.adapter;
+
+import br.org.resys.adapter.connector.SparqlConnector;
+
+/**
+ * Adapter whose output does not depend on the order of the rows of its
+ * statement
+ * <p>
+ * E.g. adapters that bucket the rows (by month, refactoring...) and order the
+ * buckets themselves. {@link SparqlConnector} may execute the statement of
+ * such an adapter without its ORDER BY, so rows are passed to the adapter as
+ * they are produced instead of being materialized and sorted first.
+ *
+ * @author Luis Paulo
+ */
+public interface IStreamingAdapter extends ISparqlProcessingAdapter {
+
+}
@@ -0,0 +1,30 @@
+package br.org.resys.adapter;
+
+import br.org.resys.adapter.connector.SparqlConnector;
+import br.org.resys.adapter.view.MaterializedView;
+import br.org.resys.adapter.view.ViewRow;
+
+/**
+ * Adapter that is also capable of processing the rows of a
+ * {@link MaterializedView}
+ * <p>
+ * If an instance of ocean has an up-to-date view, {@link SparqlConnector}
+ * scans it instead of executing the adapter's sparql statement. The adapter
+ * must produce the same output from the view's rows as it would from the
+ * resultset of its statement.
+ *
+ * @author Luis Paulo
+ */
+public interface IViewProcessingAdapter extends ISparqlProcessingAdapter {
+
+	/**
+	 * Process each of every row of the view, in order of datetime
+	 *
+	 * @param row
+	 *            a row of the view
+	 * @return instance of #IViewProcessingAdapter
+	 * @throws Exception
+	 */
+	public IViewProcessingAdapter processing(ViewRow row) throws Exception;
+
+}
@@ -0,0 +1,203 @@
+package br.org.resys.adapter.connector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDF2;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWriter;
+
+/**
+ * Binary (RDF Thrift) copies of instances of ocean
+ * <p>
+ * Parsing RDF/XML is the slowest step of loading an instance of ocean. Each
+ * instance is thus transcoded once into RDF Thrift, a binary encoding that is
+ * read several times faster. The binary copy is kept next to the ontology's
+ * file (e.g. ocean_x.owl --> ocean_x.trdf), carries the same modification
+ * time and records the size of the file in a header, so a copy whose time or
+ * size differs from the ontology's is stale. Stale or missing copies are
+ * ignored: the ontology's file is parsed instead and transcoded again.
+ * <p>
+ * An ontology is transcoded by one thread at a time (others wait for its
+ * copy), while different ontologies are transcoded concurrently.
+ * <p>
+ * The RDF/XML file remains the reference version of the ontology, as it is
+ * still required by OWL API and by protege.
+ *
+ * @author Luis Paulo
+ */
+public class BinaryRdf {
+	public static final String EXTENSION = ".trdf";
+	private static final int MAGIC = 0x52535442;
+	// header: magic number and size of the ontology's file
+	private static final int HEADER = 12;
+
+	// ontologies being transcoded, by path of their binary copy
+	private static Map<String, Object> transcodings = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * @param file
+	 *            physical file of an ontology (RDF/XML)
+	 * @return the file of its binary copy
+	 */
+	public static File getBinaryFile(File file) {
+		String name = file.getName();
+		name = name.endsWith(".owl") ? name.substring(0, name.length() - 4) : name;
+
+		return new File(file.getParentFile(), name + EXTENSION);
+	}
+
+	/**
+	 * Verify if the binary copy of an ontology is up to date
+	 *
+	 * @param file
+	 *            physical file of an ontology (RDF/XML)
+	 * @return true if the binary copy can be read instead of the file
+	 */
+	public static boolean isFresh(File file) {
+		File binary = getBinaryFile(file);
+		if (!binary.exists() || (binary.lastModified() != file.lastModified()) || (binary.length() < HEADER)) {
+			return false;
+		}
+		try (DataInputStream header = new DataInputStream(new FileInputStream(binary))) {
+			return (header.readInt() == MAGIC) && (header.readLong() == file.length());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static Object getLock(File file) {
+		return transcodings.computeIfAbsent(getBinaryFile(file).getPath(), path -> new Object());
+	}
+
+	/**
+	 * Read an ontology into a new model
+	 *
+	 * @param file
+	 *            physical file of an ontology (RDF/XML)
+	 * @return model with the ontology's triples
+	 * @throws IOException
+	 *             if it fails to read the ontology
+	 */
+	public static Model read(File file) throws IOException {
+		Model model = ModelFactory.createDefaultModel();
+		parse(file, StreamRDFLib.graph(model.getGraph()));
+
+		return model;
+	}
+
+	/**
+	 * Send the triples of an ontology to a stream, reading its binary copy if
+	 * it is fresh. Otherwise, the RDF/XML file is parsed and the binary copy is
+	 * (re)written on the way.
+	 *
+	 * @param file
+	 *            physical file of an ontology (RDF/XML)
+	 * @param stream
+	 *            destination of the triples
+	 * @throws IOException
+	 *             if it fails to read the ontology
+	 */
+	public static void parse(File file, StreamRDF stream) throws IOException {
+		if (!isFresh(file)) {
+			synchronized (getLock(file)) {
+				// unless it has been transcoded meanwhile
+				if (!isFresh(file)) {
+					write(file, stream);
+
+					return;
+				}
+			}
+		}
+
+		InputStream input = new BufferedInputStream(new FileInputStream(getBinaryFile(file)));
+		try {
+			new DataInputStream(input).readFully(new byte[HEADER]);
+			RDFDataMgr.parse(stream, input, Lang.RDFTHRIFT);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * (Re)write the binary copy of an ontology
+	 *
+	 * @param file
+	 *            physical file of an ontology (RDF/XML)
+	 * @return the file of the binary copy
+	 * @throws IOException
+	 *             if it fails to read the ontology or to write its copy
+	 */
+	public static File transcode(File file) throws IOException {
+		System.out.println("Transcoding " + file + "...");
+
+		synchronized (getLock(file)) {
+			return write(file, StreamRDFLib.sinkNull());
+		}
+	}
+
+	/**
+	 * Parse an ontology's RDF/XML file, sending its triples to both a stream
+	 * and a new binary copy
+	 * <p>
+	 * The copy is written to a temporary file, which is deleted if the
+	 * ontology cannot be parsed. Callers hold the lock of the ontology.
+	 */
+	private static File write(File file, StreamRDF stream) throws IOException {
+		File temp = new File(getBinaryFile(file).getPath() + ".tmp");
+		boolean written = false;
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeLong(file.length());
+				InputStream input = new FileInputStream(file);
+				try {
+					StreamRDF writer = StreamRDFWriter.getWriterStream(output, Lang.RDFTHRIFT);
+					RDFDataMgr.parse(new StreamRDF2(writer, stream), input, Lang.RDFXML);
+				} finally {
+					input.close();
+				}
+			} finally {
+				output.close();
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				temp.delete();
+			}
+		}
+
+		return publish(temp, file);
+	}
+
+	/**
+	 * Replace the binary copy of an ontology with a newly written one, marking
+	 * it with the ontology's modification time
+	 */
+	private static File publish(File temp, File file) throws IOException {
+		File binary = getBinaryFile(file);
+		binary.delete();
+		if (!temp.setLastModified(file.lastModified()) || !temp.renameTo(binary)) {
+			temp.delete();
+			throw new IOException("Unable to write " + binary);
+		}
+
+		return binary;
+	}
+
+}
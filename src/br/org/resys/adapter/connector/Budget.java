@@ -0,0 +1,228 @@
+package br.org.resys.adapter.connector;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.org.resys.adapter.ISparqlProcessingAdapter;
+
+/**
+ * Budget of an export: wall time, rows and memory it may consume
+ * <p>
+ * Budgets are cooperative: executors check them as they produce rows and stop
+ * once they are exhausted (or cancelled), passing the rows produced so far to
+ * the adapter. The adapter is concluded as usual, so its output is flushed,
+ * and the export is marked as truncated (see {@link #isTruncated()}).
+ * <p>
+ * Limits equal to 0 mean unlimited. Time counts from {@link #start()}, memory
+ * is the growth of the heap since then (an approximation, since the heap is
+ * shared by all requests).
+ *
+ * @author Luis Paulo
+ */
+public class Budget {
+	private static final long MEGABYTE = 1024 * 1024;
+
+	/**
+	 * Create the configured budget of an adapter
+	 * <p>
+	 * Limits are read from "sparql.budget.millis" (default: 30000),
+	 * "sparql.budget.rows" (default: 0) and "sparql.budget.memory.mb"
+	 * (default: 0), each of which can be overridden per adapter by appending
+	 * the simple name of the adapter's class (e.g.
+	 * "sparql.budget.rows.RefactoringsByCommittersAdapter").
+	 *
+	 * @param properties
+	 *            the configuration
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @return the budget
+	 */
+	public static Budget of(Properties properties, ISparqlProcessingAdapter adapter) {
+		String name = adapter.getClass().getSimpleName();
+
+		return new Budget().setMillis(getLimit(properties, "sparql.budget.millis", name, "30000"))
+				.setRows(getLimit(properties, "sparql.budget.rows", name, "0"))
+				.setMemory(getLimit(properties, "sparql.budget.memory.mb", name, "0") * MEGABYTE);
+	}
+
+	private static long getLimit(Properties properties, String key, String adapter, String defaultValue) {
+		return Long.parseLong(properties.getProperty(key + "." + adapter, properties.getProperty(key, defaultValue)));
+	}
+
+	private String job;
+	private long millis, rows, memory;
+	private long deadline, heap;
+	private AtomicLong consumed = new AtomicLong();
+	private volatile boolean started, cancelled;
+	private volatile String exhausted;
+	private List<Runnable> cancellers = new CopyOnWriteArrayList<Runnable>();
+
+	/**
+	 * @param job
+	 *            id the export can be cancelled by
+	 * @return instance of #Budget
+	 */
+	public Budget setJob(String job) {
+		this.job = job;
+
+		return this;
+	}
+
+	public String getJob() {
+		return job;
+	}
+
+	/**
+	 * @param millis
+	 *            max. wall time (0: unlimited)
+	 * @return instance of #Budget
+	 */
+	public Budget setMillis(long millis) {
+		this.millis = millis;
+
+		return this;
+	}
+
+	/**
+	 * @param rows
+	 *            max. number of rows passed to the adapter (0: unlimited)
+	 * @return instance of #Budget
+	 */
+	public Budget setRows(long rows) {
+		this.rows = rows;
+
+		return this;
+	}
+
+	/**
+	 * @param memory
+	 *            max. growth of the heap, in bytes (0: unlimited)
+	 * @return instance of #Budget
+	 */
+	public Budget setMemory(long memory) {
+		this.memory = memory;
+
+		return this;
+	}
+
+	/**
+	 * Start counting time and memory (only the first call counts)
+	 *
+	 * @return instance of #Budget
+	 */
+	public synchronized Budget start() {
+		if (!started) {
+			deadline = System.currentTimeMillis() + millis;
+			heap = usedHeap();
+			started = true;
+		}
+
+		return this;
+	}
+
+	/**
+	 * @return millis left before the deadline (Long.MAX_VALUE if unlimited)
+	 */
+	public long getRemainingMillis() {
+		return (millis > 0) ? Math.max(deadline - System.currentTimeMillis(), 0) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Verify if time or memory ran out, or if the export was cancelled
+	 *
+	 * @return true if the execution must stop
+	 */
+	public boolean isExhausted() {
+		if (exhausted != null) {
+			return true;
+		}
+		if (cancelled) {
+			exhausted = "cancelled";
+		} else if ((millis > 0) && (System.currentTimeMillis() >= deadline)) {
+			exhausted = "time";
+		} else if ((memory > 0) && (usedHeap() - heap > memory)) {
+			exhausted = "memory";
+		}
+
+		return exhausted != null;
+	}
+
+	/**
+	 * Consume a row
+	 *
+	 * @return true if the row can be passed to the adapter, false if the
+	 *         budget is exhausted
+	 */
+	public boolean consume() {
+		if (isExhausted()) {
+			return false;
+		}
+		if ((rows > 0) && (consumed.incrementAndGet() > rows)) {
+			exhausted = "rows";
+
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Cancel the export: executors stop at their next check and running
+	 * iterators are cancelled
+	 *
+	 * @return instance of #Budget
+	 */
+	public Budget cancel() {
+		cancelled = true;
+		for (Runnable canceller : cancellers) {
+			canceller.run();
+		}
+
+		return this;
+	}
+
+	/**
+	 * @param canceller
+	 *            action run if the export is cancelled (e.g. cancelling an
+	 *            iterator)
+	 * @return instance of #Budget
+	 */
+	public Budget addCanceller(Runnable canceller) {
+		cancellers.add(canceller);
+		if (cancelled) {
+			canceller.run();
+		}
+
+		return this;
+	}
+
+	public Budget removeCanceller(Runnable canceller) {
+		cancellers.remove(canceller);
+
+		return this;
+	}
+
+	/**
+	 * @return true if the output of the export is partial
+	 */
+	public boolean isTruncated() {
+		return exhausted != null;
+	}
+
+	/**
+	 * @return what ran out: time, rows, memory or cancelled (null if the
+	 *         export is complete)
+	 */
+	public String getReason() {
+		return exhausted;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
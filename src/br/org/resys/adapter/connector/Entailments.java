@@ -0,0 +1,157 @@
+package br.org.resys.adapter.connector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.jena.rdf.model.InfModel;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.reasoner.ReasonerRegistry;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.vocabulary.RDF;
+
+/**
+ * Entailments of instances of ocean, materialized once
+ * <p>
+ * Our statements only need the asserted triples plus the closure of
+ * rdf:type (e.g. a smell asserted as a LongMethod is also a
+ * MethodOrientedSmell). Instead of running RDFS inference on every triple
+ * pattern lookup, the rdf:type triples entailed by the ocean and its imports
+ * are computed once and stored next to the ontology's file (e.g. ocean_x.owl
+ * --> ocean_x.entailed, RDF Thrift). Statements can then be executed over a
+ * plain, non-inferencing model layered on top of them.
+ * <p>
+ * Entailments are stale if the ontology or any of its imports is newer than
+ * them.
+ *
+ * @author Luis Paulo
+ */
+public class Entailments {
+	public static final String EXTENSION = ".entailed";
+
+	/**
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @return the file of its entailments
+	 */
+	public static File getEntailmentsFile(File file) {
+		String name = file.getName();
+		name = name.endsWith(".owl") ? name.substring(0, name.length() - 4) : name;
+
+		return new File(file.getParentFile(), name + EXTENSION);
+	}
+
+	/**
+	 * Verify if the entailments of an instance of ocean are up to date
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @param imports
+	 *            physical files of the imported ontologies
+	 * @return true if the entailments can be read instead of computed
+	 */
+	public static boolean isFresh(File file, List<File> imports) {
+		File entailments = getEntailmentsFile(file);
+		if (!entailments.exists() || (entailments.lastModified() < file.lastModified())) {
+			return false;
+		}
+		for (File imported : imports) {
+			if (entailments.lastModified() < imported.lastModified()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Compute the rdf:type triples entailed (but not asserted) by an instance
+	 * of ocean and its imports
+	 *
+	 * @param ocean
+	 *            the triples of an instance of ocean
+	 * @param imports
+	 *            the triples of the imported ontologies
+	 * @return the entailed triples
+	 */
+	public static Model compute(Model ocean, Model imports) {
+		Model union = ModelFactory.createUnion(ocean, imports);
+		InfModel inferred = ModelFactory.createInfModel(ReasonerRegistry.getRDFSReasoner(), union);
+
+		Model entailments = ModelFactory.createDefaultModel();
+		// a single pass: asking the reasoner subject by subject is much slower
+		StmtIterator statements = inferred.listStatements(null, RDF.type, (RDFNode) null);
+		try {
+			while (statements.hasNext()) {
+				Statement statement = statements.next();
+				if (!union.contains(statement)) {
+					entailments.add(statement);
+				}
+			}
+		} finally {
+			statements.close();
+		}
+
+		return entailments;
+	}
+
+	/**
+	 * Save the entailments of an instance of ocean
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @param entailments
+	 *            the entailed triples
+	 * @throws IOException
+	 *             if it fails to write the entailments
+	 */
+	public static void write(File file, Model entailments) throws IOException {
+		File target = getEntailmentsFile(file);
+		File temp = new File(target.getPath() + ".tmp");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+		try {
+			RDFDataMgr.write(out, entailments, Lang.RDFTHRIFT);
+		} finally {
+			out.close();
+		}
+
+		target.delete();
+		if (!temp.renameTo(target)) {
+			temp.delete();
+			throw new IOException("Unable to write " + target);
+		}
+	}
+
+	/**
+	 * Load the entailments of an instance of ocean
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @return the entailed triples
+	 * @throws IOException
+	 *             if it fails to read the entailments
+	 */
+	public static Model read(File file) throws IOException {
+		Model entailments = ModelFactory.createDefaultModel();
+		InputStream in = new BufferedInputStream(new FileInputStream(getEntailmentsFile(file)));
+		try {
+			RDFDataMgr.read(entailments, in, Lang.RDFTHRIFT);
+		} finally {
+			in.close();
+		}
+
+		return entailments;
+	}
+
+}
@@ -0,0 +1,664 @@
+package br.org.resys.adapter.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.core.ResultBinding;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingComparator;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.expr.aggregate.Accumulator;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.sparql.function.FunctionEnvBase;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementBind;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+import br.org.resys.adapter.ISparqlProcessingAdapter;
+import br.org.resys.en.Sparqls;
+
+/**
+ * Specialized executor of the statements in {@link Sparqls}
+ * <p>
+ * All our statements are chains of triple patterns with fixed predicates
+ * (committer --> hasCommited --> commit --> hasIntroduced --> codesmell...),
+ * optionally filtered and ordered by datetime. This executor recognizes such
+ * queries (see {@link #supports(Query)}) and runs them as hash joins over
+ * interned integer ids, instead of relying on the generic engine of ARQ:
+ * <ol>
+ * <li>the triples of each pattern are fetched once and their terms are
+ * interned</li>
+ * <li>patterns are ordered so that each one shares a variable with the
+ * previous ones, starting with the smallest</li>
+ * <li>every pattern but the first is indexed by the shared variable</li>
+ * <li>rows are produced by probing the indexes, pattern after pattern.
+ * Filters are evaluated as soon as their variables are bound</li>
+ * </ol>
+ * Trailing BINDs are evaluated on each row. Grouped queries (GROUP BY plain
+ * variables, with aggregates) are aggregated as rows are produced, so only the
+ * groups are kept in memory.
+ * <p>
+ * Rows are delivered to the {@link ISparqlProcessingAdapter} as they are
+ * produced, unless the query is grouped or ordered, in which case they are
+ * aggregated or sorted first. Any other query is left to ARQ.
+ * <p>
+ * If a {@link QueryProfile} is given, the cardinality of each pattern, the rows
+ * produced by each step (and the number of groups) and the time spent are
+ * recorded into it.
+ * <p>
+ * The execution is bounded by a {@link Budget}. Once it is exhausted, probing
+ * stops and the rows produced so far (the groups accumulated or the rows
+ * collected to be sorted) are still delivered, as long as the budget lets rows
+ * through.
+ *
+ * @author Luis Paulo
+ */
+public class HashJoinExecutor {
+
+	/**
+	 * Verify if a query can be executed by this executor: a SELECT whose WHERE
+	 * clause is a group of triple patterns (with fixed predicates) and
+	 * filters, optionally followed by BINDs. Only projection, GROUP BY (plain
+	 * variables), aggregates and ORDER BY are accepted as modifiers.
+	 *
+	 * @param query
+	 *            the query
+	 * @return true if the query is supported
+	 */
+	public static boolean supports(Query query) {
+		if (!query.isSelectType() || query.isDistinct() || query.isReduced() || query.hasHaving()
+				|| query.hasLimit() || query.hasOffset() || query.hasValues()
+				|| !(query.getQueryPattern() instanceof ElementGroup)) {
+			return false;
+		}
+		boolean grouped = query.hasGroupBy() || query.hasAggregators();
+		if (query.hasGroupBy()) {
+			for (Var var : query.getGroupBy().getVars()) {
+				if (query.getGroupBy().getExpr(var) != null) {
+					return false;
+				}
+			}
+		}
+		// expressions are only projected from groups
+		if (!grouped && !query.isQueryResultStar() && !query.getProject().getExprs().isEmpty()) {
+			return false;
+		}
+		int numOfPatterns = 0;
+		Set<Var> bindVars = new HashSet<Var>();
+		List<Expr> filters = new ArrayList<Expr>();
+		for (Element element : ((ElementGroup) query.getQueryPattern()).getElements()) {
+			if ((element instanceof ElementPathBlock) && bindVars.isEmpty()) {
+				for (TriplePath path : ((ElementPathBlock) element).getPattern().getList()) {
+					if (!path.isTriple() || !path.getPredicate().isURI() || path.getSubject().isBlank()
+							|| path.getObject().isBlank()) {
+						return false;
+					}
+					numOfPatterns++;
+				}
+			} else if (element instanceof ElementFilter) {
+				filters.add(((ElementFilter) element).getExpr());
+			} else if (element instanceof ElementBind) {
+				bindVars.add(((ElementBind) element).getVar());
+			} else {
+				return false;
+			}
+		}
+		// filters are evaluated before BINDs
+		for (Expr filter : filters) {
+			if (!Collections.disjoint(filter.getVarsMentioned(), bindVars)) {
+				return false;
+			}
+		}
+
+		return numOfPatterns > 0;
+	}
+
+	private Query query;
+	private List<Triple> patterns;
+	private List<Expr> filters;
+	private List<ElementBind> binds;
+	private List<Var> vars;
+	private Budget budget;
+
+	/**
+	 * @param query
+	 *            a query accepted by {@link #supports(Query)}
+	 * @param budget
+	 *            the budget of the execution (started if it was not yet)
+	 */
+	public HashJoinExecutor(Query query, Budget budget) {
+		this.query = query;
+		this.budget = budget;
+		this.patterns = new ArrayList<Triple>();
+		this.filters = new ArrayList<Expr>();
+		this.binds = new ArrayList<ElementBind>();
+
+		Set<Var> mentioned = new LinkedHashSet<Var>();
+		for (Element element : ((ElementGroup) query.getQueryPattern()).getElements()) {
+			if (element instanceof ElementPathBlock) {
+				for (TriplePath path : ((ElementPathBlock) element).getPattern().getList()) {
+					Triple pattern = path.asTriple();
+					patterns.add(pattern);
+					if (pattern.getSubject().isVariable()) {
+						mentioned.add(Var.alloc(pattern.getSubject()));
+					}
+					if (pattern.getObject().isVariable()) {
+						mentioned.add(Var.alloc(pattern.getObject()));
+					}
+				}
+			} else if (element instanceof ElementFilter) {
+				filters.add(((ElementFilter) element).getExpr());
+			} else {
+				binds.add((ElementBind) element);
+			}
+		}
+		// columns of a row (BIND variables are added as rows are emitted)
+		this.vars = new ArrayList<Var>(mentioned);
+	}
+
+	/**
+	 * Execute the query and pass each row to an adapter
+	 *
+	 * @param model
+	 *            the model to be queried
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @throws Exception
+	 *             if the adapter fails to process a row
+	 */
+	public void execute(Model model, ISparqlProcessingAdapter adapter) throws Exception {
+		execute(model, adapter, null);
+	}
+
+	/**
+	 * Execute the query, pass each row to an adapter and profile the
+	 * execution
+	 *
+	 * @param model
+	 *            the model to be queried
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @param profile
+	 *            the profile to record the execution into (null if not
+	 *            profiled)
+	 * @throws Exception
+	 *             if the adapter fails to process a row
+	 */
+	public void execute(Model model, ISparqlProcessingAdapter adapter, QueryProfile profile) throws Exception {
+		Execution execution = new Execution(model, adapter, profile);
+		execution.run();
+	}
+
+	/**
+	 * State of a single execution
+	 */
+	private class Execution {
+		private Model model;
+		private Graph graph;
+		private ISparqlProcessingAdapter adapter;
+		private FunctionEnv env;
+		private long steps;
+
+		// interned terms
+		private Map<Node, Integer> ids;
+		private List<Node> nodes;
+
+		// plan: patterns in order of execution...
+		private int[] order;
+		// ...their (s, o) pairs of ids...
+		private int[][] pairs;
+		// ...the variable (index in vars) of the subject/object (-1 if fixed)...
+		private int[] subjectVar, objectVar;
+		// ...the position (0: subject, 1: object) of the variable shared with
+		// the previous patterns (-1 if none) and the pairs indexed by it...
+		private int[] joinPosition;
+		private List<Map<Integer, int[]>> indexes;
+		// ...and the filters evaluated after binding each pattern
+		private List<List<Expr>> filtersByStep;
+
+		private int[] row;
+		private List<Binding> sorted;
+		private List<Var> projection;
+		// accumulators by group (values of the GROUP BY variables)
+		private Map<List<Node>, List<Accumulator>> groups;
+
+		// rows produced by each step (if profiled) and rows delivered
+		private QueryProfile profile;
+		private long[][] counters;
+		private long results;
+
+		private Execution(Model model, ISparqlProcessingAdapter adapter, QueryProfile profile) {
+			this.model = model;
+			this.graph = model.getGraph();
+			this.adapter = adapter;
+			this.profile = profile;
+			this.env = new FunctionEnvBase();
+			this.ids = new HashMap<Node, Integer>();
+			this.nodes = new ArrayList<Node>();
+			// SELECT * also projects the variables of the BINDs
+			this.projection = Var.varList(query.getResultVars());
+		}
+
+		private void run() throws Exception {
+			long start = System.nanoTime();
+			budget.start();
+			fetch();
+			plan();
+			if (profile != null) {
+				profile(System.nanoTime() - start);
+				start = System.nanoTime();
+			}
+
+			row = new int[vars.size()];
+			for (int i = 0; i < row.length; i++) {
+				row[i] = -1;
+			}
+			sorted = query.hasOrderBy() ? new ArrayList<Binding>() : null;
+			groups = (query.hasGroupBy() || query.hasAggregators())
+					? new LinkedHashMap<List<Node>, List<Accumulator>>() : null;
+			try {
+				probe(0);
+			} catch (QueryCancelledException e) {
+				// the budget is exhausted: what was produced is still delivered
+			}
+			if (groups != null) {
+				try {
+					aggregate();
+				} catch (QueryCancelledException e) {
+					// the budget lets no more rows through
+				}
+			}
+			if (sorted != null) {
+				Collections.sort(sorted, new BindingComparator(query.getOrderBy()));
+				for (Binding binding : sorted) {
+					if (!process(binding)) {
+						break;
+					}
+				}
+			}
+			if (profile != null) {
+				if (groups != null) {
+					profile.addStep("group")[0] = groups.size();
+				}
+				profile.setExecuteNanos(System.nanoTime() - start).setResults(results);
+			}
+		}
+
+		/**
+		 * Record the cardinalities of the patterns and set the counters of
+		 * the steps up
+		 */
+		private void profile(long planNanos) {
+			for (int i = 0; i < patterns.size(); i++) {
+				profile.addPattern(FmtUtils.stringForTriple(patterns.get(i), query.getPrefixMapping()),
+						pairs[i].length / 2);
+			}
+			counters = new long[order.length][];
+			for (int step = 0; step < order.length; step++) {
+				counters[step] = profile.addStep(
+						"join " + FmtUtils.stringForTriple(patterns.get(order[step]), query.getPrefixMapping()));
+			}
+			profile.setPlanNanos(planNanos);
+		}
+
+		/**
+		 * Fetch the triples of each pattern as pairs of interned ids
+		 */
+		private void fetch() {
+			pairs = new int[patterns.size()][];
+			subjectVar = new int[patterns.size()];
+			objectVar = new int[patterns.size()];
+			for (int i = 0; i < patterns.size(); i++) {
+				Triple pattern = patterns.get(i);
+				Node s = pattern.getSubject(), o = pattern.getObject();
+				subjectVar[i] = s.isVariable() ? vars.indexOf(Var.alloc(s)) : -1;
+				objectVar[i] = o.isVariable() ? vars.indexOf(Var.alloc(o)) : -1;
+
+				int[] fetched = new int[64];
+				int length = 0;
+				ExtendedIterator<Triple> triples = graph.find(s.isVariable() ? Node.ANY : s, pattern.getPredicate(),
+						o.isVariable() ? Node.ANY : o);
+				try {
+					while (triples.hasNext()) {
+						Triple triple = triples.next();
+						// e.g. ?x prop ?x
+						if ((subjectVar[i] != -1) && (subjectVar[i] == objectVar[i])
+								&& !triple.getSubject().equals(triple.getObject())) {
+							continue;
+						}
+						if (length + 2 > fetched.length) {
+							fetched = Arrays.copyOf(fetched, 2 * fetched.length);
+						}
+						fetched[length++] = intern(triple.getSubject());
+						fetched[length++] = intern(triple.getObject());
+					}
+				} finally {
+					triples.close();
+				}
+				pairs[i] = Arrays.copyOf(fetched, length);
+			}
+		}
+
+		private int intern(Node node) {
+			Integer id = ids.get(node);
+			if (id == null) {
+				id = nodes.size();
+				ids.put(node, id);
+				nodes.add(node);
+			}
+
+			return id;
+		}
+
+		/**
+		 * Order the patterns, index them by their join variables and assign
+		 * the filters to the first step in which all of their variables are
+		 * bound
+		 */
+		private void plan() {
+			int numOfPatterns = patterns.size();
+			order = new int[numOfPatterns];
+			joinPosition = new int[numOfPatterns];
+			indexes = new ArrayList<Map<Integer, int[]>>();
+			filtersByStep = new ArrayList<List<Expr>>();
+
+			boolean[] planned = new boolean[numOfPatterns];
+			Set<Integer> bound = new HashSet<Integer>();
+			List<Expr> pending = new ArrayList<Expr>(filters);
+			for (int step = 0; step < numOfPatterns; step++) {
+				// prefer the smallest pattern connected to the previous ones
+				int next = -1;
+				boolean connected = false;
+				for (int i = 0; i < numOfPatterns; i++) {
+					if (!planned[i]) {
+						boolean shares = bound.contains(subjectVar[i]) || bound.contains(objectVar[i]);
+						if ((next == -1) || (shares && !connected)
+								|| ((shares == connected) && (pairs[i].length < pairs[next].length))) {
+							next = i;
+							connected = shares;
+						}
+					}
+				}
+				planned[next] = true;
+				order[step] = next;
+				joinPosition[step] = bound.contains(subjectVar[next]) ? 0 : bound.contains(objectVar[next]) ? 1 : -1;
+				indexes.add((step > 0) && (joinPosition[step] != -1) ? index(pairs[next], joinPosition[step]) : null);
+
+				if (subjectVar[next] != -1) {
+					bound.add(subjectVar[next]);
+				}
+				if (objectVar[next] != -1) {
+					bound.add(objectVar[next]);
+				}
+				List<Expr> ready = new ArrayList<Expr>();
+				for (Expr filter : pending) {
+					boolean all = true;
+					for (Var var : filter.getVarsMentioned()) {
+						all = all && bound.contains(vars.indexOf(var));
+					}
+					if (all || (step == numOfPatterns - 1)) {
+						ready.add(filter);
+					}
+				}
+				pending.removeAll(ready);
+				filtersByStep.add(ready);
+			}
+		}
+
+		/**
+		 * Index pairs of ids by one of their positions
+		 *
+		 * @return the offsets of the pairs (in the array of pairs) by id
+		 */
+		private Map<Integer, int[]> index(int[] pairs, int position) {
+			Map<Integer, int[]> index = new HashMap<Integer, int[]>();
+			for (int i = 0; i < pairs.length; i += 2) {
+				int[] offsets = index.get(pairs[i + position]);
+				if (offsets == null) {
+					offsets = new int[] { 0, 0 };
+					index.put(pairs[i + position], offsets);
+				} else if (offsets[0] + 2 > offsets.length) {
+					offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+					index.put(pairs[i + position], offsets);
+				}
+				// first element: number of offsets
+				offsets[++offsets[0]] = i;
+			}
+
+			return index;
+		}
+
+		/**
+		 * Bind the pattern of a given step to every compatible pair and
+		 * descend to the next step
+		 */
+		private void probe(int step) throws Exception {
+			if (step == order.length) {
+				emit();
+
+				return;
+			}
+			int pattern = order[step];
+			int[] patternPairs = pairs[pattern];
+			if (indexes.get(step) != null) {
+				int var = (joinPosition[step] == 0) ? subjectVar[pattern] : objectVar[pattern];
+				int[] offsets = indexes.get(step).get(row[var]);
+				if (offsets != null) {
+					for (int i = 1; i <= offsets[0]; i++) {
+						bind(step, pattern, patternPairs[offsets[i]], patternPairs[offsets[i] + 1]);
+					}
+				}
+			} else {
+				for (int i = 0; i < patternPairs.length; i += 2) {
+					bind(step, pattern, patternPairs[i], patternPairs[i + 1]);
+				}
+			}
+		}
+
+		private void bind(int step, int pattern, int s, int o) throws Exception {
+			if ((++steps & 0xfff) == 0 && budget.isExhausted()) {
+				throw new QueryCancelledException();
+			}
+			int sVar = subjectVar[pattern], oVar = objectVar[pattern];
+			int previousS = (sVar != -1) ? row[sVar] : -1, previousO = (oVar != -1) ? row[oVar] : -1;
+			// variables bound by previous steps must match
+			if (((previousS != -1) && (previousS != s)) || ((previousO != -1) && (previousO != o))) {
+				return;
+			}
+			if (sVar != -1) {
+				row[sVar] = s;
+			}
+			if (oVar != -1) {
+				row[oVar] = o;
+			}
+			if (accepts(step)) {
+				if (counters != null) {
+					counters[step][0]++;
+				}
+				probe(step + 1);
+			}
+			if (sVar != -1) {
+				row[sVar] = previousS;
+			}
+			if (oVar != -1) {
+				row[oVar] = previousO;
+			}
+		}
+
+		private boolean accepts(int step) {
+			List<Expr> ready = filtersByStep.get(step);
+			if (ready.isEmpty()) {
+				return true;
+			}
+			Binding binding = toBinding();
+			for (Expr filter : ready) {
+				if (!filter.isSatisfied(binding, env)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		private void emit() throws Exception {
+			Binding binding = toBinding();
+			if (!binds.isEmpty()) {
+				BindingMap extended = BindingFactory.create(binding);
+				for (ElementBind bind : binds) {
+					try {
+						extended.add(bind.getVar(), bind.getExpr().eval(extended, env).asNode());
+					} catch (ExprEvalException e) {
+						// the variable is left unbound
+					}
+				}
+				binding = extended;
+			}
+			if (groups != null) {
+				accumulate(binding);
+			} else {
+				deliver(binding);
+			}
+		}
+
+		private void deliver(Binding binding) throws Exception {
+			if (sorted != null) {
+				sorted.add(binding);
+			} else if (!process(binding)) {
+				throw new QueryCancelledException();
+			}
+		}
+
+		/**
+		 * Pass a row to the adapter, if the budget allows it
+		 *
+		 * @return false if the budget is exhausted
+		 */
+		private boolean process(Binding binding) throws Exception {
+			if (!budget.consume()) {
+				return false;
+			}
+			adapter.processing(new ResultBinding(model, project(binding)));
+			results++;
+
+			return true;
+		}
+
+		/**
+		 * Add a row to the aggregates of its group
+		 */
+		private void accumulate(Binding binding) {
+			List<Node> key = new ArrayList<Node>();
+			if (query.hasGroupBy()) {
+				for (Var var : query.getGroupBy().getVars()) {
+					key.add(binding.get(var));
+				}
+			}
+			List<Accumulator> accumulators = groups.get(key);
+			if (accumulators == null) {
+				accumulators = newAccumulators();
+				groups.put(key, accumulators);
+			}
+			for (Accumulator accumulator : accumulators) {
+				accumulator.accumulate(binding, env);
+			}
+		}
+
+		private List<Accumulator> newAccumulators() {
+			List<Accumulator> accumulators = new ArrayList<Accumulator>();
+			for (ExprAggregator aggregator : query.getAggregators()) {
+				accumulators.add(aggregator.getAggregator().createAccumulator());
+			}
+
+			return accumulators;
+		}
+
+		/**
+		 * Turn each group into a row: the GROUP BY variables, the aggregates
+		 * and the projected expressions
+		 */
+		private void aggregate() throws Exception {
+			// aggregating no rows (without GROUP BY) yields a single group
+			if (groups.isEmpty() && !query.hasGroupBy()) {
+				groups.put(new ArrayList<Node>(), newAccumulators());
+			}
+			for (Entry<List<Node>, List<Accumulator>> group : groups.entrySet()) {
+				BindingMap binding = BindingFactory.create();
+				if (query.hasGroupBy()) {
+					List<Var> groupVars = query.getGroupBy().getVars();
+					for (int i = 0; i < groupVars.size(); i++) {
+						if (group.getKey().get(i) != null) {
+							binding.add(groupVars.get(i), group.getKey().get(i));
+						}
+					}
+				}
+				for (int i = 0; i < query.getAggregators().size(); i++) {
+					NodeValue value = group.getValue().get(i).getValue();
+					if (value != null) {
+						binding.add(query.getAggregators().get(i).getVar(), value.asNode());
+					}
+				}
+				for (Var var : query.getProject().getVars()) {
+					Expr expr = query.getProject().getExpr(var);
+					if (expr != null) {
+						try {
+							binding.add(var, expr.eval(binding, env).asNode());
+						} catch (ExprEvalException e) {
+							// the variable is left unbound
+						}
+					}
+				}
+				deliver(binding);
+			}
+		}
+
+		private Binding toBinding() {
+			BindingMap binding = BindingFactory.create();
+			for (int i = 0; i < row.length; i++) {
+				if (row[i] != -1) {
+					binding.add(vars.get(i), nodes.get(row[i]));
+				}
+			}
+
+			return binding;
+		}
+
+		private Binding project(Binding binding) {
+			BindingMap projected = BindingFactory.create();
+			for (Var var : projection) {
+				Node node = binding.get(var);
+				if (node != null) {
+					projected.add(var, node);
+				}
+			}
+
+			return projected;
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+package br.org.resys.adapter.connector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.sparql.graph.GraphReadOnly;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLException;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+import org.semanticweb.owlapi.util.SimpleIRIMapper;
+
+import br.org.resys.en.OntosIRI;
+
+/**
+ * Immutable graph of the ontologies imported by every instance of ocean
+ * <p>
+ * Metrics, codesmells, repositories and osore never change between requests.
+ * Thus, they are parsed once, merged into a single read-only graph and shared
+ * by all models built by {@link SparqlConnector}. Each instance of ocean is
+ * then layered on top of this graph instead of loading its imports again.
+ * <p>
+ * The ontologies are stored as OWL/XML, which cannot be read by JENA. A file
+ * that JENA fails to parse as RDF/XML is skipped, as JENA's document manager
+ * does when it loads the imports of an ontology. Optionally, OWL API converts
+ * it to RDF/XML first instead. Mind that the converted schema (e.g.
+ * rdfs:subClassOf axioms) is then seen by the reasoner, which changes the
+ * rdf:type closure of the instances of ocean.
+ *
+ * @author Luis Paulo
+ */
+public class ImportClosure {
+
+	private static final OntosIRI[] IMPORTS = { OntosIRI.METRICS_IRI, OntosIRI.SMELLS_IRI,
+			OntosIRI.REPOSITORIES_IRI, OntosIRI.OSORE_IRI };
+	private static final String[] FILES = { "metrics.owl", "codesmells.owl", "repositories.owl", "osore.owl" };
+
+	private String path;
+	private boolean convert;
+	private long[] modified;
+	private long[] lengths;
+	private Model model;
+
+	/**
+	 * Load all imported ontologies
+	 *
+	 * @param path
+	 *            the path where the ontologies are stored (ontos output path)
+	 * @param convert
+	 *            true if ontologies that are not RDF/XML are converted, false
+	 *            if they are skipped
+	 * @throws IOException
+	 *             if it fails to read the ontologies' physical files
+	 * @throws OWLException
+	 *             if it fails to convert an ontology to RDF/XML
+	 */
+	public ImportClosure(String path, boolean convert) throws IOException, OWLException {
+		this.path = path;
+		this.convert = convert;
+		this.modified = new long[FILES.length];
+		this.lengths = new long[FILES.length];
+
+		Model closure = ModelFactory.createDefaultModel();
+		for (int i = 0; i < FILES.length; i++) {
+			File file = new File(path + "/" + FILES[i]);
+			modified[i] = file.lastModified();
+			lengths[i] = file.length();
+
+			closure.add(read(file));
+		}
+		System.out.println("Imports loaded: " + closure.size() + " triples");
+		// nobody is allowed to change the shared graph
+		model = ModelFactory.createModelForGraph(new GraphReadOnly(closure.getGraph()));
+	}
+
+	/**
+	 * Read an ontology, converting it to RDF/XML if necessary (and enabled)
+	 *
+	 * @param file
+	 *            the ontology's physical file
+	 * @return a model containing the ontology's triples (empty if it is
+	 *         skipped)
+	 */
+	private Model read(File file) throws IOException, OWLOntologyCreationException, OWLOntologyStorageException {
+		Model ontology = ModelFactory.createDefaultModel();
+
+		InputStream stream = new FileInputStream(file);
+		try {
+			RDFDataMgr.read(ontology, stream, Lang.RDFXML);
+		} catch (RiotException e) {
+			// ...not RDF/XML, then OWL API must convert it first
+			ontology = ModelFactory.createDefaultModel();
+			if (convert) {
+				RDFDataMgr.read(ontology, new ByteArrayInputStream(convert(file)), Lang.RDFXML);
+			} else {
+				System.err.println("Import skipped, not RDF/XML: " + file);
+			}
+		} finally {
+			stream.close();
+		}
+
+		return ontology;
+	}
+
+	/**
+	 * Convert an ontology of any format supported by OWL API to RDF/XML
+	 *
+	 * @param file
+	 *            the ontology's physical file
+	 * @return the ontology serialized as RDF/XML
+	 */
+	private byte[] convert(File file) throws OWLOntologyCreationException, OWLOntologyStorageException {
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		// imports are resolved locally (they are converted on their own anyway)
+		for (int i = 0; i < IMPORTS.length; i++) {
+			manager.getIRIMappers().add(new SimpleIRIMapper(IRI.create(IMPORTS[i].getIri()),
+					IRI.create(new File(path + "/" + FILES[i]))));
+		}
+		OWLOntology ontology = manager.loadOntologyFromOntologyDocument(file);
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		manager.saveOntology(ontology, new RDFXMLDocumentFormat(), stream);
+
+		return stream.toByteArray();
+	}
+
+	/**
+	 * Verify if any of the ontologies has changed since they were loaded,
+	 * i.e. if the modification time or the size of its file has changed
+	 *
+	 * @return true if the closure must be loaded again
+	 */
+	public boolean isStale() {
+		for (int i = 0; i < FILES.length; i++) {
+			File file = new File(path + "/" + FILES[i]);
+			if ((file.lastModified() != modified[i]) || (file.length() != lengths[i])) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param path
+	 *            the path where the ontologies are stored (ontos output path)
+	 * @return physical files of the imported ontologies
+	 */
+	public static List<File> getFiles(String path) {
+		List<File> files = new ArrayList<File>();
+		for (String file : FILES) {
+			files.add(new File(path + "/" + file));
+		}
+
+		return files;
+	}
+
+	/**
+	 * @return true if ontologies that are not RDF/XML are converted
+	 */
+	public boolean isConverted() {
+		return convert;
+	}
+
+	/**
+	 * @return the path where the ontologies are stored
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return read-only model containing the triples of all imported
+	 *         ontologies
+	 */
+	public Model getModel() {
+		return model;
+	}
+
+}
@@ -0,0 +1,160 @@
+package br.org.resys.adapter.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.jena.graph.Node;
+
+/**
+ * Memory-mapped dictionary of the terms of a {@link MappedGraph}
+ * <p>
+ * Terms are stored encoded (see {@link MappedGraph#encode(Node)}) and sorted
+ * by their bytes, compared as unsigned values. The id of a term is its rank,
+ * so terms are found by binary search. The dictionary is mapped on its own by
+ * {@link MappedStore}, which looks up the ids of the triples it converts.
+ *
+ * @author Luis Paulo
+ */
+public class MappedDictionary {
+	// number of decoded terms kept (direct-mapped by id)
+	private static final int CACHE = 1 << 16;
+
+	private ByteBuffer terms;
+	private IntBuffer offsets;
+	private int numOfTerms;
+	private CachedNode[] cache;
+
+	/**
+	 * Map the files of a dictionary
+	 *
+	 * @param location
+	 *            directory containing the files written by {@link MappedStore}
+	 * @throws IOException
+	 *             if it fails to map the files
+	 */
+	public MappedDictionary(File location) throws IOException {
+		terms = map(new File(location, MappedGraph.TERMS));
+		offsets = map(new File(location, MappedGraph.OFFSETS)).asIntBuffer();
+
+		numOfTerms = offsets.limit() - 1;
+		cache = new CachedNode[CACHE];
+	}
+
+	static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Find the id of a term
+	 *
+	 * @param node
+	 *            an IRI, blank node or literal
+	 * @return the term's id or {@link MappedGraph#ANY} if the term is not in
+	 *         the dictionary
+	 */
+	public int getId(Node node) {
+		return getId(MappedGraph.encode(node).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Find the id of an encoded term
+	 *
+	 * @param term
+	 *            the term, encoded in UTF-8
+	 * @return the term's id or {@link MappedGraph#ANY} if the term is not in
+	 *         the dictionary
+	 */
+	public int getId(byte[] term) {
+		int low = 0, high = numOfTerms - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compareTerm(middle, term);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return MappedGraph.ANY;
+	}
+
+	/**
+	 * Compare a term of the dictionary with a given (encoded) term. Bytes are
+	 * compared as unsigned values, the order in which the dictionary is
+	 * sorted.
+	 */
+	private int compareTerm(int id, byte[] term) {
+		int start = offsets.get(id), end = offsets.get(id + 1);
+		int length = end - start;
+		for (int i = 0; (i < length) && (i < term.length); i++) {
+			int comparison = (terms.get(start + i) & 0xff) - (term[i] & 0xff);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+
+		return length - term.length;
+	}
+
+	/**
+	 * Retrieve the term of an id
+	 *
+	 * @param id
+	 *            id of a term
+	 * @return the corresponding node
+	 */
+	public Node getNode(int id) {
+		int slot = id & (CACHE - 1);
+		CachedNode cached = cache[slot];
+		if ((cached != null) && (cached.id == id)) {
+			return cached.node;
+		}
+
+		int start = offsets.get(id), end = offsets.get(id + 1);
+		byte[] term = new byte[end - start];
+		for (int i = 0; i < term.length; i++) {
+			term[i] = terms.get(start + i);
+		}
+		Node node = MappedGraph.decode(new String(term, StandardCharsets.UTF_8));
+		cache[slot] = new CachedNode(id, node);
+
+		return node;
+	}
+
+	public int getNumOfTerms() {
+		return numOfTerms;
+	}
+
+	/**
+	 * An entry of the cache of decoded terms
+	 * <p>
+	 * Entries are immutable, so threads reading the graph concurrently may
+	 * race on a slot of the cache without seeing a partially built entry.
+	 */
+	private static class CachedNode {
+		private final int id;
+		private final Node node;
+
+		private CachedNode(int id, Node node) {
+			this.id = id;
+			this.node = node;
+		}
+	}
+
+}
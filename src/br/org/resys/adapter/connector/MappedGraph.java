@@ -0,0 +1,295 @@
+package br.org.resys.adapter.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.NoSuchElementException;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+import org.apache.jena.vocabulary.RDF;
+
+/**
+ * Read-only graph backed by memory-mapped, dictionary-encoded files
+ * <p>
+ * Long IRIs (commits, committers, smells, refactorings...) are repeated all
+ * over instances of ocean. Here, every IRI and literal is stored only once, in
+ * a {@link MappedDictionary}. Its id is the rank of its encoded form, so the
+ * dictionary is sorted and terms are found by binary search. Triples are stored as triples
+ * of ids in three sorted permutations (SPO, POS and OSP), so that every
+ * triple pattern is answered by a binary search for a prefix followed by a
+ * sequential scan.
+ * <p>
+ * Literals are stored by their lexical form, but they are matched by value,
+ * as in Jena's in-memory graphs: a pattern whose object is a typed literal
+ * (e.g. "1"^^xsd:int) also matches the other forms of its value (e.g.
+ * "01"^^xsd:int). Such patterns are answered by scanning the triples of the
+ * pattern's subject and/or predicate, since values are not indexed. Strings
+ * are matched by their (unique) form.
+ * <p>
+ * All files are mapped into memory, thus opening a graph consumes almost no
+ * heap: the operating system pages the files in as they are read. The files
+ * are written by {@link MappedStore}. Each of them is limited to 2GB.
+ *
+ * @author Luis Paulo
+ */
+public class MappedGraph extends GraphBase {
+	public static final String TERMS = "terms.dat";
+	public static final String OFFSETS = "terms.idx";
+	public static final String SPO = "spo.idx";
+	public static final String POS = "pos.idx";
+	public static final String OSP = "osp.idx";
+
+	// separates the lexical form, language and datatype of encoded literals
+	public static final char SEPARATOR = '\u0000';
+	public static final int ANY = -1;
+
+	private MappedDictionary dictionary;
+	private IntBuffer spo, pos, osp;
+	private int numOfTriples;
+
+	/**
+	 * Map the files of a graph
+	 *
+	 * @param location
+	 *            directory containing the files written by {@link MappedStore}
+	 * @throws IOException
+	 *             if it fails to map the files
+	 */
+	public MappedGraph(File location) throws IOException {
+		dictionary = new MappedDictionary(location);
+		spo = MappedDictionary.map(new File(location, SPO)).asIntBuffer();
+		pos = MappedDictionary.map(new File(location, POS)).asIntBuffer();
+		osp = MappedDictionary.map(new File(location, OSP)).asIntBuffer();
+
+		numOfTriples = spo.limit() / 3;
+	}
+
+	/**
+	 * Encode a term the way it is stored in the dictionary
+	 *
+	 * @param node
+	 *            an IRI, blank node or literal
+	 * @return the encoded term
+	 */
+	public static String encode(Node node) {
+		if (node.isURI()) {
+			return "I" + node.getURI();
+		} else if (node.isBlank()) {
+			return "B" + node.getBlankNodeLabel();
+		}
+
+		return "L" + node.getLiteralLexicalForm() + SEPARATOR + node.getLiteralLanguage() + SEPARATOR
+				+ node.getLiteralDatatypeURI();
+	}
+
+	/**
+	 * Decode a term stored in the dictionary
+	 *
+	 * @param term
+	 *            the encoded term
+	 * @return the corresponding node
+	 */
+	public static Node decode(String term) {
+		char type = term.charAt(0);
+		if (type == 'I') {
+			return NodeFactory.createURI(term.substring(1));
+		} else if (type == 'B') {
+			return NodeFactory.createBlankNode(term.substring(1));
+		}
+		int lang = term.indexOf(SEPARATOR);
+		int datatype = term.indexOf(SEPARATOR, lang + 1);
+		String lexical = term.substring(1, lang);
+		String language = term.substring(lang + 1, datatype);
+		if (!language.isEmpty()) {
+			return NodeFactory.createLiteral(lexical, language);
+		}
+
+		return NodeFactory.createLiteral(lexical,
+				TypeMapper.getInstance().getSafeTypeByName(term.substring(datatype + 1)));
+	}
+
+	/**
+	 * Find the id of a term
+	 *
+	 * @param node
+	 *            an IRI, blank node or literal
+	 * @return the term's id or {@link #ANY} if the term is not in the
+	 *         dictionary
+	 */
+	public int getId(Node node) {
+		return dictionary.getId(node);
+	}
+
+	/**
+	 * Retrieve the term of an id
+	 *
+	 * @param id
+	 *            id of a term
+	 * @return the corresponding node
+	 */
+	public Node getNode(int id) {
+		return dictionary.getNode(id);
+	}
+
+	/**
+	 * Find all triples (of ids) matching a pattern
+	 *
+	 * @param s
+	 *            id of the subject or {@link #ANY}
+	 * @param p
+	 *            id of the predicate or {@link #ANY}
+	 * @param o
+	 *            id of the object or {@link #ANY}
+	 * @return iterator of triples, each one as an array {s, p, o}
+	 */
+	public IdIterator find(int s, int p, int o) {
+		if (s != ANY) {
+			if ((p == ANY) && (o != ANY)) {
+				return new IdIterator(osp, new int[] { o, s }, 2, 1, 2, 0);
+			}
+
+			return new IdIterator(spo, new int[] { s, p, o }, (p == ANY) ? 1 : (o == ANY) ? 2 : 3, 0, 1, 2);
+		} else if (p != ANY) {
+			return new IdIterator(pos, new int[] { p, o }, (o == ANY) ? 1 : 2, 2, 0, 1);
+		} else if (o != ANY) {
+			return new IdIterator(osp, new int[] { o }, 1, 1, 2, 0);
+		}
+
+		return new IdIterator(spo, new int[0], 0, 0, 1, 2);
+	}
+
+	@Override
+	protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+		int s = ANY, p = ANY, o = ANY;
+		// terms that are not in the dictionary cannot be matched
+		if (pattern.getSubject().isConcrete() && ((s = getId(pattern.getSubject())) == ANY)) {
+			return NiceIterator.emptyIterator();
+		}
+		if (pattern.getPredicate().isConcrete() && ((p = getId(pattern.getPredicate())) == ANY)) {
+			return NiceIterator.emptyIterator();
+		}
+		final Node value = pattern.getObject();
+		if (isMatchedByValue(value)) {
+			// every form of the value is matched (its id is not looked up)
+			return triples(find(s, p, ANY)).filterKeep(triple -> triple.getObject().sameValueAs(value));
+		}
+		if (value.isConcrete() && ((o = getId(value)) == ANY)) {
+			return NiceIterator.emptyIterator();
+		}
+
+		return triples(find(s, p, o));
+	}
+
+	/**
+	 * Verify if a term has other forms of the same value, i.e. if it is a
+	 * typed literal that is not a string
+	 */
+	private static boolean isMatchedByValue(Node node) {
+		if (!node.isLiteral()) {
+			return false;
+		}
+		String datatype = node.getLiteralDatatypeURI();
+
+		return (datatype != null) && !datatype.equals(XSDDatatype.XSDstring.getURI())
+				&& !datatype.equals(RDF.langString.getURI());
+	}
+
+	/**
+	 * Decode the triples found by an iterator of ids
+	 */
+	private ExtendedIterator<Triple> triples(final IdIterator ids) {
+		return new NiceIterator<Triple>() {
+			@Override
+			public boolean hasNext() {
+				return ids.hasNext();
+			}
+
+			@Override
+			public Triple next() {
+				int[] triple = ids.next();
+
+				return Triple.create(getNode(triple[0]), getNode(triple[1]), getNode(triple[2]));
+			}
+		};
+	}
+
+	@Override
+	protected int graphBaseSize() {
+		return numOfTriples;
+	}
+
+	public int getNumOfTerms() {
+		return dictionary.getNumOfTerms();
+	}
+
+	/**
+	 * Sequential scan of the triples of an index that share a given prefix
+	 */
+	public static class IdIterator {
+		private IntBuffer index;
+		private int current, end;
+		// position of the subject, predicate and object in the index's triples
+		private int s, p, o;
+
+		private IdIterator(IntBuffer index, int[] prefix, int length, int s, int p, int o) {
+			this.index = index;
+			this.s = s;
+			this.p = p;
+			this.o = o;
+
+			int numOfTriples = index.limit() / 3;
+			current = bound(prefix, length, numOfTriples, false);
+			end = bound(prefix, length, numOfTriples, true);
+		}
+
+		/**
+		 * Binary search for the first triple whose prefix is greater than
+		 * (upper) or greater than or equal to (lower) the given prefix
+		 */
+		private int bound(int[] prefix, int length, int numOfTriples, boolean upper) {
+			int low = 0, high = numOfTriples;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				int comparison = 0;
+				for (int i = 0; (i < length) && (comparison == 0); i++) {
+					comparison = Integer.compare(index.get(3 * middle + i), prefix[i]);
+				}
+				if ((comparison < 0) || (upper && (comparison == 0))) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			return low;
+		}
+
+		public boolean hasNext() {
+			return current < end;
+		}
+
+		public int[] next() {
+			if (current >= end) {
+				throw new NoSuchElementException();
+			}
+			int offset = 3 * current++;
+
+			return new int[] { index.get(offset + s), index.get(offset + p), index.get(offset + o) };
+		}
+
+		/**
+		 * @return number of triples not scanned yet
+		 */
+		public int remaining() {
+			return end - current;
+		}
+	}
+
+}
@@ -0,0 +1,596 @@
+package br.org.resys.adapter.connector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+import com.google.common.io.Files;
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Store of instances of ocean as memory-mapped, dictionary-encoded graphs
+ * <p>
+ * Each instance of ocean is converted once into the files of a
+ * {@link MappedGraph}, which are stored under "mmap/" in the ontos output
+ * path. Further queries map these files instead of parsing the ontology's
+ * file again. As in {@link TdbStore}, the source file's modification time and
+ * size are recorded along with the files, so that changed files are converted
+ * again.
+ * <p>
+ * Conversion is bounded by a memory budget (see {@link #setMemory(long)}),
+ * whatever the size of the ontology: terms and triples are sorted in runs that
+ * fit the budget, which are spilled to disk and merged. Opening a converted
+ * graph consumes almost no heap.
+ * <p>
+ * Each file of a graph is mapped as a single buffer, so it is limited to 2GB:
+ * the dictionary's terms (and its offsets, 4 bytes per term) and each index
+ * (12 bytes per triple, i.e. up to about 178 million triples). Conversion
+ * fails with an {@link IOException} once a file exceeds that limit.
+ * <p>
+ * Instances of ocean are converted under a lock of their own, so opening an
+ * ontology does not wait for the conversion of another one.
+ *
+ * @author Luis Paulo
+ */
+public class MappedStore {
+	private static final String SOURCE = "source.txt";
+	private static final long MEGABYTE = 1024 * 1024;
+	// estimated overhead of a term kept in a sorted set (node and array)
+	private static final long TERM_OVERHEAD = 64;
+	// max. size of a mapped file (a single buffer), in bytes
+	private static final long MAX_MAPPED = Integer.MAX_VALUE;
+	private static Map<String, MappedStore> instances = new HashMap<String, MappedStore>();
+
+	/**
+	 * @param path
+	 *            the path where the instances of ocean are stored (ontos output
+	 *            path)
+	 * @return singleton instance of the store kept in the given path
+	 */
+	public static synchronized MappedStore getInstance(String path) {
+		MappedStore instance = instances.get(path);
+		if (instance == null) {
+			instance = new MappedStore(path);
+			instances.put(path, instance);
+		}
+
+		return instance;
+	}
+
+	private String path;
+	// graphs already mapped (and the version of the files they were mapped from)
+	private Map<String, MappedGraph> graphs;
+	private Map<String, String> sources;
+	// ontologies being opened (or converted)
+	private Map<String, Object> opens;
+	// max. heap used by a conversion, in bytes
+	private volatile long memory = 64 * MEGABYTE;
+
+	private MappedStore(String path) {
+		this.path = path;
+		this.graphs = new ConcurrentHashMap<String, MappedGraph>();
+		this.sources = new ConcurrentHashMap<String, String>();
+		this.opens = new ConcurrentHashMap<String, Object>();
+	}
+
+	/**
+	 * @param memory
+	 *            max. heap used to convert an ontology, in bytes (default:
+	 *            64MB)
+	 * @return instance of #MappedStore
+	 */
+	public synchronized MappedStore setMemory(long memory) {
+		this.memory = memory;
+
+		return this;
+	}
+
+	/**
+	 * Open the graph of an instance of ocean, converting it if necessary
+	 *
+	 * @param ontology
+	 *            instance of ocean stored in the ontos output path
+	 * @return the graph
+	 * @throws IOException
+	 *             if it fails to read the ontology's physical file or to map
+	 *             the graph's files
+	 */
+	public MappedGraph open(String ontology) throws IOException {
+		File file = new File(path + "/" + ontology);
+		File location = getLocation(ontology);
+
+		synchronized (opens.computeIfAbsent(ontology, o -> new Object())) {
+			String source = file.lastModified() + "," + file.length();
+			MappedGraph graph = graphs.get(ontology);
+			if ((graph == null) || !source.equals(sources.get(ontology))) {
+				File sourceFile = new File(location, SOURCE);
+				if (!sourceFile.exists()
+						|| !source.equals(Files.asCharSource(sourceFile, StandardCharsets.UTF_8).read())) {
+					convert(file, location);
+					Files.asCharSink(sourceFile, StandardCharsets.UTF_8).write(source);
+				}
+				graph = new MappedGraph(location);
+				graphs.put(ontology, graph);
+				sources.put(ontology, source);
+			}
+
+			return graph;
+		}
+	}
+
+	/**
+	 * @param ontology
+	 *            instance of ocean
+	 * @return the directory of the ontology's files
+	 */
+	private File getLocation(String ontology) {
+		String name = ontology.endsWith(".owl") ? ontology.substring(0, ontology.length() - 4) : ontology;
+
+		return new File(path + "/mmap/" + name);
+	}
+
+	/**
+	 * Convert an instance of ocean into the files of a {@link MappedGraph}
+	 * <p>
+	 * The ontology is parsed once: the encoded terms of its triples are
+	 * written to a temporary file, and its distinct terms are sorted in runs.
+	 * The runs are merged into the dictionary, which is then mapped to look up
+	 * the ids of the triples. Triples of ids are sorted in runs as well, merged
+	 * into the SPO index, which is permuted (again in runs) into the POS and
+	 * OSP indexes.
+	 * <p>
+	 * The files are written into a temporary directory which replaces the
+	 * previous one at the end. Graphs mapped from the previous files remain
+	 * valid as long as they are referenced.
+	 *
+	 * @param file
+	 *            the ontology's physical file
+	 * @param location
+	 *            the directory of the graph's files
+	 * @throws IOException
+	 *             if it fails to read the ontology or to write the files
+	 */
+	private void convert(File file, File location) throws IOException {
+		System.out.println("Converting " + file + " into " + location + "...");
+		File temp = new File(location.getPath() + ".tmp");
+		FileUtils.deleteDirectory(temp);
+		temp.mkdirs();
+
+		// terms of the triples, and their sorted runs
+		File parsed = new File(temp, "triples.tmp");
+		TermSorter terms = new TermSorter(temp);
+		try (DataOutputStream out = open(parsed)) {
+			BinaryRdf.parse(file, new StreamRDFBase() {
+				@Override
+				public void triple(Triple triple) {
+					try {
+						write(triple.getSubject());
+						write(triple.getPredicate());
+						write(triple.getObject());
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+
+				private void write(Node node) throws IOException {
+					byte[] term = MappedGraph.encode(node).getBytes(StandardCharsets.UTF_8);
+					out.writeInt(term.length);
+					out.write(term);
+					terms.add(term);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		terms.write(new File(temp, MappedGraph.TERMS), new File(temp, MappedGraph.OFFSETS));
+
+		// triples of ids
+		MappedDictionary dictionary = new MappedDictionary(temp);
+		TripleSorter spo = new TripleSorter(temp);
+		try (DataInputStream in = openInput(parsed)) {
+			int[] triple = new int[3];
+			while (read(in, triple, dictionary)) {
+				spo.add(triple[0], triple[1], triple[2]);
+			}
+		}
+		parsed.delete();
+		spo.write(new File(temp, MappedGraph.SPO));
+		permute(new File(temp, MappedGraph.SPO), new File(temp, MappedGraph.POS), 1, 2, 0);
+		permute(new File(temp, MappedGraph.SPO), new File(temp, MappedGraph.OSP), 2, 0, 1);
+
+		FileUtils.deleteDirectory(location);
+		if (!temp.renameTo(location)) {
+			throw new IOException("Unable to move " + temp + " to " + location);
+		}
+	}
+
+	private DataOutputStream open(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+	}
+
+	private DataInputStream openInput(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+	}
+
+	/**
+	 * Read the encoded terms of a triple and look up their ids
+	 *
+	 * @return false if there are no more triples
+	 */
+	private boolean read(DataInputStream in, int[] triple, MappedDictionary dictionary) throws IOException {
+		for (int i = 0; i < 3; i++) {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			byte[] term = new byte[length];
+			in.readFully(term);
+			triple[i] = dictionary.getId(term);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Rearrange the components of the triples of an index into another index
+	 */
+	private void permute(File index, File permuted, int first, int second, int third) throws IOException {
+		TripleSorter sorter = new TripleSorter(index.getParentFile());
+		try (DataInputStream in = openInput(index)) {
+			int[] triple = new int[3];
+			for (long i = index.length() / 12; i > 0; i--) {
+				triple[0] = in.readInt();
+				triple[1] = in.readInt();
+				triple[2] = in.readInt();
+				sorter.add(triple[first], triple[second], triple[third]);
+			}
+		}
+		sorter.write(permuted);
+	}
+
+	/**
+	 * Sort triples (lexicographically) and remove duplicates, in place
+	 *
+	 * @return number of ints of the distinct triples
+	 */
+	private int sortAndDistinct(int[] triples, int length) {
+		sort(triples, 0, length / 3 - 1, new Random(length));
+
+		int distinct = 0;
+		for (int i = 0; i < length; i += 3) {
+			if ((distinct == 0) || (compare(triples, i, distinct - 3) != 0)) {
+				triples[distinct] = triples[i];
+				triples[distinct + 1] = triples[i + 1];
+				triples[distinct + 2] = triples[i + 2];
+				distinct += 3;
+			}
+		}
+
+		return distinct;
+	}
+
+	/**
+	 * Quicksort of the triples in [low, high]. Recursion goes into the smaller
+	 * partition, so its depth remains logarithmic.
+	 */
+	private void sort(int[] triples, int low, int high, Random random) {
+		while (low < high) {
+			int pivot = 3 * (low + random.nextInt(high - low + 1));
+			int ps = triples[pivot], pp = triples[pivot + 1], po = triples[pivot + 2];
+			int i = low, j = high;
+			while (i <= j) {
+				while (compare(triples, 3 * i, ps, pp, po) < 0) {
+					i++;
+				}
+				while (compare(triples, 3 * j, ps, pp, po) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					swap(triples, 3 * i++, 3 * j--);
+				}
+			}
+			if ((j - low) < (high - i)) {
+				sort(triples, low, j, random);
+				low = i;
+			} else {
+				sort(triples, i, high, random);
+				high = j;
+			}
+		}
+	}
+
+	private int compare(int[] triples, int a, int b) {
+		return compare(triples, a, triples[b], triples[b + 1], triples[b + 2]);
+	}
+
+	private int compare(int[] triples, int a, int s, int p, int o) {
+		int comparison = Integer.compare(triples[a], s);
+		if (comparison == 0) {
+			comparison = Integer.compare(triples[a + 1], p);
+			if (comparison == 0) {
+				comparison = Integer.compare(triples[a + 2], o);
+			}
+		}
+
+		return comparison;
+	}
+
+	/**
+	 * Verify that a file of the graph can be mapped
+	 *
+	 * @throws IOException
+	 *             if the file would exceed the size of a mapped buffer
+	 */
+	private void checkMapped(File file, long size) throws IOException {
+		if (size > MAX_MAPPED) {
+			throw new IOException("Unable to convert " + file + ": it would exceed " + MAX_MAPPED
+					+ " bytes, the size of a mapped file");
+		}
+	}
+
+	private void swap(int[] triples, int a, int b) {
+		for (int i = 0; i < 3; i++) {
+			int temp = triples[a + i];
+			triples[a + i] = triples[b + i];
+			triples[b + i] = temp;
+		}
+	}
+
+	/**
+	 * Distinct terms sorted by their bytes (unsigned), spilled in runs once
+	 * they exceed the budget
+	 */
+	private class TermSorter {
+		private File directory;
+		private TreeSet<byte[]> terms = new TreeSet<byte[]>(UnsignedBytes.lexicographicalComparator());
+		private long size;
+		private List<File> runs = new ArrayList<File>();
+
+		private TermSorter(File directory) {
+			this.directory = directory;
+		}
+
+		private void add(byte[] term) throws IOException {
+			if (terms.add(term)) {
+				size += TERM_OVERHEAD + term.length;
+				if (size > memory) {
+					spill();
+				}
+			}
+		}
+
+		private void spill() throws IOException {
+			File run = File.createTempFile("terms_", ".run", directory);
+			try (DataOutputStream out = open(run)) {
+				for (byte[] term : terms) {
+					out.writeInt(term.length);
+					out.write(term);
+				}
+			}
+			runs.add(run);
+			terms.clear();
+			size = 0;
+		}
+
+		/**
+		 * Merge the runs into the dictionary's files, removing duplicates
+		 */
+		private void write(File dictionary, File offsets) throws IOException {
+			if (!terms.isEmpty()) {
+				spill();
+			}
+			PriorityQueue<TermReader> readers = new PriorityQueue<TermReader>(Math.max(runs.size(), 1),
+					(a, b) -> UnsignedBytes.lexicographicalComparator().compare(a.term, b.term));
+			List<TermReader> opened = new ArrayList<TermReader>();
+			try (DataOutputStream index = open(offsets);
+					BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dictionary), 64 * 1024)) {
+				for (File run : runs) {
+					TermReader reader = new TermReader(openInput(run));
+					opened.add(reader);
+					if (reader.next()) {
+						readers.add(reader);
+					}
+				}
+				long offset = 0, numOfTerms = 0;
+				byte[] last = null;
+				while (!readers.isEmpty()) {
+					TermReader head = readers.poll();
+					byte[] term = head.term;
+					if (head.next()) {
+						readers.add(head);
+					}
+					if ((last == null) || (UnsignedBytes.lexicographicalComparator().compare(last, term) != 0)) {
+						checkMapped(dictionary, offset + term.length);
+						// offsets of the terms and of the end of the last one
+						checkMapped(offsets, 4 * (++numOfTerms + 1));
+						index.writeInt((int) offset);
+						out.write(term);
+						offset += term.length;
+						last = term;
+					}
+				}
+				index.writeInt((int) offset);
+			} finally {
+				for (TermReader reader : opened) {
+					reader.in.close();
+				}
+				for (File run : runs) {
+					run.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cursor over the terms of a run
+	 */
+	private static class TermReader {
+		private DataInputStream in;
+		private byte[] term;
+
+		private TermReader(DataInputStream in) {
+			this.in = in;
+		}
+
+		private boolean next() throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			term = new byte[length];
+			in.readFully(term);
+
+			return true;
+		}
+	}
+
+	/**
+	 * Distinct triples of ids sorted (lexicographically) in runs that fit the
+	 * budget, which are merged into an index
+	 */
+	private class TripleSorter {
+		private File directory;
+		// grows up to the budget (12 bytes per triple)
+		private int[] triples;
+		private int capacity;
+		private int length;
+		private List<File> runs = new ArrayList<File>();
+
+		private TripleSorter(File directory) {
+			this.directory = directory;
+			this.capacity = 3 * (int) Math.max(1, Math.min(memory / 12, Integer.MAX_VALUE / 3));
+			this.triples = new int[Math.min(3 * 1024, capacity)];
+		}
+
+		private void add(int s, int p, int o) throws IOException {
+			if (length == triples.length) {
+				if (triples.length < capacity) {
+					triples = Arrays.copyOf(triples, (int) Math.min(2L * triples.length, capacity));
+				} else {
+					spill();
+				}
+			}
+			triples[length++] = s;
+			triples[length++] = p;
+			triples[length++] = o;
+		}
+
+		private void spill() throws IOException {
+			File run = File.createTempFile("triples_", ".run", directory);
+			write(run, sortAndDistinct(triples, length));
+			runs.add(run);
+			length = 0;
+		}
+
+		private void write(File file, int length) throws IOException {
+			try (DataOutputStream out = open(file)) {
+				for (int i = 0; i < length; i++) {
+					out.writeInt(triples[i]);
+				}
+			}
+		}
+
+		/**
+		 * Merge the runs into an index, removing duplicates
+		 */
+		private void write(File index) throws IOException {
+			if (runs.isEmpty()) {
+				int distinct = sortAndDistinct(triples, length);
+				checkMapped(index, 4L * distinct);
+				write(index, distinct);
+				triples = null;
+
+				return;
+			}
+			spill();
+			triples = null;
+			PriorityQueue<TripleReader> readers = new PriorityQueue<TripleReader>(runs.size(),
+					(a, b) -> compare(a.triple, 0, b.triple[0], b.triple[1], b.triple[2]));
+			List<TripleReader> opened = new ArrayList<TripleReader>();
+			try (DataOutputStream out = open(index)) {
+				for (File run : runs) {
+					TripleReader reader = new TripleReader(openInput(run));
+					opened.add(reader);
+					if (reader.next()) {
+						readers.add(reader);
+					}
+				}
+				long size = 0;
+				int[] last = null;
+				while (!readers.isEmpty()) {
+					TripleReader head = readers.poll();
+					int[] triple = head.triple.clone();
+					if (head.next()) {
+						readers.add(head);
+					}
+					if ((last == null) || (compare(last, 0, triple[0], triple[1], triple[2]) != 0)) {
+						size += 12;
+						checkMapped(index, size);
+						out.writeInt(triple[0]);
+						out.writeInt(triple[1]);
+						out.writeInt(triple[2]);
+						last = triple;
+					}
+				}
+			} finally {
+				for (TripleReader reader : opened) {
+					reader.in.close();
+				}
+				for (File run : runs) {
+					run.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cursor over the triples of a run
+	 */
+	private static class TripleReader {
+		private DataInputStream in;
+		private int[] triple = new int[3];
+
+		private TripleReader(DataInputStream in) {
+			this.in = in;
+		}
+
+		private boolean next() throws IOException {
+			try {
+				triple[0] = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			triple[1] = in.readInt();
+			triple[2] = in.readInt();
+
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,224 @@
+package br.org.resys.adapter.connector;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import org.apache.jena.ontology.OntModel;
+
+/**
+ * Bounded cache of parsed instances of ocean
+ * <p>
+ * Parsing an ocean (and its imports) is, by far, the most expensive step of
+ * {@link SparqlConnector#adapt(String, br.org.resys.adapter.ISparqlProcessingAdapter)}.
+ * This cache keeps the parsed models in memory so that consecutive exports of
+ * the same ocean do not have to parse it again.
+ * <p>
+ * Models are indexed by {@link Key}, i.e., the ocean's full path, last
+ * modification time and size. Thus, if the file is replaced, a new key is
+ * produced and the model is parsed again. The memory footprint of each model
+ * is estimated from its number of triples. Once the sum of the estimations
+ * exceeds the budget, the least recently used models are evicted.
+ *
+ * @author Luis Paulo
+ */
+public class ModelCache {
+	// rough estimation of the heap consumed by each triple (in bytes), including
+	// jena's indexes and the state of the inference engine
+	private static final long BYTES_PER_TRIPLE = 400;
+
+	private LinkedHashMap<Key, Cached> models;
+	private long budget;
+	private long usage;
+	private long hits, misses, evictions;
+
+	/**
+	 * @param budget
+	 *            max. amount of heap (in bytes) the cached models are allowed
+	 *            to consume
+	 */
+	public ModelCache(long budget) {
+		// access-ordered, so that the eldest entry is the least recently used
+		this.models = new LinkedHashMap<Key, Cached>(16, 0.75f, true);
+		this.budget = budget;
+	}
+
+	/**
+	 * Retrieve a model previously cached
+	 *
+	 * @param key
+	 *            key of the ocean file
+	 * @return the cached model or null if it has not been cached (or if the
+	 *         file has changed since it was cached)
+	 */
+	public synchronized OntModel get(Key key) {
+		Cached cached = models.get(key);
+		if (cached == null) {
+			misses++;
+
+			return null;
+		}
+		hits++;
+
+		return cached.model;
+	}
+
+	/**
+	 * Add a freshly parsed model to the cache
+	 * <p>
+	 * Outdated versions of the same ocean (and variant) are dropped. If the
+	 * model alone exceeds the budget it is not cached at all.
+	 *
+	 * @param key
+	 *            key of the ocean file
+	 * @param model
+	 *            the parsed model
+	 * @return instance of #ModelCache
+	 */
+	public synchronized ModelCache put(Key key, OntModel model) {
+		long size = model.getBaseModel().size() * BYTES_PER_TRIPLE;
+		// outdated versions of the ocean will never be hit again
+		for (Iterator<Key> i = models.keySet().iterator(); i.hasNext();) {
+			Key cached = i.next();
+			if (cached.path.equals(key.path) && cached.variant.equals(key.variant)) {
+				usage -= models.get(cached).size;
+				i.remove();
+			}
+		}
+		if (size <= budget) {
+			models.put(key, new Cached(model, size));
+			usage += size;
+			evict();
+		}
+
+		return this;
+	}
+
+	/**
+	 * Remove the least recently used models until the budget is met
+	 */
+	private void evict() {
+		Iterator<Entry<Key, Cached>> i = models.entrySet().iterator();
+		while ((usage > budget) && i.hasNext()) {
+			Entry<Key, Cached> eldest = i.next();
+			usage -= eldest.getValue().size;
+			i.remove();
+
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drop all cached models
+	 *
+	 * @return instance of #ModelCache
+	 */
+	public synchronized ModelCache clear() {
+		models.clear();
+		usage = 0;
+
+		return this;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public synchronized long getUsage() {
+		return usage;
+	}
+
+	public synchronized int getSize() {
+		return models.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Json document representing the cache's statistics
+	 *
+	 * @return a json doc
+	 */
+	public synchronized String toJson() {
+		return "{\"models\" : \"" + models.size() + "\", \"usage\" : \"" + usage + "\", \"budget\" : \"" + budget
+				+ "\", \"hits\" : \"" + hits + "\", \"misses\" : \"" + misses + "\", \"evictions\" : \"" + evictions
+				+ "\"}";
+	}
+
+	/**
+	 * A cached model and its estimated size
+	 */
+	private static class Cached {
+		private OntModel model;
+		private long size;
+
+		private Cached(OntModel model, long size) {
+			this.model = model;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Identifies a specific version of an ocean file, as it is loaded by a
+	 * given variant (e.g. the spec of the model)
+	 */
+	public static class Key {
+		private String path;
+		private long modified;
+		private long length;
+		private String variant;
+
+		public Key(File file) {
+			this(file, "");
+		}
+
+		public Key(File file, String variant) {
+			this.path = file.getAbsolutePath();
+			this.modified = file.lastModified();
+			this.length = file.length();
+			this.variant = variant;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public String getVariant() {
+			return variant;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * ((31 * (31 * path.hashCode() + Long.hashCode(modified))) + Long.hashCode(length))
+					+ variant.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+
+			return path.equals(other.path) && (modified == other.modified) && (length == other.length)
+					&& variant.equals(other.variant);
+		}
+
+		@Override
+		public String toString() {
+			return path + "@" + modified + "/" + length + (variant.isEmpty() ? "" : "#" + variant);
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package br.org.resys.adapter.connector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.SortCondition;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.E_GreaterThanOrEqual;
+import org.apache.jena.sparql.expr.E_LessThan;
+import org.apache.jena.sparql.expr.E_LogicalAnd;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprNotComparableException;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+import br.org.resys.en.OntosIRI;
+import br.org.resys.en.Sparqls;
+
+/**
+ * Split of a statement into independent partitions, by ranges of commit
+ * datetime
+ * <p>
+ * All of the export statements in {@link Sparqls} bind the datetime of a
+ * commit (?commit repo:datetime ?datetime). The datetimes of the ontology are
+ * sorted and cut into ranges holding about the same number of commits. Each
+ * partition is the statement filtered by one of the ranges, so every row of
+ * the statement belongs to exactly one partition. Partitions are returned in
+ * the order of the statement: if it is ordered by datetime, concatenating the
+ * rows of the partitions gives the rows of the statement.
+ *
+ * @author Luis Paulo
+ */
+public class Partitions {
+	private static final String DATETIME = OntosIRI.REPOSITORIES_IRI.getIri() + "#datetime";
+
+	/**
+	 * Split a statement into partitions
+	 *
+	 * @param query
+	 *            the statement
+	 * @param graph
+	 *            the graph it is executed on
+	 * @param max
+	 *            max. number of partitions
+	 * @return the partitions, in order of the statement, or null if the
+	 *         statement cannot be split (e.g. it binds no datetime or there are
+	 *         too few of them)
+	 */
+	public static List<Query> split(Query query, Graph graph, int max) {
+		if (!(query.getQueryPattern() instanceof ElementGroup)) {
+			return null;
+		}
+		Triple pattern = null;
+		for (Element element : ((ElementGroup) query.getQueryPattern()).getElements()) {
+			if (element instanceof ElementPathBlock) {
+				for (TriplePath path : ((ElementPathBlock) element).getPattern().getList()) {
+					if (path.isTriple() && path.getPredicate().isURI()
+							&& path.getPredicate().getURI().equals(DATETIME) && path.getObject().isVariable()) {
+						pattern = path.asTriple();
+					}
+				}
+			}
+		}
+		if (pattern == null) {
+			return null;
+		}
+		Var var = Var.alloc(pattern.getObject());
+
+		List<NodeValue> datetimes = new ArrayList<NodeValue>();
+		ExtendedIterator<Triple> triples = graph.find(Node.ANY, pattern.getPredicate(), Node.ANY);
+		try {
+			while (triples.hasNext()) {
+				datetimes.add(NodeValue.makeNode(triples.next().getObject()));
+			}
+		} finally {
+			triples.close();
+		}
+		try {
+			// the same comparison the filters rely on
+			Collections.sort(datetimes, (a, b) -> NodeValue.compare(a, b));
+		} catch (ExprNotComparableException e) {
+			// rows of incomparable datetimes would fall out of every range
+			return null;
+		}
+
+		List<NodeValue> bounds = new ArrayList<NodeValue>();
+		for (int i = 1; i < max; i++) {
+			NodeValue bound = datetimes.get(i * datetimes.size() / max);
+			if ((bounds.isEmpty() ? NodeValue.compare(datetimes.get(0), bound)
+					: NodeValue.compare(bounds.get(bounds.size() - 1), bound)) < 0) {
+				bounds.add(bound);
+			}
+		}
+		if (bounds.isEmpty()) {
+			return null;
+		}
+
+		List<Query> partitions = new ArrayList<Query>();
+		for (int i = 0; i <= bounds.size(); i++) {
+			Expr lower = (i > 0) ? new E_GreaterThanOrEqual(new ExprVar(var), bounds.get(i - 1)) : null;
+			Expr upper = (i < bounds.size()) ? new E_LessThan(new ExprVar(var), bounds.get(i)) : null;
+			Expr range = (lower == null) ? upper : (upper == null) ? lower : new E_LogicalAnd(lower, upper);
+
+			Query partition = query.cloneQuery();
+			((ElementGroup) partition.getQueryPattern()).addElementFilter(new ElementFilter(range));
+			partitions.add(partition);
+		}
+		if (query.hasOrderBy()) {
+			SortCondition condition = query.getOrderBy().get(0);
+			if (var.equals(condition.getExpression().asVar())
+					&& (condition.getDirection() == Query.ORDER_DESCENDING)) {
+				Collections.reverse(partitions);
+			}
+		}
+
+		return partitions;
+	}
+
+}
@@ -0,0 +1,68 @@
+package br.org.resys.adapter.connector;
+
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIteratorWrapper;
+import org.apache.jena.sparql.engine.main.OpExecutor;
+import org.apache.jena.sparql.engine.main.OpExecutorFactory;
+
+/**
+ * Executor of ARQ that counts the rows produced by each operator of an
+ * algebra expression into a {@link QueryProfile}
+ * <p>
+ * Operators are recorded as they are executed (outermost first), indented by
+ * their depth in the expression.
+ *
+ * @author Luis Paulo
+ */
+public class ProfilingOpExecutor extends OpExecutor {
+
+	/**
+	 * @param profile
+	 *            the profile to record the operators into
+	 * @return factory of executors recording into the profile (see
+	 *         {@link org.apache.jena.sparql.engine.main.QC#setFactory})
+	 */
+	public static OpExecutorFactory factory(QueryProfile profile) {
+		return context -> new ProfilingOpExecutor(context, profile);
+	}
+
+	private QueryProfile profile;
+	private int depth;
+
+	private ProfilingOpExecutor(ExecutionContext context, QueryProfile profile) {
+		super(context);
+		this.profile = profile;
+	}
+
+	@Override
+	protected QueryIterator exec(Op op, QueryIterator input) {
+		StringBuilder step = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			step.append("  ");
+		}
+		step.append(op.getName());
+		if (op instanceof OpBGP) {
+			step.append(" (").append(((OpBGP) op).getPattern().size()).append(" patterns)");
+		}
+		long[] counter = profile.addStep(step.toString());
+
+		depth++;
+		try {
+			return new QueryIteratorWrapper(super.exec(op, input)) {
+				@Override
+				protected Binding moveToNextBinding() {
+					counter[0]++;
+
+					return super.moveToNextBinding();
+				}
+			};
+		} finally {
+			depth--;
+		}
+	}
+
+}
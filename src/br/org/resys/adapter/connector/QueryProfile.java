@@ -0,0 +1,235 @@
+package br.org.resys.adapter.connector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.syntax.ElementVisitorBase;
+import org.apache.jena.sparql.syntax.ElementWalker;
+import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Profile of the execution of a statement by {@link SparqlConnector}
+ * <p>
+ * A profile records:
+ * <ul>
+ * <li>the statement (the name of the enumerated sparql, if any), the
+ * executor and the optimized algebra expression of the statement</li>
+ * <li>the cardinality of each triple pattern, i.e. the number of triples of
+ * the model matching it</li>
+ * <li>the number of rows produced by each step of the execution: the joins of
+ * {@link HashJoinExecutor} (in order of execution, after filters) or the
+ * operators of ARQ (outermost first)</li>
+ * <li>the time spent to parse, plan and execute the statement and the number
+ * of rows passed to the adapter</li>
+ * </ul>
+ *
+ * @author Luis Paulo
+ */
+public class QueryProfile {
+
+	private String statement;
+	private String executor;
+	private String algebra;
+	private List<String> patterns = new ArrayList<String>();
+	private List<Long> cardinalities = new ArrayList<Long>();
+	private List<String> steps = new ArrayList<String>();
+	private List<long[]> rows = new ArrayList<long[]>();
+	private long parseNanos, planNanos, executeNanos;
+	private long results;
+
+	/**
+	 * @param statement
+	 *            name of the statement
+	 * @param executor
+	 *            hashjoin or arq
+	 */
+	public QueryProfile(String statement, String executor) {
+		this.statement = statement;
+		this.executor = executor;
+	}
+
+	public String getStatement() {
+		return statement;
+	}
+
+	public String getExecutor() {
+		return executor;
+	}
+
+	public QueryProfile setExecutor(String executor) {
+		this.executor = executor;
+
+		return this;
+	}
+
+	public QueryProfile setAlgebra(String algebra) {
+		this.algebra = algebra;
+
+		return this;
+	}
+
+	/**
+	 * Record the cardinality of a triple pattern
+	 *
+	 * @param pattern
+	 *            the pattern, as written in the statement
+	 * @param cardinality
+	 *            number of triples matching it
+	 * @return instance of #QueryProfile
+	 */
+	public QueryProfile addPattern(String pattern, long cardinality) {
+		patterns.add(pattern);
+		cardinalities.add(cardinality);
+
+		return this;
+	}
+
+	/**
+	 * Record the triple patterns of a query, counting the triples of a graph
+	 * matching each of them
+	 *
+	 * @param query
+	 *            the query
+	 * @param graph
+	 *            the graph it is executed on
+	 * @return instance of #QueryProfile
+	 */
+	public QueryProfile addPatterns(Query query, Graph graph) {
+		ElementWalker.walk(query.getQueryPattern(), new ElementVisitorBase() {
+			@Override
+			public void visit(ElementPathBlock block) {
+				for (TriplePath path : block.getPattern().getList()) {
+					if (path.isTriple()) {
+						Triple pattern = path.asTriple();
+						addPattern(FmtUtils.stringForTriple(pattern, query.getPrefixMapping()), count(graph, pattern));
+					}
+				}
+			}
+		});
+
+		return this;
+	}
+
+	private static long count(Graph graph, Triple pattern) {
+		long count = 0;
+		ExtendedIterator<Triple> triples = graph.find(ground(pattern.getSubject()), ground(pattern.getPredicate()),
+				ground(pattern.getObject()));
+		try {
+			while (triples.hasNext()) {
+				triples.next();
+				count++;
+			}
+		} finally {
+			triples.close();
+		}
+
+		return count;
+	}
+
+	private static Node ground(Node node) {
+		return node.isVariable() ? Node.ANY : node;
+	}
+
+	/**
+	 * Add a step to the execution
+	 *
+	 * @param step
+	 *            description of the step
+	 * @return the counter of the rows produced by the step
+	 */
+	public long[] addStep(String step) {
+		long[] counter = new long[1];
+		steps.add(step);
+		rows.add(counter);
+
+		return counter;
+	}
+
+	public QueryProfile setParseNanos(long parseNanos) {
+		this.parseNanos = parseNanos;
+
+		return this;
+	}
+
+	public QueryProfile setPlanNanos(long planNanos) {
+		this.planNanos = planNanos;
+
+		return this;
+	}
+
+	public QueryProfile setExecuteNanos(long executeNanos) {
+		this.executeNanos = executeNanos;
+
+		return this;
+	}
+
+	public QueryProfile setResults(long results) {
+		this.results = results;
+
+		return this;
+	}
+
+	public long getResults() {
+		return results;
+	}
+
+	/**
+	 * Json document representing the profile
+	 *
+	 * @return a json doc
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"statement\" : \"").append(escape(statement)).append("\", \"executor\" : \"")
+				.append(executor).append("\", \"algebra\" : \"").append(escape(algebra)).append("\", \"patterns\" : [");
+		for (int i = 0; i < patterns.size(); i++) {
+			json.append((i > 0) ? ", " : "").append("{\"pattern\" : \"").append(escape(patterns.get(i)))
+					.append("\", \"cardinality\" : \"").append(cardinalities.get(i)).append("\"}");
+		}
+		json.append("], \"steps\" : [");
+		for (int i = 0; i < steps.size(); i++) {
+			json.append((i > 0) ? ", " : "").append("{\"step\" : \"").append(escape(steps.get(i)))
+					.append("\", \"rows\" : \"").append(rows.get(i)[0]).append("\"}");
+		}
+		json.append("], \"parse\" : \"").append(millis(parseNanos)).append("\", \"plan\" : \"")
+				.append(millis(planNanos)).append("\", \"execute\" : \"").append(millis(executeNanos))
+				.append("\", \"rows\" : \"").append(results).append("\"}");
+
+		return json.toString();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append("Profile of " + statement + " (" + executor + "): parse " + millis(parseNanos) + "ms, plan "
+				+ millis(planNanos) + "ms, execute " + millis(executeNanos) + "ms, " + results + " rows");
+		for (int i = 0; i < patterns.size(); i++) {
+			text.append("\n  pattern ").append(patterns.get(i)).append(": ").append(cardinalities.get(i));
+		}
+		for (int i = 0; i < steps.size(); i++) {
+			text.append("\n  step ").append(steps.get(i)).append(": ").append(rows.get(i)[0]);
+		}
+		text.append("\n").append(algebra);
+
+		return text.toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String escape(String value) {
+		return (value == null) ? ""
+				: value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "")
+						.replace("\t", "  ");
+	}
+
+}
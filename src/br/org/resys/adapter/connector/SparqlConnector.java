@@ -1,23 +1,61 @@
 package br.org.resys.adapter.connector;
 
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.jena.ontology.OntDocumentManager;
 import org.apache.jena.ontology.OntModel;
+import org.apache.jena.atlas.lib.Alarm;
+import org.apache.jena.atlas.lib.AlarmClock;
+import org.apache.jena.ontology.OntModelSpec;
 import org.apache.jena.query.ARQ;
+import org.apache.jena.query.Dataset;
 import org.apache.jena.query.Query;
-import org.apache.jena.query.QueryExecution;
-import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryCancelledException;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.query.ReadWrite;
 import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.InfModel;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.shared.Lock;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.engine.Plan;
+import org.apache.jena.sparql.engine.QueryEngineRegistry;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.ResultSetStream;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingUtils;
+import org.apache.jena.sparql.engine.main.QC;
 import org.apache.jena.sparql.mgt.Explain;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+import org.apache.jena.sparql.util.Context;
+import org.semanticweb.owlapi.model.OWLException;
 
+import br.org.resys.adapter.IMergeableAdapter;
 import br.org.resys.adapter.ISparqlProcessingAdapter;
-import br.org.resys.en.OntosIRI;
+import br.org.resys.adapter.IStreamingAdapter;
+import br.org.resys.adapter.IViewProcessingAdapter;
+import br.org.resys.adapter.impl.CompositeAdapter;
+import br.org.resys.adapter.view.MaterializedView;
+import br.org.resys.adapter.view.ViewBuilder;
+import br.org.resys.adapter.view.ViewIndex;
+import br.org.resys.en.Sparqls;
 
 /**
  * Connector that supports the querying of ontologies
@@ -39,13 +77,13 @@ import br.org.resys.en.OntosIRI;
  * @author Luis Paulo
  */
 public class SparqlConnector {
-	private static final int TIMEOUT = 30000; 
+	private static final long MEGABYTE = 1024 * 1024;
 	private static SparqlConnector instance;
 
 	/**
 	 * @return singleton instance of this connector
 	 */
-	public static SparqlConnector getInstance() {
+	public static synchronized SparqlConnector getInstance() {
 		if (instance == null) {
 			instance = new SparqlConnector();
 		}
@@ -53,25 +91,152 @@ public class SparqlConnector {
 		return instance;
 	}
 
+	private Properties properties;
+	// copy of the properties the connector was last initialized with
+	private Properties configured;
 	private String outputPath;
+	private ModelCache cache;
+	private ImportClosure imports;
+	private boolean convertImports;
+	private String store;
+	private String executor;
+	private boolean view;
+	private boolean stream;
+	private boolean entailments;
+	private boolean profile;
+	private ForkJoinPool pool;
+	// oceans queried at once by federated adapts
+	private ForkJoinPool federation;
+	// profiles of the statements executed by #explain() in the current thread
+	private ThreadLocal<List<QueryProfile>> profiles = new ThreadLocal<List<QueryProfile>>();
+	// budgets of the running exports, by job
+	private Map<String, Budget> jobs = new ConcurrentHashMap<String, Budget>();
+	// oceans being loaded into the cache and entailments being computed, by
+	// path (apart from the other synchronized tasks)
+	private Map<String, Object> loads = new ConcurrentHashMap<String, Object>();
+	// views are built one at a time, apart from the other synchronized tasks
+	private final Object views = new Object();
 
 	/**
 	 * Initialization routine. It must be executed first, prior to executing
 	 * SPARQL queries.
 	 * <p>
 	 * Property file must be (re)configured to meet specific input/output paths
-	 * needs.
+	 * needs. The heap budget of the cache of models is also configured here
+	 * ("sparql.cache.budget.mb"). Cached models survive re-initializations as
+	 * long as the budget is not changed. Initializing the connector again with
+	 * unchanged properties does nothing.
+	 * <p>
+	 * The "sparql.store" property defines where instances of ocean are queried
+	 * from:
+	 * <ul>
+	 * <li>memory: parsed (and cached) models (default)</li>
+	 * <li>tdb: a persistent {@link TdbStore}</li>
+	 * <li>mmap: memory-mapped graphs kept by {@link MappedStore}, converted
+	 * within "sparql.mmap.memory.mb" of heap (default: 64)</li>
+	 * </ul>
+	 * Models of the disk-backed stores (tdb and mmap) are never wrapped by a
+	 * reasoner, which would run over the store on every request: if their spec
+	 * has one, they are layered on top of their (precomputed)
+	 * {@link Entailments} instead.
+	 * <p>
+	 * The "sparql.executor" property defines how statements are executed:
+	 * "arq" runs every statement with ARQ (default), "hashjoin" runs the
+	 * statements supported by {@link HashJoinExecutor} with it.
+	 * <p>
+	 * The "sparql.view" property defines whether adapters capable of processing
+	 * a {@link MaterializedView} scan it instead of querying the ontology
+	 * (default: false). Lookups (see {@link #lookup}) use the view's index
+	 * either way.
+	 * <p>
+	 * The "sparql.stream" property defines whether the statements of
+	 * {@link IStreamingAdapter}s are executed without their ORDER BY, so their
+	 * rows are streamed instead of sorted first (default: false).
+	 * <p>
+	 * The "sparql.spec" property names the {@link OntModelSpec} instances of
+	 * ocean are loaded with (default: OWL_MEM_RDFS_INF). It can be overridden
+	 * per adapter by "sparql.spec.&lt;simple name of the adapter's class&gt;".
+	 * If "sparql.entailments" is true (default: false), models loaded by specs
+	 * without a reasoner (e.g. OWL_MEM) are layered on top of the
+	 * {@link Entailments} of the ontology, which are computed once, instead of
+	 * running inference on every query.
+	 * <p>
+	 * The "sparql.parallelism" property defines how many {@link Partitions}
+	 * the statements of an {@link IMergeableAdapter} are split into, to be
+	 * executed concurrently (default: 1, i.e. no partitioning). Only models
+	 * that can be read concurrently are partitioned: no reasoner (see
+	 * "sparql.entailments") and a store other than tdb.
+	 * <p>
+	 * If "sparql.imports.convert" is true (default: false), imported
+	 * ontologies that are not RDF/XML are converted by OWL API instead of
+	 * being skipped (see {@link ImportClosure}). Entailments computed before
+	 * the property is changed must be computed again (see
+	 * {@link #entail(String)}).
+	 * <p>
+	 * If "sparql.profile" is true (default: false), every execution of a
+	 * statement is profiled (see {@link QueryProfile}) and its profile is
+	 * logged.
+	 * <p>
+	 * The "sparql.federation.parallelism" property defines how many instances
+	 * of ocean are queried at once by a federated adapt (default: 4).
+	 * <p>
+	 * The "sparql.budget.*" properties define the default {@link Budget} of
+	 * the exports of each adapter (see {@link Budget#of}).
 	 * 
 	 * @param properties
 	 *            props to configure input/output path
 	 * @return instance of #SparqlConnector
 	 */
-	public SparqlConnector init(Properties properties) {
+	public synchronized SparqlConnector init(Properties properties) {
+		if (properties.equals(configured)) {
+			return this;
+		}
+		this.properties = properties;
+		configured = new Properties();
+		configured.putAll(properties);
 		outputPath = properties.getProperty("ontos.output.path");
 
+		long budget = Long.parseLong(properties.getProperty("sparql.cache.budget.mb", "512")) * MEGABYTE;
+		if ((cache == null) || (cache.getBudget() != budget)) {
+			cache = new ModelCache(budget);
+		}
+		store = properties.getProperty("sparql.store", "memory");
+		if (store.equals("mmap")) {
+			MappedStore.getInstance(outputPath).setMemory(
+					Long.parseLong(properties.getProperty("sparql.mmap.memory.mb", "64")) * MEGABYTE);
+		}
+		executor = properties.getProperty("sparql.executor", "arq");
+		view = Boolean.parseBoolean(properties.getProperty("sparql.view", "false"));
+		stream = Boolean.parseBoolean(properties.getProperty("sparql.stream", "false"));
+		entailments = Boolean.parseBoolean(properties.getProperty("sparql.entailments", "false"));
+		convertImports = Boolean.parseBoolean(properties.getProperty("sparql.imports.convert", "false"));
+		profile = Boolean.parseBoolean(properties.getProperty("sparql.profile", "false"));
+		int parallelism = Integer.parseInt(properties.getProperty("sparql.parallelism", "1"));
+		if ((pool == null) || (pool.getParallelism() != parallelism)) {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			pool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+		}
+		// a pool apart from the partitions', which federated tasks wait on
+		int oceans = Integer.parseInt(properties.getProperty("sparql.federation.parallelism", "4"));
+		if ((federation == null) || (federation.getParallelism() != oceans)) {
+			if (federation != null) {
+				federation.shutdown();
+			}
+			federation = new ForkJoinPool(oceans);
+		}
+
 		return this;
 	}
 
+	/**
+	 * @return the cache of parsed instances of ocean
+	 */
+	public ModelCache getModelCache() {
+		return cache;
+	}
+
 	/**
 	 * Execute a SPARQL statement on a given ontology and adapt the output
 	 * <p>
@@ -80,7 +245,15 @@ public class SparqlConnector {
 	 * <p>
 	 * The sparql statement is provided by {@link ISparqlProcessingAdapter}
 	 * which is also responsible for exporting/processing the rows of the
-	 * resultset.
+	 * resultset. If views are enabled and the adapter is an
+	 * {@link IViewProcessingAdapter}, the {@link MaterializedView} of the
+	 * ontology is scanned instead (it is built by the first export that needs
+	 * it, or rebuilt if it is not up to date), unless the adapter's spec is
+	 * overridden. The adapters of a {@link CompositeAdapter} share a single load
+	 * of the ontology.
+	 * <p>
+	 * The execution is bounded by the configured {@link Budget} of the
+	 * adapter.
 	 * 
 	 * @param ontology
 	 *            instance of ontocean
@@ -90,31 +263,891 @@ public class SparqlConnector {
 	 * @return instance of #SparqlConnector
 	 */
 	public SparqlConnector adapt(String ontology, ISparqlProcessingAdapter adapter) throws Exception {
-		OntModel model = ModelFactory.createOntologyModel();
-
-		OntDocumentManager docManager = model.getDocumentManager();
-		docManager.addAltEntry(OntosIRI.METRICS_IRI.getIri(), "file://" + outputPath + "/metrics.owl");
-		docManager.addAltEntry(OntosIRI.SMELLS_IRI.getIri(), "file://" + outputPath + "/codesmells.owl");
-		docManager.addAltEntry(OntosIRI.REPOSITORIES_IRI.getIri(), "file://" + outputPath + "/repositories.owl");
-		docManager.addAltEntry(OntosIRI.OSORE_IRI.getIri(), "file://" + outputPath + "/osore.owl");
-
-		model.read(new FileReader(new File(outputPath + "/" + ontology)), null);
-
-		String sparql = adapter.getSparql();
-		
-		Query query = QueryFactory.create(sparql);
-		QueryExecution qexec = QueryExecutionFactory.create(query, model);
-		qexec.getContext().set(ARQ.strictSPARQL, Explain.InfoLevel.ALL);
-		qexec.setTimeout(TIMEOUT);
-		ResultSet results = qexec.execSelect();
-		
-		while (results.hasNext()) {
-			QuerySolution result = results.nextSolution();
-			adapter.processing(result);
+		return adapt(ontology, adapter, Budget.of(properties, adapter));
+	}
+
+	/**
+	 * Execute a SPARQL statement on a given ontology and adapt the output,
+	 * within a budget
+	 * <p>
+	 * If the budget is exhausted (or its job is cancelled, see
+	 * {@link #cancel(String)}), the execution stops, the rows produced so far
+	 * are passed to the adapter and the adapter is concluded: its output is
+	 * then partial (see {@link Budget#isTruncated()}). Scans of views are not
+	 * bounded.
+	 * 
+	 * @param ontology
+	 *            instance of ontocean
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @param budget
+	 *            the budget of the execution
+	 * @throws Exception
+	 * @return instance of #SparqlConnector
+	 */
+	public SparqlConnector adapt(String ontology, ISparqlProcessingAdapter adapter, Budget budget)
+			throws Exception {
+		File file = new File(outputPath + "/" + ontology);
+		if (budget.getJob() != null) {
+			jobs.put(budget.getJob(), budget);
+		}
+		budget.start();
+		try {
+			if (adapter instanceof CompositeAdapter) {
+				adapt(ontology, (CompositeAdapter) adapter, budget);
+			} else if (isViewed(adapter)) {
+				materializeIfStale(ontology);
+				MaterializedView.scan(file, (IViewProcessingAdapter) adapter);
+			} else {
+				withModel(ontology, getSpec(adapter), model -> execute(model, adapter, budget));
+			}
+		} finally {
+			if (budget.getJob() != null) {
+				jobs.remove(budget.getJob(), budget);
+			}
+		}
+		if (budget.isTruncated()) {
+			System.out.println("Export of " + ontology + " truncated (" + budget.getReason() + ")");
 		}
 		adapter.conclude();
 
 		return this;
 	}
 
+	/**
+	 * Execute a SPARQL statement on several instances of ocean and adapt the
+	 * output of all of them with a single adapter
+	 * <p>
+	 * The execution is bounded by the configured {@link Budget} of the
+	 * adapter.
+	 * 
+	 * @param oceans
+	 *            instances of ontocean
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @throws Exception
+	 * @return instance of #SparqlConnector
+	 * @see #adapt(List, ISparqlProcessingAdapter, Budget)
+	 */
+	public SparqlConnector adapt(List<String> oceans, ISparqlProcessingAdapter adapter) throws Exception {
+		return adapt(oceans, adapter, Budget.of(properties, adapter));
+	}
+
+	/**
+	 * Execute a SPARQL statement on several instances of ocean and adapt the
+	 * output of all of them with a single adapter, within a budget
+	 * <p>
+	 * The oceans are queried in parallel, up to "sparql.federation.parallelism"
+	 * at once, and each row is tagged with the project it comes from: the
+	 * ?project variable is bound to the name of the ocean's file (without
+	 * extension). The statement is always executed (views are not scanned,
+	 * their rows cannot be tagged).
+	 * <p>
+	 * If the adapter is an {@link IMergeableAdapter}, each ocean is adapted by
+	 * a fork of it and the forks are merged in the order of the oceans, so the
+	 * output does not depend on which ocean completes first. Otherwise, rows
+	 * are passed to the adapter one at a time, as they are produced. The
+	 * budget is shared by all oceans, and the adapter is concluded once.
+	 * 
+	 * @param oceans
+	 *            instances of ontocean
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @param budget
+	 *            the budget of the execution
+	 * @throws Exception
+	 *             if it fails to load or to query any of the oceans
+	 * @return instance of #SparqlConnector
+	 */
+	public SparqlConnector adapt(List<String> oceans, ISparqlProcessingAdapter adapter, Budget budget)
+			throws Exception {
+		if (budget.getJob() != null) {
+			jobs.put(budget.getJob(), budget);
+		}
+		budget.start();
+		String spec = getSpec(adapter);
+		List<IMergeableAdapter> forks = new ArrayList<IMergeableAdapter>();
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		try {
+			for (String ocean : oceans) {
+				ISparqlProcessingAdapter target = adapter;
+				if (adapter instanceof IMergeableAdapter) {
+					target = ((IMergeableAdapter) adapter).fork();
+					forks.add((IMergeableAdapter) target);
+				}
+				ProjectAdapter tagged = new ProjectAdapter(ocean, target, target == adapter);
+				tasks.add(federation.submit(() -> {
+					withModel(ocean, spec, model -> execute(model, tagged, budget));
+
+					return null;
+				}));
+			}
+			for (int i = 0; i < tasks.size(); i++) {
+				tasks.get(i).get();
+				if (!forks.isEmpty()) {
+					((IMergeableAdapter) adapter).merge(forks.get(i));
+				}
+			}
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		} finally {
+			for (Future<?> task : tasks) {
+				task.cancel(true);
+			}
+			if (budget.getJob() != null) {
+				jobs.remove(budget.getJob(), budget);
+			}
+		}
+		if (budget.isTruncated()) {
+			System.out.println("Export of " + oceans + " truncated (" + budget.getReason() + ")");
+		}
+		adapter.conclude();
+
+		return this;
+	}
+
+	/**
+	 * Adapter that tags the rows of an ocean with its project (?project) and
+	 * passes them to another adapter
+	 */
+	private static class ProjectAdapter implements ISparqlProcessingAdapter {
+		private RDFNode project;
+		private ISparqlProcessingAdapter adapter;
+		private boolean shared;
+
+		/**
+		 * @param ocean
+		 *            instance of ontocean the rows come from
+		 * @param adapter
+		 *            adapter the tagged rows are passed to
+		 * @param shared
+		 *            true if the adapter is fed by other oceans concurrently
+		 */
+		private ProjectAdapter(String ocean, ISparqlProcessingAdapter adapter, boolean shared) {
+			String name = new File(ocean).getName();
+			this.project = ResourceFactory
+					.createStringLiteral(name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name);
+			this.adapter = adapter;
+			this.shared = shared;
+		}
+
+		@Override
+		public String getSparql() {
+			return adapter.getSparql();
+		}
+
+		@Override
+		public QuerySolutionMap getParameters() {
+			return adapter.getParameters();
+		}
+
+		@Override
+		public ISparqlProcessingAdapter init(Properties properties) throws Exception {
+			return this;
+		}
+
+		@Override
+		public ISparqlProcessingAdapter processing(QuerySolution row) throws Exception {
+			QuerySolutionMap tagged = new QuerySolutionMap();
+			tagged.addAll(row);
+			tagged.add("project", project);
+			if (shared) {
+				synchronized (adapter) {
+					adapter.processing(tagged);
+				}
+			} else {
+				adapter.processing(tagged);
+			}
+
+			return this;
+		}
+
+		@Override
+		public ISparqlProcessingAdapter conclude() throws Exception {
+			return this;
+		}
+	}
+
+	/**
+	 * Cancel a running export: its execution stops as soon as it checks its
+	 * budget and the adapter is concluded with the rows produced so far
+	 * 
+	 * @param job
+	 *            the job of the export's {@link Budget}
+	 * @return true if the export was running
+	 */
+	public boolean cancel(String job) {
+		Budget budget = jobs.get(job);
+		if (budget != null) {
+			budget.cancel();
+		}
+
+		return budget != null;
+	}
+
+	/**
+	 * Pass the rows of an instance of ocean to all the adapters of a composite
+	 * <p>
+	 * If views are enabled, the view of the ontology is built if it is not up
+	 * to date and it is scanned once for all adapters capable of processing
+	 * it. The statements of the other adapters are executed once per distinct
+	 * statement (and parameters) on the ontology, which is loaded only once
+	 * per distinct spec.
+	 */
+	private void adapt(String ontology, CompositeAdapter composite, Budget budget) throws Exception {
+		File file = new File(outputPath + "/" + ontology);
+
+		CompositeAdapter viewed = new CompositeAdapter();
+		// statements (and parameters) by spec
+		Map<String, Map<String, CompositeAdapter>> shared = new LinkedHashMap<String, Map<String, CompositeAdapter>>();
+		for (ISparqlProcessingAdapter adapter : composite.getAdapters()) {
+			if (isViewed(adapter)) {
+				viewed.add(adapter);
+			} else {
+				String spec = getSpec(adapter);
+				if (!shared.containsKey(spec)) {
+					shared.put(spec, new LinkedHashMap<String, CompositeAdapter>());
+				}
+				String key = adapter.getSparql() + adapter.getParameters().asMap();
+				if (!shared.get(spec).containsKey(key)) {
+					shared.get(spec).put(key, new CompositeAdapter());
+				}
+				shared.get(spec).get(key).add(adapter);
+			}
+		}
+
+		if (!viewed.getAdapters().isEmpty()) {
+			materializeIfStale(ontology);
+			MaterializedView.scan(file, viewed);
+		}
+		for (Map.Entry<String, Map<String, CompositeAdapter>> spec : shared.entrySet()) {
+			withModel(ontology, spec.getKey(), model -> {
+				for (CompositeAdapter adapters : spec.getValue().values()) {
+					execute(model, adapters, budget);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Task to be run on a loaded instance of ocean
+	 */
+	private interface ModelTask {
+		void run(Model model) throws Exception;
+	}
+
+	/**
+	 * Name of the {@link OntModelSpec} an adapter's statement is executed with
+	 * 
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @return name of a spec declared by {@link OntModelSpec}
+	 */
+	private String getSpec(ISparqlProcessingAdapter adapter) {
+		return getSpec(adapter.getClass());
+	}
+
+	private String getSpec(Class<?> adapter) {
+		String spec = properties.getProperty("sparql.spec", "OWL_MEM_RDFS_INF");
+
+		return properties.getProperty("sparql.spec." + adapter.getSimpleName(), spec);
+	}
+
+	/**
+	 * Describe the settings the output of an adapter depends on, besides the
+	 * ontology and the adapter's statement: the spec it is loaded with, the
+	 * entailments, whether imports are converted, the store, the executor, and
+	 * whether its rows come from a view, are streamed (unordered) or are split
+	 * into partitions. Two executions with equal settings produce the same
+	 * output.
+	 * 
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @return the settings, as a string
+	 */
+	public String getSettings(ISparqlProcessingAdapter adapter) {
+		return "spec=" + getSpec(adapter) + ";entailments=" + entailments + ";convert=" + convertImports
+				+ ";store=" + store + ";executor=" + executor + ";view=" + isViewed(adapter) + ";stream=" + (stream && isStreaming(adapter))
+				+ ";parallelism=" + ((pool != null) ? pool.getParallelism() : 1);
+	}
+
+	/**
+	 * Verify if an adapter scans the {@link MaterializedView} instead of
+	 * executing its statement
+	 * <p>
+	 * Views are built with the spec of {@link ViewBuilder}, so adapters whose
+	 * spec differs (i.e. it is overridden) must query the ontology.
+	 */
+	private boolean isViewed(ISparqlProcessingAdapter adapter) {
+		return view && (adapter instanceof IViewProcessingAdapter)
+				&& getSpec(adapter).equals(getSpec(ViewBuilder.class));
+	}
+
+	/**
+	 * Signature of the configuration views are built with: the spec of
+	 * {@link ViewBuilder}, whether entailments are layered, whether imports
+	 * are converted and the imported ontologies (modification time and size of
+	 * their files). A view built with another signature is stale.
+	 */
+	private String getViewSignature() {
+		StringBuilder signature = new StringBuilder();
+		signature.append("spec=").append(getSpec(ViewBuilder.class)).append(";entailments=").append(entailments)
+				.append(";convert=").append(convertImports).append(";imports=");
+		for (File file : ImportClosure.getFiles(outputPath)) {
+			signature.append(file.getName()).append(':').append(file.lastModified()).append(':')
+					.append(file.length()).append(',');
+		}
+
+		return signature.toString();
+	}
+
+	/**
+	 * Run a task on an instance of ocean, as it is provided by the configured
+	 * store
+	 * 
+	 * @param ontology
+	 *            instance of ontocean
+	 * @param spec
+	 *            name of the spec the ontology is loaded with
+	 * @param task
+	 *            the task
+	 * @throws Exception
+	 *             if it fails to load the ontology or if the task fails
+	 */
+	private void withModel(String ontology, String spec, ModelTask task) throws Exception {
+		File file = new File(outputPath + "/" + ontology);
+		if (store.equals("tdb")) {
+			Dataset dataset = TdbStore.getInstance(outputPath).open(ontology);
+			dataset.begin(ReadWrite.READ);
+			try {
+				task.run(layer(file, dataset.getDefaultModel(), getImports(), spec));
+			} finally {
+				dataset.end();
+			}
+		} else if (store.equals("mmap")) {
+			MappedGraph graph = MappedStore.getInstance(outputPath).open(ontology);
+			task.run(layer(file, ModelFactory.createModelForGraph(graph), getImports(), spec));
+		} else {
+			OntModel model = load(ontology, spec);
+			// cached models are only read, inference runs on a view of them
+			model.enterCriticalSection(Lock.READ);
+			try {
+				task.run(infer(model, spec));
+			} finally {
+				model.leaveCriticalSection();
+			}
+		}
+	}
+
+	/**
+	 * Build (or rebuild) the {@link MaterializedView} of an instance of ocean
+	 * and its {@link ViewIndex}
+	 * 
+	 * @param ontology
+	 *            instance of ontocean
+	 * @throws Exception
+	 *             if it fails to query the ontology or to write the view
+	 * @return instance of #SparqlConnector
+	 */
+	public SparqlConnector materialize(String ontology) throws Exception {
+		synchronized (views) {
+			ViewBuilder builder = new ViewBuilder(new File(outputPath + "/" + ontology), getViewSignature());
+			builder.init(null);
+
+			// a partial view would be taken as up to date: views are not
+			// bounded
+			return adapt(ontology, builder, new Budget());
+		}
+	}
+
+	/**
+	 * Build the {@link MaterializedView} of an instance of ocean unless it is
+	 * up to date (e.g. it was built by a concurrent export meanwhile)
+	 */
+	private void materializeIfStale(String ontology) throws Exception {
+		synchronized (views) {
+			if (!MaterializedView.isFresh(new File(outputPath + "/" + ontology), getViewSignature())) {
+				materialize(ontology);
+			}
+		}
+	}
+
+	/**
+	 * Execute the SPARQL statement of an adapter on a given ontology and
+	 * profile its execution
+	 * <p>
+	 * The statement is always executed (views are not scanned) and it is not
+	 * partitioned, so the profile reflects the statement itself. The rows are
+	 * still passed to the adapter, which is concluded as well.
+	 * 
+	 * @param ontology
+	 *            instance of ontocean
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @return the profiles of the executed statements (one per distinct
+	 *         statement of a composite)
+	 * @throws Exception
+	 *             if it fails to load the ontology or to execute the statement
+	 */
+	public List<QueryProfile> explain(String ontology, ISparqlProcessingAdapter adapter) throws Exception {
+		List<QueryProfile> explained = new ArrayList<QueryProfile>();
+		profiles.set(explained);
+		try {
+			Budget budget = Budget.of(properties, adapter).start();
+			withModel(ontology, getSpec(adapter), model -> execute(model, adapter, budget));
+			adapter.conclude();
+		} finally {
+			profiles.remove();
+		}
+
+		return explained;
+	}
+
+	/**
+	 * Compute (or recompute) the {@link Entailments} of an instance of ocean
+	 * 
+	 * @param ontology
+	 *            instance of ontocean
+	 * @throws Exception
+	 *             if it fails to read the ontology or to write the entailments
+	 * @return instance of #SparqlConnector
+	 */
+	public SparqlConnector entail(String ontology) throws Exception {
+		entail(new File(outputPath + "/" + ontology));
+
+		return this;
+	}
+
+	private void entail(File file) throws Exception {
+		synchronized (getEntailmentsLock(file)) {
+			Model entailed = Entailments.compute(BinaryRdf.read(file), getImports().getModel());
+			Entailments.write(file, entailed);
+			System.out.println("Entailments of " + file.getName() + ": " + entailed.size() + " triples");
+		}
+	}
+
+	/**
+	 * @return the lock of the entailments of an instance of ocean, so that
+	 *         they are computed once at a time without blocking the other
+	 *         oceans
+	 */
+	private Object getEntailmentsLock(File file) {
+		return loads.computeIfAbsent(Entailments.getEntailmentsFile(file).getPath(), path -> new Object());
+	}
+
+	/**
+	 * Look the smells of an instance of ocean up by location, committer or
+	 * commit
+	 * <p>
+	 * Lookups are answered by the {@link ViewIndex} of the ontology, which is
+	 * built first if the ontology has none (e.g. it was saved before indexes
+	 * existed).
+	 * 
+	 * @param ontology
+	 *            instance of ontocean
+	 * @param key
+	 *            the index to search
+	 * @param value
+	 *            location, committer or commit
+	 * @return json of the matching smells
+	 * @throws Exception
+	 *             if it fails to build or to read the index
+	 */
+	public List<String> lookup(String ontology, ViewIndex.Key key, String value) throws Exception {
+		File file = new File(outputPath + "/" + ontology);
+		if (!ViewIndex.isFresh(file, getViewSignature())) {
+			synchronized (views) {
+				if (!ViewIndex.isFresh(file, getViewSignature())) {
+					materialize(ontology);
+				}
+			}
+		}
+
+		return ViewIndex.lookup(file, key, value);
+	}
+
+	/**
+	 * Execute the adapter's SPARQL statement on a model and pass each row of
+	 * the resultset to the adapter
+	 * <p>
+	 * If parallelism is enabled, the adapter is an {@link IMergeableAdapter}
+	 * and the model can be read concurrently, the statement is split into
+	 * {@link Partitions}, which are executed by forks of the adapter on the
+	 * pool. Forks are merged into the adapter in the order of the partitions,
+	 * not in the order they complete.
+	 * <p>
+	 * If streaming is enabled and the adapter does not depend on the order of
+	 * the rows, the statement is executed without its ORDER BY.
+	 * <p>
+	 * If profiling is enabled (or the statement is being explained), the
+	 * statement is executed as a whole and its profile is logged (and
+	 * collected).
+	 * 
+	 * @param model
+	 *            instance of ontocean (+ imports)
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @param budget
+	 *            the budget of the execution, shared by the partitions
+	 * @throws Exception
+	 */
+	private void execute(Model model, ISparqlProcessingAdapter adapter, Budget budget) throws Exception {
+		long start = System.nanoTime();
+		boolean unordered = stream && isStreaming(adapter);
+		// enumerated statements are compiled only once
+		Sparqls sparql = Sparqls.of(adapter.getSparql());
+		Query query;
+		if (sparql != null) {
+			query = unordered ? sparql.getUnorderedQuery() : sparql.getQuery();
+		} else {
+			query = QueryFactory.create(adapter.getSparql());
+			if (unordered && query.hasOrderBy()) {
+				query.getOrderBy().clear();
+			}
+		}
+
+		QueryProfile profiled = null;
+		if (profile || (profiles.get() != null)) {
+			profiled = new QueryProfile((sparql != null) ? sparql.name() : "statement", executor)
+					.setParseNanos(System.nanoTime() - start);
+		}
+
+		List<Query> partitions = null;
+		if ((profiled == null) && (pool != null) && (adapter instanceof IMergeableAdapter) && isConcurrent(model)) {
+			partitions = Partitions.split(query, model.getGraph(), pool.getParallelism());
+		}
+		if (partitions == null) {
+			Op op = (sparql == null) ? null : unordered ? sparql.getUnorderedOp() : sparql.getOp();
+			execute(model, adapter, query, op, budget, profiled);
+			if (profiled != null) {
+				System.out.println(profiled);
+				if (profiles.get() != null) {
+					profiles.get().add(profiled);
+				}
+			}
+
+			return;
+		}
+		List<IMergeableAdapter> forks = new ArrayList<IMergeableAdapter>();
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (Query partition : partitions) {
+			IMergeableAdapter fork = ((IMergeableAdapter) adapter).fork();
+			forks.add(fork);
+			tasks.add(pool.submit(() -> {
+				execute(model, fork, partition, null, budget, null);
+
+				return null;
+			}));
+		}
+		try {
+			for (int i = 0; i < forks.size(); i++) {
+				tasks.get(i).get();
+				((IMergeableAdapter) adapter).merge(forks.get(i));
+			}
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		} finally {
+			for (Future<?> task : tasks) {
+				task.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Verify if an adapter (or all of the adapters of a composite) does not
+	 * depend on the order of the rows of its statement
+	 */
+	private boolean isStreaming(ISparqlProcessingAdapter adapter) {
+		if (adapter instanceof CompositeAdapter) {
+			for (ISparqlProcessingAdapter child : ((CompositeAdapter) adapter).getAdapters()) {
+				if (!isStreaming(child)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+		if (adapter instanceof ProjectAdapter) {
+			return isStreaming(((ProjectAdapter) adapter).adapter);
+		}
+
+		return adapter instanceof IStreamingAdapter;
+	}
+
+	/**
+	 * Verify if a model can be read by several threads at once
+	 * <p>
+	 * Inference engines keep caches that are not thread-safe, and tdb binds
+	 * read transactions to the thread that began them.
+	 */
+	private boolean isConcurrent(Model model) {
+		if (store.equals("tdb")) {
+			return false;
+		}
+		// ontology models are inference models, even if their spec has no
+		// reasoner
+		if (model instanceof OntModel) {
+			return ((OntModel) model).getSpecification().getReasonerFactory() == null;
+		}
+
+		return !(model instanceof InfModel);
+	}
+
+	/**
+	 * Execute a statement on a model and pass each row of the resultset to an
+	 * adapter
+	 * <p>
+	 * The compiled statement is bound to the adapter's parameters: statements
+	 * run by {@link HashJoinExecutor} get the values substituted into their
+	 * patterns, other statements get them from ARQ's engine, which runs the
+	 * algebra expression of the statement.
+	 * <p>
+	 * ARQ's iterator is cancelled when the budget runs out of time or when
+	 * its job is cancelled. The other limits are checked row by row.
+	 * 
+	 * @param model
+	 *            instance of ontocean (+ imports)
+	 * @param adapter
+	 *            instance of {@link ISparqlProcessingAdapter}
+	 * @param query
+	 *            the statement
+	 * @param op
+	 *            its precompiled algebra expression (null if not compiled)
+	 * @param budget
+	 *            the budget of the execution
+	 * @param profile
+	 *            the profile to record the execution into (null if not
+	 *            profiled)
+	 * @throws Exception
+	 */
+	private void execute(Model model, ISparqlProcessingAdapter adapter, Query query, Op op, Budget budget,
+			QueryProfile profile) throws Exception {
+		long start = System.nanoTime();
+		QuerySolutionMap parameters = adapter.getParameters();
+
+		if (executor.equals("hashjoin") && HashJoinExecutor.supports(query)) {
+			Query bound = query;
+			if (!parameters.asMap().isEmpty()) {
+				bound = QueryTransformOps.transformQuery(query, parameters.asMap());
+			}
+			if (profile != null) {
+				// the algebra is only compiled to be shown
+				profile.setAlgebra(Sparqls.compile(bound).toString());
+			}
+			new HashJoinExecutor(bound, budget).execute(model, adapter, profile);
+
+			return;
+		}
+		if (op == null) {
+			op = Sparqls.compile(query);
+		}
+		DatasetGraph dataset = DatasetGraphFactory.createOneGraph(model.getGraph());
+		Context context = ARQ.getContext().copy();
+		// the expression is already optimized
+		context.set(ARQ.optimization, false);
+		if (profile != null) {
+			profile.setExecutor("arq").setAlgebra(op.toString()).addPatterns(query, model.getGraph());
+			// operators count their rows, ARQ logs the execution as well
+			QC.setFactory(context, ProfilingOpExecutor.factory(profile));
+			context.set(ARQ.symLogExec, Explain.InfoLevel.ALL);
+		}
+		// parameters are substituted into the expression by the engine
+		Binding input = BindingUtils.asBinding(parameters);
+		Plan plan = QueryEngineRegistry.findFactory(op, dataset, context).create(op, dataset, input, context);
+
+		QueryIterator iterator = plan.iterator();
+		if (profile != null) {
+			profile.setPlanNanos(System.nanoTime() - start);
+			start = System.nanoTime();
+		}
+		Runnable canceller = () -> iterator.cancel();
+		budget.addCanceller(canceller);
+		long remaining = budget.getRemainingMillis();
+		Alarm alarm = (remaining < Long.MAX_VALUE) ? AlarmClock.get().add(canceller, remaining) : null;
+		long rows = 0;
+		try {
+			ResultSet results = new ResultSetStream(query.getResultVars(), model, iterator);
+
+			while (results.hasNext() && budget.consume()) {
+				QuerySolution result = results.nextSolution();
+				adapter.processing(result);
+				rows++;
+			}
+		} catch (QueryCancelledException e) {
+			// cancelled by the alarm or by the job: the rows passed are kept
+			if (!budget.isExhausted()) {
+				throw e;
+			}
+		} finally {
+			if (alarm != null) {
+				AlarmClock.get().cancel(alarm);
+			}
+			budget.removeCanceller(canceller);
+			iterator.close();
+		}
+		if (profile != null) {
+			profile.setExecuteNanos(System.nanoTime() - start).setResults(rows);
+		}
+	}
+
+	/**
+	 * Retrieve a parsed instance of ocean
+	 * <p>
+	 * The model is taken from the cache if the ocean's file has not changed
+	 * since it was cached. Otherwise, only the ocean is read (from its
+	 * {@link BinaryRdf} copy, if it is up to date). Its
+	 * imports are not loaded again, the shared {@link ImportClosure} is added
+	 * to the model as a sub-model instead. The resulting model is cached (per
+	 * spec and entailments setting), without the spec's reasoner (see {@link #infer}). An ocean is
+	 * loaded by one request at a time, the others wait for its model.
+	 * 
+	 * @param ontology
+	 *            instance of ontocean
+	 * @param spec
+	 *            name of the spec the ontology is loaded with
+	 * @return the parsed model
+	 * @throws Exception
+	 *             if it fails to read the ontology's physical file, to load
+	 *             the imported ontologies or the entailments
+	 */
+	private OntModel load(String ontology, String spec) throws Exception {
+		File file = new File(outputPath + "/" + ontology);
+		// models of specs without a reasoner may be layered on entailments
+		ModelCache.Key key = new ModelCache.Key(file, entailments ? spec + "+entailments" : spec);
+
+		ImportClosure closure = getImports();
+		// concurrent requests for the same ocean wait for a single load
+		synchronized (loads.computeIfAbsent(key.getPath(), path -> new Object())) {
+			OntModel model = cache.get(key);
+			if (model == null) {
+				Model ocean = BinaryRdf.read(file);
+				model = layer(file, ocean, closure, spec);
+
+				cache.put(key, model);
+				System.out.println("Model cache miss: " + key + " (" + cache.toJson() + ")");
+			}
+
+			return model;
+		}
+	}
+
+	/**
+	 * Layer an instance of ocean on top of the imported ontologies (and of its
+	 * entailments, if the spec has no reasoner and they are enabled)
+	 * <p>
+	 * The model has no reasoner: inference runs on views of it (see
+	 * {@link #infer}), or, for disk-backed stores, the model is layered on top
+	 * of its entailments instead.
+	 * 
+	 * @param file
+	 *            physical file of the instance of ocean
+	 * @param ocean
+	 *            the triples of the instance of ocean
+	 * @param closure
+	 *            the imported ontologies
+	 * @param name
+	 *            name of the spec the ontology is loaded with
+	 * @return a model combining ocean and its imports
+	 * @throws Exception
+	 *             if the spec is unknown or if it fails to compute/read the
+	 *             entailments
+	 */
+	private OntModel layer(File file, Model ocean, ImportClosure closure, String name) throws Exception {
+		OntModelSpec spec = getOntModelSpec(name);
+		boolean reasoned = spec.getReasonerFactory() != null;
+		spec.setReasonerFactory(null);
+
+		OntModel model = ModelFactory.createOntologyModel(spec, ocean);
+		model.addSubModel(closure.getModel());
+		if (reasoned ? !store.equals("memory") : entailments) {
+			model.addSubModel(getEntailments(file));
+		}
+
+		return model;
+	}
+
+	/**
+	 * View of a layered instance of ocean through the reasoner of a spec
+	 * <p>
+	 * Inference engines keep caches that are not thread-safe. Each view has
+	 * its own engine, so a cached model can be queried by several threads at
+	 * once.
+	 * 
+	 * @param model
+	 *            a model built by {@link #layer}
+	 * @param name
+	 *            name of the spec the ontology is loaded with
+	 * @return the view, or the model itself if the spec has no reasoner
+	 * @throws Exception
+	 *             if the spec is unknown
+	 */
+	private OntModel infer(OntModel model, String name) throws Exception {
+		OntModelSpec spec = getOntModelSpec(name);
+		if (spec.getReasonerFactory() == null) {
+			return model;
+		}
+
+		return ModelFactory.createOntologyModel(spec, model);
+	}
+
+	/**
+	 * Copy of a spec declared by {@link OntModelSpec}, which does not load
+	 * imports (they are provided by the {@link ImportClosure})
+	 */
+	private static OntModelSpec getOntModelSpec(String name) throws Exception {
+		OntDocumentManager docManager = new OntDocumentManager();
+		docManager.setProcessImports(false);
+		OntModelSpec spec = new OntModelSpec((OntModelSpec) OntModelSpec.class.getField(name).get(null));
+		spec.setDocumentManager(docManager);
+
+		return spec;
+	}
+
+	/**
+	 * Retrieve the {@link Entailments} of an instance of ocean, computing them
+	 * if they are stale
+	 * <p>
+	 * They are cached as well, as models of the disk-backed stores are
+	 * layered on top of them on every request.
+	 */
+	private Model getEntailments(File file) throws Exception {
+		// concurrent requests wait for a single computation
+		synchronized (getEntailmentsLock(file)) {
+			if (!Entailments.isFresh(file, ImportClosure.getFiles(outputPath))) {
+				entail(file);
+			}
+		}
+		ModelCache.Key key = new ModelCache.Key(Entailments.getEntailmentsFile(file), "entailments");
+		OntModel entailed = cache.get(key);
+		if (entailed == null) {
+			entailed = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, Entailments.read(file));
+			cache.put(key, entailed);
+		}
+
+		return entailed.getBaseModel();
+	}
+
+	/**
+	 * Retrieve the graph of imported ontologies, (re)loading it if the
+	 * ontologies have been changed (or if their conversion is toggled)
+	 * <p>
+	 * Cached models are layered on top of the previous graph, so they are
+	 * dropped as the graph is reloaded.
+	 * 
+	 * @return the shared {@link ImportClosure}
+	 * @throws IOException
+	 *             if it fails to read the ontologies' physical files
+	 * @throws OWLException
+	 *             if it fails to convert the ontologies
+	 */
+	private synchronized ImportClosure getImports() throws IOException, OWLException {
+		if ((imports == null) || !imports.getPath().equals(outputPath) || (imports.isConverted() != convertImports)
+				|| imports.isStale()) {
+			imports = new ImportClosure(outputPath, convertImports);
+			cache.clear();
+		}
+
+		return imports;
+	}
+
 }
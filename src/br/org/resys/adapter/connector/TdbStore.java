@@ -0,0 +1,143 @@
+package br.org.resys.adapter.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.tdb.TDBFactory;
+
+import com.google.common.io.Files;
+
+/**
+ * Persistent store of instances of ocean
+ * <p>
+ * Each instance of ocean is ingested once into its own embedded, on-disk TDB
+ * dataset, which is stored under "tdb/" in the ontos output path. Further
+ * queries read the dataset (transactionally) instead of parsing the
+ * ontology's file again.
+ * <p>
+ * The source file's modification time and size are recorded along with the
+ * dataset. If the file changes, the instance of ocean is ingested again.
+ *
+ * @author Luis Paulo
+ */
+public class TdbStore {
+	private static final String SOURCE = "source.txt";
+	private static Map<String, TdbStore> instances = new HashMap<String, TdbStore>();
+
+	/**
+	 * @param path
+	 *            the path where the instances of ocean are stored (ontos output
+	 *            path)
+	 * @return singleton instance of the store kept in the given path
+	 */
+	public static synchronized TdbStore getInstance(String path) {
+		TdbStore instance = instances.get(path);
+		if (instance == null) {
+			instance = new TdbStore(path);
+			instances.put(path, instance);
+		}
+
+		return instance;
+	}
+
+	private String path;
+
+	private TdbStore(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Open the dataset of an instance of ocean, ingesting it if necessary
+	 *
+	 * @param ontology
+	 *            instance of ocean stored in the ontos output path
+	 * @return the dataset
+	 * @throws IOException
+	 *             if it fails to read the ontology's physical file
+	 */
+	public Dataset open(String ontology) throws IOException {
+		File file = new File(path + "/" + ontology);
+		File location = getLocation(ontology);
+
+		synchronized (this) {
+			if (!getSource(file).equals(readSource(location))) {
+				ingest(ontology);
+			}
+		}
+
+		return TDBFactory.createDataset(location.getAbsolutePath());
+	}
+
+	/**
+	 * Ingest an instance of ocean, replacing any previous content of its
+	 * dataset
+	 *
+	 * @param ontology
+	 *            instance of ocean stored in the ontos output path
+	 * @return instance of #TdbStore
+	 * @throws IOException
+	 *             if it fails to read the ontology's physical file
+	 */
+	public synchronized TdbStore ingest(String ontology) throws IOException {
+		File file = new File(path + "/" + ontology);
+		File location = getLocation(ontology);
+		location.mkdirs();
+
+		System.out.println("Ingesting " + file + " into " + location + "...");
+		Dataset dataset = TDBFactory.createDataset(location.getAbsolutePath());
+		dataset.begin(ReadWrite.WRITE);
+		try {
+			Model model = dataset.getDefaultModel();
+			model.removeAll();
+
+			BinaryRdf.parse(file, StreamRDFLib.graph(model.getGraph()));
+
+			dataset.commit();
+		} finally {
+			dataset.end();
+		}
+		Files.asCharSink(new File(location, SOURCE), StandardCharsets.UTF_8).write(getSource(file));
+
+		return this;
+	}
+
+	/**
+	 * @param ontology
+	 *            instance of ocean
+	 * @return the directory of the ontology's dataset
+	 */
+	private File getLocation(String ontology) {
+		String name = ontology.endsWith(".owl") ? ontology.substring(0, ontology.length() - 4) : ontology;
+
+		return new File(path + "/tdb/" + name);
+	}
+
+	/**
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @return description of the file's current version
+	 */
+	private String getSource(File file) {
+		return file.lastModified() + "," + file.length();
+	}
+
+	/**
+	 * @param location
+	 *            directory of a dataset
+	 * @return description of the version of the file that has been ingested
+	 *         into the dataset (empty if nothing was ingested yet)
+	 */
+	private String readSource(File location) throws IOException {
+		File source = new File(location, SOURCE);
+
+		return source.exists() ? Files.asCharSource(source, StandardCharsets.UTF_8).read() : "";
+	}
+
+}
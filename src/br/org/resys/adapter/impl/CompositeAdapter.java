@@ -0,0 +1,114 @@
+package br.org.resys.adapter.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+
+import br.org.resys.adapter.ISparqlProcessingAdapter;
+import br.org.resys.adapter.IViewProcessingAdapter;
+import br.org.resys.adapter.connector.SparqlConnector;
+import br.org.resys.adapter.view.ViewRow;
+
+/**
+ * Run several adapters in a single pass over an instance of ocean
+ * <p>
+ * Each row passed to the composite is passed to all of its adapters, in the
+ * order they were added. {@link SparqlConnector} loads the ontology once for
+ * all of the adapters of a composite and shares the work among them:
+ * <ul>
+ * <li>adapters capable of processing a view are fed by a single scan of the
+ * ontology's view</li>
+ * <li>the other adapters are grouped by statement (and parameters), so each
+ * statement is executed once and its rows are fanned out to its group</li>
+ * </ul>
+ *
+ * @author Luis Paulo
+ */
+public class CompositeAdapter implements IViewProcessingAdapter {
+
+	private List<ISparqlProcessingAdapter> adapters = new ArrayList<ISparqlProcessingAdapter>();
+
+	/**
+	 * @param adapter
+	 *            adapter to be run along with the others
+	 * @return instance of #CompositeAdapter
+	 */
+	public CompositeAdapter add(ISparqlProcessingAdapter adapter) {
+		adapters.add(adapter);
+
+		return this;
+	}
+
+	public List<ISparqlProcessingAdapter> getAdapters() {
+		return adapters;
+	}
+
+	/**
+	 * @return true if all of the adapters execute the same statement with the
+	 *         same parameters
+	 */
+	public boolean isShared() {
+		for (ISparqlProcessingAdapter adapter : adapters) {
+			if (!adapter.getSparql().equals(getSparql())
+					|| !adapter.getParameters().asMap().equals(getParameters().asMap())) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the statement of the first adapter (it is the statement of all
+	 *         of them if the composite is shared, see {@link #isShared()})
+	 */
+	@Override
+	public String getSparql() {
+		return adapters.isEmpty() ? null : adapters.get(0).getSparql();
+	}
+
+	@Override
+	public QuerySolutionMap getParameters() {
+		return adapters.isEmpty() ? new QuerySolutionMap() : adapters.get(0).getParameters();
+	}
+
+	@Override
+	public ISparqlProcessingAdapter init(Properties properties) throws Exception {
+		for (ISparqlProcessingAdapter adapter : adapters) {
+			adapter.init(properties);
+		}
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter processing(QuerySolution row) throws Exception {
+		for (ISparqlProcessingAdapter adapter : adapters) {
+			adapter.processing(row);
+		}
+
+		return this;
+	}
+
+	@Override
+	public IViewProcessingAdapter processing(ViewRow row) throws Exception {
+		for (ISparqlProcessingAdapter adapter : adapters) {
+			((IViewProcessingAdapter) adapter).processing(row);
+		}
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter conclude() throws Exception {
+		for (ISparqlProcessingAdapter adapter : adapters) {
+			adapter.conclude();
+		}
+
+		return this;
+	}
+
+}
@@ -0,0 +1,128 @@
+package br.org.resys.adapter.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+
+import br.org.resys.adapter.IMergeableAdapter;
+import br.org.resys.adapter.ISparqlProcessingAdapter;
+import br.org.resys.adapter.IStreamingAdapter;
+import br.org.resys.adapter.connector.SparqlConnector;
+import br.org.resys.util.Util;
+
+/**
+ * Select and export the incidence of refactorings over time of several
+ * projects into a single dataset
+ * <p>
+ * To be run on several instances of ocean at once (see
+ * {@link SparqlConnector#adapt(java.util.List, ISparqlProcessingAdapter)}),
+ * which tags each row with the project (?project) it comes from. The rows of
+ * each project are counted by a fork of an
+ * {@link IncidenceOfRefactoringsAdapter} (or of any of its subclasses, e.g.
+ * {@link EffortContextualizedIncidenceOfRefactorings}), which also provides
+ * the statement.
+ * <p>
+ * The csv file is ordered by project, month and refactoring.
+ *
+ * @author Luis Paulo
+ */
+public class CrossProjectIncidenceAdapter implements IMergeableAdapter, IStreamingAdapter {
+
+	private IncidenceOfRefactoringsAdapter prototype;
+	// incidence by project
+	private Map<String, IncidenceOfRefactoringsAdapter> projects;
+
+	private BufferedWriter csvWriter;
+	private String csvFileName;
+
+	/**
+	 * @param prototype
+	 *            adapter whose statement (and configuration) is used for all
+	 *            projects. It needs not be initialized
+	 */
+	public CrossProjectIncidenceAdapter(IncidenceOfRefactoringsAdapter prototype) {
+		this.prototype = prototype;
+		this.projects = new TreeMap<String, IncidenceOfRefactoringsAdapter>();
+	}
+
+	@Override
+	public String getSparql() {
+		return prototype.getSparql();
+	}
+
+	@Override
+	public QuerySolutionMap getParameters() {
+		return prototype.getParameters();
+	}
+
+	@Override
+	public ISparqlProcessingAdapter init(Properties properties) throws Exception {
+		projects = new TreeMap<String, IncidenceOfRefactoringsAdapter>();
+
+		csvFileName = "crossproject_incidence_" + Util.generateUid() + ".csv";
+
+		File fout = new File(properties.getProperty("csv.output.path") + "/" + csvFileName);
+		FileOutputStream fos = new FileOutputStream(fout);
+
+		csvWriter = new BufferedWriter(new OutputStreamWriter(fos));
+		csvWriter.write("project,date,refactoring,qt");
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter processing(QuerySolution row) throws Exception {
+		getIncidence(row.getLiteral("project").getString()).processing(row);
+
+		return this;
+	}
+
+	private IncidenceOfRefactoringsAdapter getIncidence(String project) throws Exception {
+		IncidenceOfRefactoringsAdapter incidence = projects.get(project);
+		if (incidence == null) {
+			incidence = (IncidenceOfRefactoringsAdapter) prototype.fork();
+			projects.put(project, incidence);
+		}
+
+		return incidence;
+	}
+
+	@Override
+	public IMergeableAdapter fork() throws Exception {
+		return new CrossProjectIncidenceAdapter(prototype);
+	}
+
+	@Override
+	public IMergeableAdapter merge(IMergeableAdapter fork) throws Exception {
+		for (Entry<String, IncidenceOfRefactoringsAdapter> project : ((CrossProjectIncidenceAdapter) fork).projects
+				.entrySet()) {
+			getIncidence(project.getKey()).merge(project.getValue());
+		}
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter conclude() throws Exception {
+		for (Entry<String, IncidenceOfRefactoringsAdapter> project : projects.entrySet()) {
+			project.getValue().getIncidence().write(csvWriter, project.getKey() + ",");
+		}
+
+		csvWriter.flush();
+		csvWriter.close();
+
+		return this;
+	}
+
+	public String getCSVFileName() {
+		return this.csvFileName;
+	}
+}
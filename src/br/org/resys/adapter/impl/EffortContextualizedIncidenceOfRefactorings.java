@@ -1,5 +1,13 @@
 package br.org.resys.adapter.impl;
 
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.NodeValue;
+
+import br.org.resys.adapter.IViewProcessingAdapter;
+import br.org.resys.adapter.view.ViewRow;
 import br.org.resys.en.Sparqls;
 
 /**
@@ -34,10 +42,39 @@ public class EffortContextualizedIncidenceOfRefactorings extends IncidenceOfRefa
 
 	@Override
 	public String getSparql() {
-		String sparql = Sparqls.SPARQL_EFFORT_CONTEXTUALIZED_INCIDENCE_OF_REFACTORINGS.getStatement();
-		sparql = sparql.replaceAll("#correlation#", correlation + "");
-		
-		return sparql;
+		return isAggregated() ? Sparqls.SPARQL_EFFORT_CONTEXTUALIZED_INCIDENCE_OF_REFACTORINGS_BY_MONTH.getStatement()
+				: Sparqls.SPARQL_EFFORT_CONTEXTUALIZED_INCIDENCE_OF_REFACTORINGS.getStatement();
+	}
+
+	@Override
+	public QuerySolutionMap getParameters() {
+		QuerySolutionMap parameters = new QuerySolutionMap();
+		parameters.add("correlation", ResourceFactory.createTypedLiteral(correlation));
+
+		return parameters;
+	}
+
+	@Override
+	public IViewProcessingAdapter processing(ViewRow row) throws Exception {
+		getIncidence().setSorted(true);
+		// one row of the resultset per refactoring and matching correlation
+		int numOfCorrelations = 0;
+		for (Node corr : row.getCorrelations()) {
+			try {
+				if (NodeValue.compare(NodeValue.makeNode(corr), NodeValue.makeDouble(correlation)) >= 0) {
+					numOfCorrelations++;
+				}
+			} catch (ExprEvalException e) {
+				// the filter discards incomparable correlations
+			}
+		}
+		if (numOfCorrelations > 0) {
+			for (Node refactoring : row.getRefactorings()) {
+				count(row.getDatetime().getLiteralLexicalForm(), refactoring.getLocalName(), numOfCorrelations);
+			}
+		}
+
+		return this;
 	}
 
 }
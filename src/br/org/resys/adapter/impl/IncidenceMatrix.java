@@ -0,0 +1,275 @@
+package br.org.resys.adapter.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incidence of refactorings by month, counted in a dense matrix of primitive
+ * ints
+ * <p>
+ * Months are encoded as ints (year * 12 + month - 1) and index the rows of the
+ * matrix, relative to the first month counted. Refactorings are interned to
+ * small ids, which index the columns. Counting a row of a resultset thus
+ * allocates no objects (no dates, no boxed counts, no cells).
+ * <p>
+ * Cells are written as "yyyy-MM,refactoring,qt" lines in the order they were
+ * first counted (months first, then the refactorings of each month), as the
+ * original HashBasedTable did. Merged matrices have no such order: they are
+ * written in order of month and refactoring (its name).
+ *
+ * @author Luis Paulo
+ */
+public class IncidenceMatrix {
+
+	/**
+	 * Encode the month of a datetime (e.g. 2016-12-12 03:51:00 or 2016-12) as
+	 * an int. As a lenient "yyyy-MM" date format, months out of range roll
+	 * over (e.g. 2016-13 is 2017-01) and anything after the month is ignored.
+	 *
+	 * @param datetime
+	 *            the datetime
+	 * @return year * 12 + month - 1
+	 * @throws ParseException
+	 *             if the datetime does not start with a year and a month
+	 */
+	public static int parseMonth(String datetime) throws ParseException {
+		int position = 0;
+		int year = 0, month = 0;
+		int start = position;
+		while ((position < datetime.length()) && isDigit(datetime.charAt(position))) {
+			year = year * 10 + (datetime.charAt(position++) - '0');
+		}
+		if ((position == start) || (position == datetime.length()) || (datetime.charAt(position++) != '-')) {
+			throw new ParseException("Unparseable date: \"" + datetime + "\"", position);
+		}
+		start = position;
+		while ((position < datetime.length()) && isDigit(datetime.charAt(position))) {
+			month = month * 10 + (datetime.charAt(position++) - '0');
+		}
+		if (position == start) {
+			throw new ParseException("Unparseable date: \"" + datetime + "\"", position);
+		}
+
+		return year * 12 + month - 1;
+	}
+
+	private static boolean isDigit(char c) {
+		return (c >= '0') && (c <= '9');
+	}
+
+	/**
+	 * @param month
+	 *            a month encoded by {@link #parseMonth(String)}
+	 * @return the month formatted as yyyy-MM
+	 */
+	public static String formatMonth(int month) {
+		int year = Math.floorDiv(month, 12), monthOfYear = Math.floorMod(month, 12) + 1;
+		StringBuilder formatted = new StringBuilder(7);
+		for (int digits = 1000; digits > 1; digits /= 10) {
+			if (year < digits) {
+				formatted.append('0');
+			}
+		}
+
+		return formatted.append(year).append((monthOfYear < 10) ? "-0" : "-").append(monthOfYear).toString();
+	}
+
+	// refactorings by id
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private List<String> refactorings = new ArrayList<String>();
+
+	// counts[month - firstMonth][id] and the cells counted so far (a count
+	// may be 0)
+	private int firstMonth;
+	private int[][] counts = new int[0][];
+	private BitSet[] cells = new BitSet[0];
+	// months and (by month) ids in the order they were first counted
+	private int[] months = new int[0];
+	private int numOfMonths;
+	private int[][] orders = new int[0][];
+	private int[] numOfCells = new int[0];
+	private boolean sorted;
+
+	/**
+	 * @param refactoring
+	 *            name of a refactoring
+	 * @return its id
+	 */
+	public int intern(String refactoring) {
+		Integer id = ids.get(refactoring);
+		if (id == null) {
+			id = refactorings.size();
+			ids.put(refactoring, id);
+			refactorings.add(refactoring);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Add to the incidence of a refactoring in a month
+	 *
+	 * @param month
+	 *            a month encoded by {@link #parseMonth(String)}
+	 * @param refactoring
+	 *            id of the refactoring (see {@link #intern(String)})
+	 * @param qt
+	 *            quantity to add
+	 * @return instance of #IncidenceMatrix
+	 */
+	public IncidenceMatrix add(int month, int refactoring, int qt) {
+		int row = row(month);
+		int[] countsOfMonth = counts[row];
+		if (countsOfMonth == null) {
+			countsOfMonth = counts[row] = new int[refactorings.size()];
+			cells[row] = new BitSet(refactorings.size());
+			orders[row] = new int[4];
+			if (numOfMonths == months.length) {
+				months = Arrays.copyOf(months, Math.max(4, 2 * numOfMonths));
+			}
+			months[numOfMonths++] = month;
+		} else if (refactoring >= countsOfMonth.length) {
+			countsOfMonth = counts[row] = Arrays.copyOf(countsOfMonth, refactorings.size());
+		}
+		countsOfMonth[refactoring] += qt;
+		if (!cells[row].get(refactoring)) {
+			cells[row].set(refactoring);
+			if (numOfCells[row] == orders[row].length) {
+				orders[row] = Arrays.copyOf(orders[row], 2 * numOfCells[row]);
+			}
+			orders[row][numOfCells[row]++] = refactoring;
+		}
+
+		return this;
+	}
+
+	/**
+	 * Row of a month, growing the matrix if the month is out of its range
+	 */
+	private int row(int month) {
+		if (counts.length == 0) {
+			firstMonth = month;
+			counts = new int[1][];
+			cells = new BitSet[1];
+			orders = new int[1][];
+			numOfCells = new int[1];
+		} else if (month < firstMonth) {
+			int shift = firstMonth - month;
+			int[][] shiftedCounts = new int[counts.length + shift][];
+			BitSet[] shiftedCells = new BitSet[counts.length + shift];
+			int[][] shiftedOrders = new int[counts.length + shift][];
+			int[] shiftedNumOfCells = new int[counts.length + shift];
+			System.arraycopy(counts, 0, shiftedCounts, shift, counts.length);
+			System.arraycopy(cells, 0, shiftedCells, shift, cells.length);
+			System.arraycopy(orders, 0, shiftedOrders, shift, orders.length);
+			System.arraycopy(numOfCells, 0, shiftedNumOfCells, shift, numOfCells.length);
+			counts = shiftedCounts;
+			cells = shiftedCells;
+			orders = shiftedOrders;
+			numOfCells = shiftedNumOfCells;
+			firstMonth = month;
+		} else if (month - firstMonth >= counts.length) {
+			int length = Math.max(month - firstMonth + 1, 2 * counts.length);
+			counts = Arrays.copyOf(counts, length);
+			cells = Arrays.copyOf(cells, length);
+			orders = Arrays.copyOf(orders, length);
+			numOfCells = Arrays.copyOf(numOfCells, length);
+		}
+
+		return month - firstMonth;
+	}
+
+	/**
+	 * Add the incidence of another matrix to this one. The matrix is written
+	 * in order of month and refactoring from then on.
+	 *
+	 * @param other
+	 *            the other matrix
+	 * @return instance of #IncidenceMatrix
+	 */
+	public IncidenceMatrix merge(IncidenceMatrix other) {
+		// ids of the other matrix's refactorings in this one
+		int[] mapped = new int[other.refactorings.size()];
+		for (int i = 0; i < mapped.length; i++) {
+			mapped[i] = intern(other.refactorings.get(i));
+		}
+		for (int row = 0; row < other.counts.length; row++) {
+			if (other.counts[row] != null) {
+				BitSet otherCells = other.cells[row];
+				for (int id = otherCells.nextSetBit(0); id >= 0; id = otherCells.nextSetBit(id + 1)) {
+					add(other.firstMonth + row, mapped[id], other.counts[row][id]);
+				}
+			}
+		}
+		sorted = true;
+
+		return this;
+	}
+
+	/**
+	 * @param sorted
+	 *            true if the cells must be written in order of month and
+	 *            refactoring, false if in the order they were first counted
+	 * @return instance of #IncidenceMatrix
+	 */
+	public IncidenceMatrix setSorted(boolean sorted) {
+		this.sorted = sorted;
+
+		return this;
+	}
+
+	/**
+	 * Write each cell as a line (month,refactoring,qt), in the order they
+	 * were first counted or, if the matrix is sorted, in order of month and
+	 * refactoring. Every line is preceded by a line separator.
+	 *
+	 * @param writer
+	 *            the writer
+	 * @param prefix
+	 *            written at the start of each line (e.g. a column of the
+	 *            project)
+	 * @throws IOException
+	 *             if it fails to write
+	 */
+	public void write(BufferedWriter writer, String prefix) throws IOException {
+		if (!sorted) {
+			for (int i = 0; i < numOfMonths; i++) {
+				int row = months[i] - firstMonth;
+				String month = formatMonth(months[i]);
+				for (int j = 0; j < numOfCells[row]; j++) {
+					int id = orders[row][j];
+					writer.newLine();
+					writer.write(prefix + month + "," + refactorings.get(id) + "," + counts[row][id]);
+				}
+			}
+
+			return;
+		}
+		Integer[] order = new Integer[refactorings.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparing(refactorings::get));
+
+		for (int row = 0; row < counts.length; row++) {
+			if (counts[row] != null) {
+				String month = formatMonth(firstMonth + row);
+				for (int id : order) {
+					if (cells[row].get(id)) {
+						writer.newLine();
+						writer.write(prefix + month + "," + refactorings.get(id) + "," + counts[row][id]);
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -3,19 +3,21 @@ package br.org.resys.adapter.impl;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
+import org.apache.jena.graph.Node;
 import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-import com.google.common.collect.Table.Cell;
-
+import br.org.resys.adapter.IMergeableAdapter;
+import br.org.resys.adapter.IOutputStreamAdapter;
 import br.org.resys.adapter.ISparqlProcessingAdapter;
+import br.org.resys.adapter.IStreamingAdapter;
+import br.org.resys.adapter.IViewProcessingAdapter;
+import br.org.resys.adapter.view.ViewRow;
 import br.org.resys.en.Sparqls;
 import br.org.resys.util.Util;
 
@@ -23,35 +25,77 @@ import br.org.resys.util.Util;
  * Select and export data concerning the evolution of the incidence of
  * refactorings over time
  * <p>
- * The dataset is stored in a csv file which can later on be used to analyze the
- * recommendation of refactoring as smells are mined from software projects.
+ * The dataset is stored in a csv file (or written to a stream) which can later
+ * on be used to analyze the recommendation of refactoring as smells are mined
+ * from software projects.
+ * <p>
+ * If the adapter is aggregated (it is not by default), the rows are counted
+ * by month and refactoring in the query engine, so only the counts are passed
+ * to the adapter (see
+ * {@link Sparqls#SPARQL_INCIDENCE_OF_REFACTORINGS_BY_MONTH}).
+ * <p>
+ * Rows are counted by month and refactoring (see {@link IncidenceMatrix}). The
+ * counts are exported in the order they were first counted, i.e. in the order
+ * of the statement (by datetime), as the original adapter did. If the rows are
+ * streamed to the adapter as they are selected, without the statement's ORDER
+ * BY ("sparql.stream"), or scanned from a view (whose rows are not in the
+ * statement's order within a datetime), the counts are exported in order of
+ * month and refactoring instead, whatever the order of the rows.
  * 
  * @author Luis Paulo
  */
-public class IncidenceOfRefactoringsAdapter implements ISparqlProcessingAdapter {
+public class IncidenceOfRefactoringsAdapter implements IViewProcessingAdapter, IMergeableAdapter,
+		IStreamingAdapter, IOutputStreamAdapter, Cloneable {
 
-	private Table<Date, String, Integer> incidenceTable;
-	private DateFormat dateFormat;
+	private IncidenceMatrix incidence;
+	private boolean aggregated = false;
 
+	private OutputStream out;
 	private BufferedWriter csvWriter;
 	private String csvFileName;
 
 	@Override
 	public String getSparql() {
-		return Sparqls.SPARQL_INCIDENCE_OF_REFACTORINGS.getStatement();
+		return aggregated ? Sparqls.SPARQL_INCIDENCE_OF_REFACTORINGS_BY_MONTH.getStatement()
+				: Sparqls.SPARQL_INCIDENCE_OF_REFACTORINGS.getStatement();
+	}
+
+	/**
+	 * @param aggregated
+	 *            true if the rows must be counted in the query engine, false if
+	 *            every row of the join must be passed to the adapter
+	 * @return instance of #IncidenceOfRefactoringsAdapter
+	 */
+	public IncidenceOfRefactoringsAdapter setAggregated(boolean aggregated) {
+		this.aggregated = aggregated;
+
+		return this;
+	}
+
+	public boolean isAggregated() {
+		return aggregated;
+	}
+
+	@Override
+	public QuerySolutionMap getParameters() {
+		return new QuerySolutionMap();
 	}
 
 	@Override
 	public ISparqlProcessingAdapter init(Properties properties) throws Exception {
-		incidenceTable = HashBasedTable.create();
-		dateFormat = new SimpleDateFormat("yyyy-MM");
+		incidence = new IncidenceMatrix()
+				.setSorted(Boolean.parseBoolean(properties.getProperty("sparql.stream", "false")));
 
-		csvFileName = "incidence_" + Util.generateUid() + ".csv";
+		if (out != null) {
+			csvWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		} else {
+			csvFileName = "incidence_" + Util.generateUid() + ".csv";
 
-		File fout = new File(properties.getProperty("csv.output.path") + "/" + csvFileName);
-		FileOutputStream fos = new FileOutputStream(fout);
+			File fout = new File(properties.getProperty("csv.output.path") + "/" + csvFileName);
+			FileOutputStream fos = new FileOutputStream(fout);
 
-		csvWriter = new BufferedWriter(new OutputStreamWriter(fos));
+			csvWriter = new BufferedWriter(new OutputStreamWriter(fos));
+		}
 		csvWriter.write("date,refactoring,qt");
 		
 		return this;
@@ -59,32 +103,80 @@ public class IncidenceOfRefactoringsAdapter implements ISparqlProcessingAdapter
 
 	@Override
 	public ISparqlProcessingAdapter processing(QuerySolution row) throws Exception {
-		Date datetime = dateFormat.parse(row.getLiteral("datetime").getString());
-		String refactoring = row.getResource("refactoring").getLocalName();
-
-		if (incidenceTable.contains(datetime, refactoring)) {
-			Integer qt = incidenceTable.get(datetime, refactoring) + 1;
-			incidenceTable.put(datetime, refactoring, qt);
+		if (row.contains("qt")) {
+			count(row.getLiteral("month").getString(), row.getResource("refactoring").getLocalName(),
+					row.getLiteral("qt").getInt());
 		} else {
-			incidenceTable.put(datetime, refactoring, 1);
+			count(row.getLiteral("datetime").getString(), row.getResource("refactoring").getLocalName(), 1);
 		}
 
 		return this;
 	}
 
 	@Override
-	public ISparqlProcessingAdapter conclude() throws Exception {
-		for (Cell<Date, String, Integer> cell : incidenceTable.cellSet()) {
-			csvWriter.newLine();
-			csvWriter.write(dateFormat.format(cell.getRowKey()) + "," + cell.getColumnKey() + "," + cell.getValue());
+	public IViewProcessingAdapter processing(ViewRow row) throws Exception {
+		incidence.setSorted(true);
+		// one row of the resultset per refactoring of the smell
+		for (Node refactoring : row.getRefactorings()) {
+			count(row.getDatetime().getLiteralLexicalForm(), refactoring.getLocalName(), 1);
 		}
 
+		return this;
+	}
+
+	/**
+	 * Add to the incidence of a refactoring in the month of a datetime
+	 */
+	protected void count(String datetime, String refactoring, int qt) throws Exception {
+		incidence.add(IncidenceMatrix.parseMonth(datetime), incidence.intern(refactoring), qt);
+	}
+
+	@Override
+	public IncidenceOfRefactoringsAdapter setOutputStream(OutputStream out) {
+		this.out = out;
+
+		return this;
+	}
+
+	@Override
+	public IMergeableAdapter fork() throws Exception {
+		// subclasses keep their configuration (e.g. correlation)
+		IncidenceOfRefactoringsAdapter fork = (IncidenceOfRefactoringsAdapter) clone();
+		fork.incidence = new IncidenceMatrix();
+		fork.out = null;
+		fork.csvWriter = null;
+		fork.csvFileName = null;
+
+		return fork;
+	}
+
+	@Override
+	public IMergeableAdapter merge(IMergeableAdapter fork) throws Exception {
+		incidence.merge(((IncidenceOfRefactoringsAdapter) fork).incidence);
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter conclude() throws Exception {
+		incidence.write(csvWriter, "");
+
 		csvWriter.flush();
-		csvWriter.close();
+		// streams are closed by their owners
+		if (out == null) {
+			csvWriter.close();
+		}
 
 		return this;
 	}
 
+	/**
+	 * @return incidence of each refactoring by month
+	 */
+	public IncidenceMatrix getIncidence() {
+		return incidence;
+	}
+
 	public String getCSVFileName() {
 		return this.csvFileName;
 	}
@@ -3,30 +3,58 @@ package br.org.resys.adapter.impl;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
 import java.util.Properties;
 
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
 
+import br.org.resys.adapter.IMergeableAdapter;
+import br.org.resys.adapter.IOutputStreamAdapter;
 import br.org.resys.adapter.ISparqlProcessingAdapter;
+import br.org.resys.adapter.IViewProcessingAdapter;
+import br.org.resys.adapter.view.ViewRow;
+import br.org.resys.en.OntosIRI;
 import br.org.resys.en.Sparqls;
+import br.org.resys.util.SpillingAggregator;
 import br.org.resys.util.Util;
 
 /**
  * Select and export data representing the evolution of the incidence of
  * refactorings over time
  * <p>
- * The dataset is stored in a csv file which can later on be used to analyze the
- * recommendation of refactoring.
+ * The dataset is stored in a csv file (or written to a stream) which can later
+ * on be used to analyze the recommendation of refactoring.
+ * <p>
+ * Rows of the statement come in order of the csv (descending datetime), so they
+ * are written as they arrive. Only the rows of a view (ascending datetime) and
+ * of forks are kept until they can be written in order, in a
+ * {@link SpillingAggregator} (rows counted by line, ordered by descending
+ * datetime), which spills them to disk once they exceed its memory budget.
  * 
  * @author Luis Paulo
  */
-public class RefactoringsByCommittersAdapter implements ISparqlProcessingAdapter {
+public class RefactoringsByCommittersAdapter
+		implements IViewProcessingAdapter, IMergeableAdapter, IOutputStreamAdapter {
+
+	private static final Node LONG_METHOD = NodeFactory.createURI(OntosIRI.SMELLS_IRI.getIri() + "#LongMethod");
+
+	// descending datetime (the third column), then the line itself
+	private static final Comparator<String> DESCENDING_DATETIME = Comparator
+			.comparing(RefactoringsByCommittersAdapter::getDatetime).reversed()
+			.thenComparing(Comparator.naturalOrder());
 
-	private List<String> lines;
+	// rows not written yet: rows of a view come in ascending order of
+	// datetime, forks have no output of their own
+	private SpillingAggregator lines;
+	private Properties properties;
 
+	private OutputStream out;
 	private BufferedWriter csvWriter;
 	private String csvFileName;
 
@@ -35,16 +63,26 @@ public class RefactoringsByCommittersAdapter implements ISparqlProcessingAdapter
 		return Sparqls.SPARQL_SMELLS_BY_COMMITTER.getStatement();
 	}
 
+	@Override
+	public QuerySolutionMap getParameters() {
+		return new QuerySolutionMap();
+	}
+
 	@Override
 	public ISparqlProcessingAdapter init(Properties properties) throws Exception {
-		lines = new ArrayList<String>();
+		this.properties = properties;
+		lines = newLines(properties);
 
-		csvFileName = "refactoringsbycommitter_" + Util.generateUid() + ".csv";
+		if (out != null) {
+			csvWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		} else {
+			csvFileName = "refactoringsbycommitter_" + Util.generateUid() + ".csv";
 
-		File fout = new File(properties.getProperty("csv.output.path") + "/" + csvFileName);
-		FileOutputStream fos = new FileOutputStream(fout);
+			File fout = new File(properties.getProperty("csv.output.path") + "/" + csvFileName);
+			FileOutputStream fos = new FileOutputStream(fout);
 
-		csvWriter = new BufferedWriter(new OutputStreamWriter(fos));
+			csvWriter = new BufferedWriter(new OutputStreamWriter(fos));
+		}
 		csvWriter.write("committer,smell,datetime,locatio");
 
 		return this;
@@ -57,20 +95,95 @@ public class RefactoringsByCommittersAdapter implements ISparqlProcessingAdapter
 		String date = row.getLiteral("datetime").getString();
 		String location = row.getLiteral("location").getString();
 
-		lines.add(committer + "," + smell + "," + date + "," + location);
+		String line = committer + "," + smell + "," + date + "," + location;
+		if (csvWriter != null) {
+			write(line);
+		} else {
+			lines.add(line, 1);
+		}
 
 		return this;
 	}
 
 	@Override
-	public ISparqlProcessingAdapter conclude() throws Exception {
-		for (String line : lines) {
-			csvWriter.newLine();
-			csvWriter.write(line);
+	public IViewProcessingAdapter processing(ViewRow row) throws Exception {
+		if (row.getTypes().contains(LONG_METHOD)) {
+			String committer = row.getCommitter().getLocalName();
+			String smell = row.getCodesmell().getLocalName();
+			String date = row.getDatetime().getLiteralLexicalForm();
+			String location = row.getLocation().getLiteralLexicalForm();
+
+			lines.add(committer + "," + smell + "," + date + "," + location, 1);
+		}
+
+		return this;
+	}
+
+	private void write(String line) throws Exception {
+		csvWriter.newLine();
+		csvWriter.write(line);
+	}
+
+	/**
+	 * Write the lines kept so far (each as many times as it was counted) and
+	 * discard them
+	 */
+	private void write(SpillingAggregator lines) throws Exception {
+		try {
+			lines.forEach((line, count) -> {
+				for (long i = 0; i < count; i++) {
+					write(line);
+				}
+			});
+		} finally {
+			lines.close();
 		}
+	}
+
+	private static SpillingAggregator newLines(Properties properties) {
+		return SpillingAggregator.of(properties, RefactoringsByCommittersAdapter.class.getSimpleName(),
+				DESCENDING_DATETIME);
+	}
+
+	private static String getDatetime(String line) {
+		int start = line.indexOf(',', line.indexOf(',') + 1) + 1;
+
+		return line.substring(start, line.indexOf(',', start));
+	}
+
+	@Override
+	public RefactoringsByCommittersAdapter setOutputStream(OutputStream out) {
+		this.out = out;
+
+		return this;
+	}
+
+	@Override
+	public IMergeableAdapter fork() throws Exception {
+		RefactoringsByCommittersAdapter fork = new RefactoringsByCommittersAdapter();
+		fork.properties = properties;
+		fork.lines = newLines(properties);
+
+		return fork;
+	}
+
+	@Override
+	public IMergeableAdapter merge(IMergeableAdapter fork) throws Exception {
+		// partitions are merged in order of the statement (descending datetime)
+		write(((RefactoringsByCommittersAdapter) fork).lines);
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter conclude() throws Exception {
+		write(lines);
 
 		csvWriter.flush();
-		csvWriter.close();
+		// streams are closed by their owners
+		if (out == null) {
+			csvWriter.close();
+		}
 
 		return this;
 	}
@@ -0,0 +1,208 @@
+package br.org.resys.adapter.impl;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.util.FmtUtils;
+
+import br.org.resys.adapter.ISparqlProcessingAdapter;
+
+/**
+ * Write the rows of an ad-hoc SELECT statement to a stream, as they are
+ * produced, in one of the SPARQL 1.1 result formats
+ * <p>
+ * Rows are written in the order they are passed to the adapter; nothing is
+ * kept in memory but the buffer of the stream.
+ *
+ * @author Luis Paulo
+ */
+public class SparqlResultsAdapter implements ISparqlProcessingAdapter {
+
+	/**
+	 * Result formats
+	 */
+	public enum Format {
+		CSV("text/csv"), TSV("text/tab-separated-values"), JSON("application/sparql-results+json");
+
+		private String mediaType;
+
+		private Format(String mediaType) {
+			this.mediaType = mediaType;
+		}
+
+		public String getMediaType() {
+			return mediaType;
+		}
+	}
+
+	private String sparql;
+	private Format format;
+	private OutputStream out;
+
+	private List<String> vars;
+	private BufferedWriter writer;
+	private long rows;
+
+	/**
+	 * @param sparql
+	 *            a SELECT statement
+	 * @param format
+	 *            format of the results
+	 * @param out
+	 *            stream the results are written to (it is flushed, not closed)
+	 */
+	public SparqlResultsAdapter(String sparql, Format format, OutputStream out) {
+		this.sparql = sparql;
+		this.format = format;
+		this.out = out;
+	}
+
+	@Override
+	public String getSparql() {
+		return sparql;
+	}
+
+	@Override
+	public QuerySolutionMap getParameters() {
+		return new QuerySolutionMap();
+	}
+
+	@Override
+	public ISparqlProcessingAdapter init(Properties properties) throws Exception {
+		Query query = QueryFactory.create(sparql);
+		vars = query.getResultVars();
+		rows = 0;
+
+		writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		if (format == Format.JSON) {
+			writer.write("{\"head\" : {\"vars\" : [");
+			for (int i = 0; i < vars.size(); i++) {
+				writer.write(((i > 0) ? ", " : "") + quote(vars.get(i)));
+			}
+			writer.write("]}, \"results\" : {\"bindings\" : [");
+		} else {
+			for (int i = 0; i < vars.size(); i++) {
+				if (format == Format.CSV) {
+					writer.write(((i > 0) ? "," : "") + vars.get(i));
+				} else {
+					writer.write(((i > 0) ? "\t" : "") + "?" + vars.get(i));
+				}
+			}
+			writer.write((format == Format.CSV) ? "\r\n" : "\n");
+		}
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter processing(QuerySolution row) throws Exception {
+		if (format == Format.JSON) {
+			writer.write(((rows > 0) ? ",\n" : "\n") + "{");
+			boolean first = true;
+			for (String var : vars) {
+				RDFNode value = row.get(var);
+				if (value != null) {
+					writer.write((first ? "" : ", ") + quote(var) + " : " + toJson(value.asNode()));
+					first = false;
+				}
+			}
+			writer.write("}");
+		} else {
+			for (int i = 0; i < vars.size(); i++) {
+				RDFNode value = row.get(vars.get(i));
+				if (format == Format.CSV) {
+					writer.write(((i > 0) ? "," : "") + ((value != null) ? toCsv(value.asNode()) : ""));
+				} else {
+					// terms in turtle syntax
+					writer.write(
+							((i > 0) ? "\t" : "") + ((value != null) ? FmtUtils.stringForNode(value.asNode()) : ""));
+				}
+			}
+			writer.write((format == Format.CSV) ? "\r\n" : "\n");
+		}
+		rows++;
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter conclude() throws Exception {
+		if (format == Format.JSON) {
+			writer.write("\n]}}");
+		}
+		writer.flush();
+
+		return this;
+	}
+
+	/**
+	 * @return number of rows written
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * IRIs and lexical forms of literals, quoted if needed
+	 */
+	private static String toCsv(Node node) {
+		String value = node.isURI() ? node.getURI()
+				: node.isLiteral() ? node.getLiteralLexicalForm() : "_:" + node.getBlankNodeLabel();
+		if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+			value = "\"" + value.replace("\"", "\"\"") + "\"";
+		}
+
+		return value;
+	}
+
+	private static String toJson(Node node) {
+		if (node.isURI()) {
+			return "{\"type\" : \"uri\", \"value\" : " + quote(node.getURI()) + "}";
+		}
+		if (node.isBlank()) {
+			return "{\"type\" : \"bnode\", \"value\" : " + quote(node.getBlankNodeLabel()) + "}";
+		}
+		StringBuilder json = new StringBuilder("{\"type\" : \"literal\", \"value\" : ")
+				.append(quote(node.getLiteralLexicalForm()));
+		if (!node.getLiteralLanguage().isEmpty()) {
+			json.append(", \"xml:lang\" : ").append(quote(node.getLiteralLanguage()));
+		} else if (!XSDDatatype.XSDstring.getURI().equals(node.getLiteralDatatypeURI())) {
+			json.append(", \"datatype\" : ").append(quote(node.getLiteralDatatypeURI()));
+		}
+
+		return json.append("}").toString();
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if ((c == '"') || (c == '\\')) {
+				quoted.append('\\').append(c);
+			} else if (c == '\n') {
+				quoted.append("\\n");
+			} else if (c == '\r') {
+				quoted.append("\\r");
+			} else if (c == '\t') {
+				quoted.append("\\t");
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+
+		return quoted.append("\"").toString();
+	}
+
+}
@@ -0,0 +1,236 @@
+package br.org.resys.adapter.view;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.graph.Node;
+
+import br.org.resys.adapter.IViewProcessingAdapter;
+import br.org.resys.adapter.connector.MappedGraph;
+
+/**
+ * Materialized view of the smells introduced by commits in an instance of
+ * ocean
+ * <p>
+ * Every export joins committers, commits, smells, locations and refactorings.
+ * Instead of running this join on each export, it is computed once, by the
+ * first export that needs it (see {@link ViewBuilder}), and its rows
+ * ({@link ViewRow}) are stored next to the ontology's file (e.g. ocean_x.owl
+ * --> ocean_x.view), sorted by datetime. Views are built one at a time, under
+ * the lock of views of {@link br.org.resys.adapter.connector.SparqlConnector},
+ * so concurrent exports wait for the view instead of building it again.
+ * Further exports then scan the rows sequentially.
+ * <p>
+ * Rows are dictionary-encoded: every term is stored once and rows are stored
+ * as ids. As the binary copies of {@link br.org.resys.adapter.connector.BinaryRdf},
+ * a view carries the modification time of the ontology's file, so a view
+ * whose time differs from the ontology's is stale and ignored.
+ * <p>
+ * The types of the smells depend on how the ontology was loaded (spec,
+ * entailments, imports). The view thus also records a signature of the
+ * configuration it was built with (see
+ * {@link br.org.resys.adapter.connector.SparqlConnector}), and a view built
+ * with another signature is stale as well.
+ *
+ * @author Luis Paulo
+ */
+public class MaterializedView {
+	public static final String EXTENSION = ".view";
+	private static final int MAGIC = 0x52535657;
+	private static final int FORMAT = 2;
+
+	/**
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @return the file of its view
+	 */
+	public static File getViewFile(File file) {
+		String name = file.getName();
+		name = name.endsWith(".owl") ? name.substring(0, name.length() - 4) : name;
+
+		return new File(file.getParentFile(), name + EXTENSION);
+	}
+
+	/**
+	 * Verify if the view of an instance of ocean is up to date
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @param signature
+	 *            signature of the current configuration
+	 * @return true if the view can be scanned instead of querying the ontology
+	 * @throws IOException
+	 *             if it fails to read the header of the view
+	 */
+	public static boolean isFresh(File file, String signature) throws IOException {
+		File view = getViewFile(file);
+		if (!view.exists() || (view.lastModified() != file.lastModified())) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(view)));
+		try {
+			return (in.readInt() == MAGIC) && (in.readInt() == FORMAT) && signature.equals(readString(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the view of an instance of ocean
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @param signature
+	 *            signature of the configuration the rows were selected with
+	 * @param rows
+	 *            rows of the view, sorted by datetime
+	 * @throws IOException
+	 *             if it fails to write the view
+	 */
+	public static void write(File file, String signature, List<ViewRow> rows) throws IOException {
+		Map<Node, Integer> ids = new HashMap<Node, Integer>();
+		List<Node> terms = new ArrayList<Node>();
+		for (ViewRow row : rows) {
+			for (Node node : new Node[] { row.getCommitter(), row.getCommit(), row.getDatetime(), row.getCodesmell(),
+					row.getLocation() }) {
+				intern(node, ids, terms);
+			}
+			for (List<Node> nodes : list(row)) {
+				for (Node node : nodes) {
+					intern(node, ids, terms);
+				}
+			}
+		}
+
+		File view = getViewFile(file);
+		File temp = new File(view.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			writeString(out, signature);
+			// dictionary
+			out.writeInt(terms.size());
+			for (Node term : terms) {
+				writeString(out, MappedGraph.encode(term));
+			}
+			// rows
+			out.writeInt(rows.size());
+			for (ViewRow row : rows) {
+				out.writeInt(ids.get(row.getCommitter()));
+				out.writeInt(ids.get(row.getCommit()));
+				out.writeInt(ids.get(row.getDatetime()));
+				out.writeInt(ids.get(row.getCodesmell()));
+				out.writeInt(ids.get(row.getLocation()));
+				for (List<Node> nodes : list(row)) {
+					out.writeInt(nodes.size());
+					for (Node node : nodes) {
+						out.writeInt(ids.get(node));
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		view.delete();
+		if (!temp.setLastModified(file.lastModified()) || !temp.renameTo(view)) {
+			temp.delete();
+			throw new IOException("Unable to write " + view);
+		}
+	}
+
+	/**
+	 * Pass each row of the view of an instance of ocean to an adapter, in
+	 * order of datetime
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @param adapter
+	 *            instance of {@link IViewProcessingAdapter}
+	 * @throws Exception
+	 *             if it fails to read the view or if the adapter fails to
+	 *             process a row
+	 */
+	public static void scan(File file, IViewProcessingAdapter adapter) throws Exception {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getViewFile(file))));
+		try {
+			if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT)) {
+				throw new IOException("Unknown format of view: " + getViewFile(file));
+			}
+			// signature
+			readString(in);
+			Node[] terms = new Node[in.readInt()];
+			for (int i = 0; i < terms.length; i++) {
+				terms[i] = MappedGraph.decode(readString(in));
+			}
+			int numOfRows = in.readInt();
+			for (int i = 0; i < numOfRows; i++) {
+				Node committer = terms[in.readInt()];
+				Node commit = terms[in.readInt()];
+				Node datetime = terms[in.readInt()];
+				Node codesmell = terms[in.readInt()];
+				Node location = terms[in.readInt()];
+				List<Node> types = read(in, terms);
+				List<Node> refactorings = read(in, terms);
+				List<Node> correlations = read(in, terms);
+
+				adapter.processing(
+						new ViewRow(committer, commit, datetime, codesmell, location, types, refactorings, correlations));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static List<List<Node>> list(ViewRow row) {
+		List<List<Node>> lists = new ArrayList<List<Node>>();
+		lists.add(row.getTypes());
+		lists.add(row.getRefactorings());
+		lists.add(row.getCorrelations());
+
+		return lists;
+	}
+
+	private static void intern(Node node, Map<Node, Integer> ids, List<Node> terms) {
+		if (!ids.containsKey(node)) {
+			ids.put(node, terms.size());
+			terms.add(node);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static List<Node> read(DataInputStream in, Node[] terms) throws IOException {
+		int size = in.readInt();
+		List<Node> nodes = new ArrayList<Node>(size);
+		for (int i = 0; i < size; i++) {
+			nodes.add(terms[in.readInt()]);
+		}
+
+		return nodes;
+	}
+
+}
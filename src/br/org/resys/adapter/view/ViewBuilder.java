@@ -0,0 +1,185 @@
+package br.org.resys.adapter.view;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.RDF;
+
+import br.org.resys.adapter.ISparqlProcessingAdapter;
+import br.org.resys.en.OntosIRI;
+import br.org.resys.en.Sparqls;
+
+/**
+ * Build the {@link MaterializedView} of an instance of ocean (and its
+ * {@link ViewIndex})
+ * <p>
+ * The smells introduced by commits are selected by
+ * {@link Sparqls#SPARQL_COMMITTED_SMELLS}. The types, refactorings and
+ * correlations of each smell are then retrieved from the model the rows come
+ * from, only once per smell. Types are (possibly) inferred, so they are all
+ * listed in a single pass: asking the reasoner for the types of each smell
+ * separately is an order of magnitude slower.
+ *
+ * @author Luis Paulo
+ */
+public class ViewBuilder implements ISparqlProcessingAdapter {
+
+	private File ontology;
+	private String signature;
+	private List<ViewRow> rows;
+	// types, refactorings and correlations by smell
+	private Map<Node, List<List<Node>>> smells;
+	// all types by individual
+	private Map<Node, List<Node>> types;
+
+	/**
+	 * @param ontology
+	 *            physical file of the instance of ocean
+	 * @param signature
+	 *            signature of the configuration the ontology is loaded with
+	 *            (see {@link MaterializedView})
+	 */
+	public ViewBuilder(File ontology, String signature) {
+		this.ontology = ontology;
+		this.signature = signature;
+	}
+
+	@Override
+	public String getSparql() {
+		return Sparqls.SPARQL_COMMITTED_SMELLS.getStatement();
+	}
+
+	@Override
+	public QuerySolutionMap getParameters() {
+		return new QuerySolutionMap();
+	}
+
+	@Override
+	public ISparqlProcessingAdapter init(Properties properties) throws Exception {
+		rows = new ArrayList<ViewRow>();
+		smells = new HashMap<Node, List<List<Node>>>();
+		types = null;
+
+		return this;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter processing(QuerySolution row) throws Exception {
+		Resource codesmell = row.getResource("codesmell");
+		if (types == null) {
+			types = listTypes(codesmell.getModel());
+		}
+		List<List<Node>> details = smells.get(codesmell.asNode());
+		if (details == null) {
+			details = describe(codesmell);
+			smells.put(codesmell.asNode(), details);
+		}
+
+		rows.add(new ViewRow(row.get("committer").asNode(), row.get("commit").asNode(), row.get("datetime").asNode(),
+				codesmell.asNode(), row.get("location").asNode(), details.get(0), details.get(1), details.get(2)));
+
+		return this;
+	}
+
+	/**
+	 * List the types of every individual of a model
+	 */
+	private Map<Node, List<Node>> listTypes(Model model) {
+		Map<Node, List<Node>> types = new HashMap<Node, List<Node>>();
+		StmtIterator statements = model.listStatements(null, RDF.type, (RDFNode) null);
+		try {
+			while (statements.hasNext()) {
+				Statement statement = statements.next();
+				List<Node> objects = types.get(statement.getSubject().asNode());
+				if (objects == null) {
+					objects = new ArrayList<Node>();
+					types.put(statement.getSubject().asNode(), objects);
+				}
+				objects.add(statement.getObject().asNode());
+			}
+		} finally {
+			statements.close();
+		}
+
+		return types;
+	}
+
+	/**
+	 * Retrieve the types, the refactorings and the correlations of a smell
+	 */
+	private List<List<Node>> describe(Resource codesmell) {
+		Model model = codesmell.getModel();
+		Property refactoredBy = model.createProperty(OntosIRI.OCEAN_IRI.getIri() + "#refactoredBy");
+		Property hasRecommendedFor = model.createProperty(OntosIRI.OCEAN_IRI.getIri() + "#hasRecommendedFor");
+		Property contextualizedBy = model.createProperty(OntosIRI.OSORE_IRI.getIri() + "#contextualizedBy");
+		Property correlation = model.createProperty(OntosIRI.OSORE_IRI.getIri() + "#correlation");
+
+		List<Node> types = this.types.containsKey(codesmell.asNode()) ? this.types.get(codesmell.asNode())
+				: new ArrayList<Node>();
+		List<Node> refactorings = objects(codesmell, refactoredBy);
+		List<Node> correlations = new ArrayList<Node>();
+		// recommendation --> contextualizedBy --> effort --> correlation
+		ResIterator recommendations = model.listSubjectsWithProperty(hasRecommendedFor, codesmell);
+		try {
+			while (recommendations.hasNext()) {
+				StmtIterator efforts = recommendations.next().listProperties(contextualizedBy);
+				try {
+					while (efforts.hasNext()) {
+						RDFNode effort = efforts.next().getObject();
+						if (effort.isResource()) {
+							correlations.addAll(objects(effort.asResource(), correlation));
+						}
+					}
+				} finally {
+					efforts.close();
+				}
+			}
+		} finally {
+			recommendations.close();
+		}
+
+		List<List<Node>> details = new ArrayList<List<Node>>();
+		details.add(types);
+		details.add(refactorings);
+		details.add(correlations);
+
+		return details;
+	}
+
+	private List<Node> objects(Resource subject, Property property) {
+		List<Node> objects = new ArrayList<Node>();
+		StmtIterator statements = subject.listProperties(property);
+		try {
+			while (statements.hasNext()) {
+				objects.add(statements.next().getObject().asNode());
+			}
+		} finally {
+			statements.close();
+		}
+
+		return objects;
+	}
+
+	@Override
+	public ISparqlProcessingAdapter conclude() throws Exception {
+		MaterializedView.write(ontology, signature, rows);
+		ViewIndex.write(ontology, signature, rows);
+
+		return this;
+	}
+
+}
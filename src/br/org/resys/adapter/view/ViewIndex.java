@@ -0,0 +1,309 @@
+package br.org.resys.adapter.view;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.jena.graph.Node;
+
+import br.org.resys.en.OntosIRI;
+
+/**
+ * Secondary indexes of a {@link MaterializedView}
+ * <p>
+ * Point queries (the smells found in a location, introduced by a committer or
+ * by a commit) are answered from a file stored next to the view (e.g.
+ * ocean_x.owl --> ocean_x.idx), without loading the ontology nor the view.
+ * Each row of the view is stored once, already rendered as json, and each
+ * index is a sorted table of keys whose entries point to the rows. Lookups are
+ * binary searches over the file.
+ * <p>
+ * Format (all strings as length-prefixed UTF-8):
+ * <ul>
+ * <li>header: magic number, format version, the offsets of the indexes and the
+ * signature of the view (see {@link MaterializedView})</li>
+ * <li>rows: json of each row of the view</li>
+ * <li>indexes: number of keys, offsets of the entries and entries (key and
+ * offsets of its rows)</li>
+ * </ul>
+ * As the view, the file carries the modification time of the ontology's file
+ * and it is stale if it was built with another signature.
+ *
+ * @author Luis Paulo
+ */
+public class ViewIndex {
+	public static final String EXTENSION = ".idx";
+	private static final int MAGIC = 0x52534958;
+	private static final int FORMAT = 2;
+	// fixed part of the header: magic number, format and offsets
+	private static final int HEADER = 8 + 8 * Key.values().length;
+
+	/**
+	 * Keys rows can be looked up by
+	 */
+	public enum Key {
+		LOCATION {
+			@Override
+			String of(ViewRow row) {
+				return row.getLocation().getLiteralLexicalForm();
+			}
+		},
+		COMMITTER {
+			@Override
+			String of(ViewRow row) {
+				return row.getCommitter().getLocalName();
+			}
+		},
+		COMMIT {
+			@Override
+			String of(ViewRow row) {
+				return row.getCommit().getLocalName();
+			}
+		};
+
+		abstract String of(ViewRow row);
+	}
+
+	/**
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @return the file of its indexes
+	 */
+	public static File getIndexFile(File file) {
+		String name = file.getName();
+		name = name.endsWith(".owl") ? name.substring(0, name.length() - 4) : name;
+
+		return new File(file.getParentFile(), name + EXTENSION);
+	}
+
+	/**
+	 * Verify if the indexes of an instance of ocean are up to date
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @param signature
+	 *            signature of the current configuration
+	 * @return true if lookups can be answered by the indexes
+	 * @throws IOException
+	 *             if it fails to read the header of the indexes
+	 */
+	public static boolean isFresh(File file, String signature) throws IOException {
+		File index = getIndexFile(file);
+		if (!index.exists() || (index.lastModified() != file.lastModified())) {
+			return false;
+		}
+		RandomAccessFile in = new RandomAccessFile(index, "r");
+		try {
+			if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT)) {
+				return false;
+			}
+			in.seek(HEADER);
+
+			return signature.equals(readString(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the indexes of an instance of ocean
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @param signature
+	 *            signature of the view
+	 * @param rows
+	 *            rows of its view
+	 * @throws IOException
+	 *             if it fails to write the indexes
+	 */
+	public static void write(File file, String signature, List<ViewRow> rows) throws IOException {
+		byte[] signed = signature.getBytes(StandardCharsets.UTF_8);
+		// layout is computed upfront, so the file is written sequentially
+		List<byte[]> records = new ArrayList<byte[]>();
+		long[] recordOffsets = new long[rows.size()];
+		long offset = HEADER + 4 + signed.length;
+		for (int i = 0; i < rows.size(); i++) {
+			byte[] record = toJson(rows.get(i)).getBytes(StandardCharsets.UTF_8);
+			records.add(record);
+			recordOffsets[i] = offset;
+			offset += 4 + record.length;
+		}
+
+		long[] indexOffsets = new long[Key.values().length];
+		List<List<byte[]>> keys = new ArrayList<List<byte[]>>();
+		List<List<List<Long>>> entries = new ArrayList<List<List<Long>>>();
+		for (Key key : Key.values()) {
+			TreeMap<String, List<Long>> index = new TreeMap<String, List<Long>>();
+			for (int i = 0; i < rows.size(); i++) {
+				String value = key.of(rows.get(i));
+				if (!index.containsKey(value)) {
+					index.put(value, new ArrayList<Long>());
+				}
+				index.get(value).add(recordOffsets[i]);
+			}
+			List<byte[]> values = new ArrayList<byte[]>();
+			List<List<Long>> pointers = new ArrayList<List<Long>>();
+			for (Entry<String, List<Long>> e : index.entrySet()) {
+				values.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+				pointers.add(e.getValue());
+			}
+			keys.add(values);
+			entries.add(pointers);
+
+			indexOffsets[key.ordinal()] = offset;
+			offset += 4 + 8 * values.size();
+			for (int i = 0; i < values.size(); i++) {
+				offset += 4 + values.get(i).length + 4 + 8 * pointers.get(i).size();
+			}
+		}
+
+		File index = getIndexFile(file);
+		File temp = new File(index.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			for (long indexOffset : indexOffsets) {
+				out.writeLong(indexOffset);
+			}
+			out.writeInt(signed.length);
+			out.write(signed);
+			for (byte[] record : records) {
+				out.writeInt(record.length);
+				out.write(record);
+			}
+			for (Key key : Key.values()) {
+				List<byte[]> values = keys.get(key.ordinal());
+				List<List<Long>> pointers = entries.get(key.ordinal());
+
+				long entryOffset = indexOffsets[key.ordinal()] + 4 + 8 * values.size();
+				out.writeInt(values.size());
+				for (int i = 0; i < values.size(); i++) {
+					out.writeLong(entryOffset);
+					entryOffset += 4 + values.get(i).length + 4 + 8 * pointers.get(i).size();
+				}
+				for (int i = 0; i < values.size(); i++) {
+					out.writeInt(values.get(i).length);
+					out.write(values.get(i));
+					out.writeInt(pointers.get(i).size());
+					for (Long pointer : pointers.get(i)) {
+						out.writeLong(pointer);
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		index.delete();
+		if (!temp.setLastModified(file.lastModified()) || !temp.renameTo(index)) {
+			temp.delete();
+			throw new IOException("Unable to write " + index);
+		}
+	}
+
+	/**
+	 * Look rows of the view of an instance of ocean up
+	 *
+	 * @param file
+	 *            physical file of an instance of ocean
+	 * @param key
+	 *            the index to search
+	 * @param value
+	 *            location, committer (local name) or commit (local name)
+	 * @return json of the matching rows (in order of datetime)
+	 * @throws IOException
+	 *             if it fails to read the indexes
+	 */
+	public static List<String> lookup(File file, Key key, String value) throws IOException {
+		List<String> rows = new ArrayList<String>();
+
+		RandomAccessFile in = new RandomAccessFile(getIndexFile(file), "r");
+		try {
+			if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT)) {
+				throw new IOException("Unknown format of index: " + getIndexFile(file));
+			}
+			in.seek(8 + 8 * key.ordinal());
+			long indexOffset = in.readLong();
+			in.seek(indexOffset);
+			int low = 0;
+			int high = in.readInt() - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				in.seek(indexOffset + 4 + 8 * mid);
+				in.seek(in.readLong());
+				int comparison = readString(in).compareTo(value);
+				if (comparison < 0) {
+					low = mid + 1;
+				} else if (comparison > 0) {
+					high = mid - 1;
+				} else {
+					long[] pointers = new long[in.readInt()];
+					for (int i = 0; i < pointers.length; i++) {
+						pointers[i] = in.readLong();
+					}
+					for (long pointer : pointers) {
+						in.seek(pointer);
+						rows.add(readString(in));
+					}
+					break;
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		return rows;
+	}
+
+	private static String readString(RandomAccessFile in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String toJson(ViewRow row) {
+		List<String> types = new ArrayList<String>();
+		for (Node type : row.getTypes()) {
+			// only types of smells, not owl:Thing, owl:NamedIndividual...
+			if (type.isURI() && type.getURI().startsWith(OntosIRI.SMELLS_IRI.getIri() + "#")) {
+				types.add(type.getLocalName());
+			}
+		}
+		List<String> refactorings = new ArrayList<String>();
+		for (Node refactoring : row.getRefactorings()) {
+			refactorings.add(refactoring.getLocalName());
+		}
+
+		return "{\"smell\" : \"" + escape(row.getCodesmell().getLocalName()) + "\", \"types\" : " + toJson(types)
+				+ ", \"committer\" : \"" + escape(row.getCommitter().getLocalName()) + "\", \"commit\" : \""
+				+ escape(row.getCommit().getLocalName()) + "\", \"datetime\" : \""
+				+ escape(row.getDatetime().getLiteralLexicalForm()) + "\", \"location\" : \""
+				+ escape(row.getLocation().getLiteralLexicalForm()) + "\", \"refactorings\" : "
+				+ toJson(refactorings) + "}";
+	}
+
+	private static String toJson(List<String> values) {
+		StringBuilder json = new StringBuilder("[");
+		for (String value : values) {
+			json.append((json.length() > 1) ? ", " : "").append("\"").append(escape(value)).append("\"");
+		}
+
+		return json.append("]").toString();
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+}
@@ -0,0 +1,85 @@
+package br.org.resys.adapter.view;
+
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+
+/**
+ * A row of a {@link MaterializedView}
+ * <p>
+ * Each row is a smell introduced by a commit, i.e., a solution of
+ * {@link br.org.resys.en.Sparqls#SPARQL_COMMITTED_SMELLS}, along with
+ * everything the exports need to know about the smell: its types, the
+ * refactorings recommended for it and the correlations of the efforts that
+ * contextualize its recommendations. Lists keep the multiplicity the smell's
+ * triples would produce in a SPARQL join.
+ *
+ * @author Luis Paulo
+ */
+public class ViewRow {
+
+	private Node committer;
+	private Node commit;
+	private Node datetime;
+	private Node codesmell;
+	private Node location;
+	private List<Node> types;
+	private List<Node> refactorings;
+	private List<Node> correlations;
+
+	public ViewRow(Node committer, Node commit, Node datetime, Node codesmell, Node location, List<Node> types,
+			List<Node> refactorings, List<Node> correlations) {
+		this.committer = committer;
+		this.commit = commit;
+		this.datetime = datetime;
+		this.codesmell = codesmell;
+		this.location = location;
+		this.types = types;
+		this.refactorings = refactorings;
+		this.correlations = correlations;
+	}
+
+	public Node getCommitter() {
+		return committer;
+	}
+
+	public Node getCommit() {
+		return commit;
+	}
+
+	public Node getDatetime() {
+		return datetime;
+	}
+
+	public Node getCodesmell() {
+		return codesmell;
+	}
+
+	public Node getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return all types of the smell (including inferred ones)
+	 */
+	public List<Node> getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return refactorings recommended for the smell
+	 */
+	public List<Node> getRefactorings() {
+		return refactorings;
+	}
+
+	/**
+	 * @return correlations of the efforts that contextualize the
+	 *         recommendations of the smell (one per recommendation --> effort
+	 *         --> correlation path)
+	 */
+	public List<Node> getCorrelations() {
+		return correlations;
+	}
+
+}
@@ -1,7 +1,29 @@
 package br.org.resys.en;
 
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.TransformCopy;
+import org.apache.jena.sparql.algebra.Transformer;
+import org.apache.jena.sparql.algebra.op.OpOrder;
+
 /**
  * Enumeration of all sparqls used to extract data from our ontologies.
+ * <p>
+ * Each statement is parsed and compiled into an optimized algebra expression
+ * only once, the first time it is executed. Statements do not embed the values
+ * of their parameters (e.g. ?correlation), which are bound at execution time
+ * instead (see
+ * {@link br.org.resys.adapter.ISparqlProcessingAdapter#getParameters()}).
+ * <p>
+ * "_BY_MONTH" statements aggregate their non-aggregated counterparts: rows are
+ * counted by month (?month, "yyyy-MM") and refactoring (?qt) in the engine,
+ * in order of their first occurrence (?first).
+ * <p>
+ * Statements are also compiled without their ORDER BY, to be streamed to
+ * adapters that do not depend on the order of the rows (see
+ * {@link br.org.resys.adapter.IStreamingAdapter}).
  * 
  * @author Luis Paulo
  */
@@ -56,10 +78,65 @@ public enum Sparqls {
 			"?recommendation ocean:hasRecommendedFor ?codesmell . \n" +
 			"?recommendation osore:contextualizedBy ?effort . \n" +
 			"?effort osore:correlation ?corr . \n" +
-			"FILTER (?corr >= #correlation#) . \n" +
+			"FILTER (?corr >= ?correlation) . \n" +
+			"} ORDER BY ?datetime"),
+	SPARQL_INCIDENCE_OF_REFACTORINGS_BY_MONTH("PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> \n" +
+			"PREFIX owl: <http://www.w3.org/2002/07/owl#> \n" + 
+			"PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> \n" +
+			"PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> \n" +
+			"PREFIX ocean: <http://www.semanticweb.org/resys/ontologies/2016/2/ocean#> \n" +
+			"PREFIX repo: <http://www.semanticweb.org/resys/ontologies/2016/1/repositories#> \n" +
+			"PREFIX smells: <http://www.semanticweb.org/resys/ontologies/2016/1/codesmells#> \n" +
+			"PREFIX osore: <http://www.semanticweb.org/resys/ontologies/2017/4/osore#> \n" +
+			"SELECT ?month ?refactoring (COUNT(*) AS ?qt) (MIN(?datetime) AS ?first) \n" +
+			"WHERE { \n" +
+			"?committer repo:hasCommited ?commit . \n" +
+			"?commit repo:datetime ?datetime . \n" +
+			"?commit ocean:hasIntroduced ?codesmell . \n" +
+			"?codesmell ocean:foundIn ?location . \n" +
+			"?codesmell ocean:refactoredBy ?refactoring . \n" +
+			"BIND (SUBSTR(STR(?datetime), 1, 7) AS ?month) . \n" +
+			"} GROUP BY ?month ?refactoring ORDER BY ?month ?first"),
+	SPARQL_EFFORT_CONTEXTUALIZED_INCIDENCE_OF_REFACTORINGS_BY_MONTH("PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> \n" +
+			"PREFIX owl: <http://www.w3.org/2002/07/owl#> \n" + 
+			"PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> \n" +
+			"PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> \n" +
+			"PREFIX ocean: <http://www.semanticweb.org/resys/ontologies/2016/2/ocean#> \n" +
+			"PREFIX repo: <http://www.semanticweb.org/resys/ontologies/2016/1/repositories#> \n" +
+			"PREFIX smells: <http://www.semanticweb.org/resys/ontologies/2016/1/codesmells#> \n" +
+			"PREFIX osore: <http://www.semanticweb.org/resys/ontologies/2017/4/osore#> \n" +
+			"SELECT ?month ?refactoring (COUNT(*) AS ?qt) (MIN(?datetime) AS ?first) \n" +
+			"WHERE { \n" +
+			"?committer repo:hasCommited ?commit . \n" +
+			"?commit repo:datetime ?datetime . \n" +
+			"?commit ocean:hasIntroduced ?codesmell . \n" +
+			"?codesmell ocean:foundIn ?location . \n" +
+			"?codesmell ocean:refactoredBy ?refactoring . \n" +
+			"?recommendation ocean:hasRecommendedFor ?codesmell . \n" +
+			"?recommendation osore:contextualizedBy ?effort . \n" +
+			"?effort osore:correlation ?corr . \n" +
+			"FILTER (?corr >= ?correlation) . \n" +
+			"BIND (SUBSTR(STR(?datetime), 1, 7) AS ?month) . \n" +
+			"} GROUP BY ?month ?refactoring ORDER BY ?month ?first"),
+	SPARQL_COMMITTED_SMELLS("PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> \n" +
+			"PREFIX owl: <http://www.w3.org/2002/07/owl#> \n" + 
+			"PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> \n" +
+			"PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> \n" +
+			"PREFIX ocean: <http://www.semanticweb.org/resys/ontologies/2016/2/ocean#> \n" +
+			"PREFIX repo: <http://www.semanticweb.org/resys/ontologies/2016/1/repositories#> \n" +
+			"SELECT ?committer ?commit ?datetime ?codesmell ?location \n" +
+			"WHERE { \n" +
+			"?committer repo:hasCommited ?commit . \n" +
+			"?commit repo:datetime ?datetime . \n" +
+			"?commit ocean:hasIntroduced ?codesmell . \n" +
+			"?codesmell ocean:foundIn ?location . \n" +
 			"} ORDER BY ?datetime");
 	
 	private String statement;
+	private Query query;
+	private Op op;
+	private Query unorderedQuery;
+	private Op unorderedOp;
 
 	private Sparqls(String statement) {
 		this.statement = statement;
@@ -69,4 +146,92 @@ public enum Sparqls {
 		return statement;
 	}
 
+	/**
+	 * @return the parsed statement (shared, it must not be modified)
+	 */
+	public synchronized Query getQuery() {
+		if (query == null) {
+			query = QueryFactory.create(statement);
+		}
+
+		return query;
+	}
+
+	/**
+	 * @return the optimized algebra expression of the statement (shared)
+	 */
+	public synchronized Op getOp() {
+		if (op == null) {
+			op = compile(getQuery());
+		}
+
+		return op;
+	}
+
+	/**
+	 * @return the parsed statement without its ORDER BY (shared, it must not
+	 *         be modified)
+	 */
+	public synchronized Query getUnorderedQuery() {
+		if (unorderedQuery == null) {
+			unorderedQuery = QueryFactory.create(statement);
+			if (unorderedQuery.hasOrderBy()) {
+				unorderedQuery.getOrderBy().clear();
+			}
+		}
+
+		return unorderedQuery;
+	}
+
+	/**
+	 * @return the optimized algebra expression of the statement without its
+	 *         ORDER BY (shared)
+	 */
+	public synchronized Op getUnorderedOp() {
+		if (unorderedOp == null) {
+			unorderedOp = compile(getUnorderedQuery());
+		}
+
+		return unorderedOp;
+	}
+
+	/**
+	 * Compile a statement into an optimized algebra expression
+	 * <p>
+	 * A cleared ORDER BY (see {@link #getUnorderedQuery()}) is still compiled
+	 * into a sort without conditions, which would materialize every row. Such
+	 * sorts are dropped.
+	 * 
+	 * @param query
+	 *            a parsed statement
+	 * @return the optimized algebra expression
+	 */
+	public static Op compile(Query query) {
+		Op op = Transformer.transform(new TransformCopy() {
+			@Override
+			public Op transform(OpOrder opOrder, Op subOp) {
+				return opOrder.getConditions().isEmpty() ? subOp : super.transform(opOrder, subOp);
+			}
+		}, Algebra.compile(query));
+
+		return Algebra.optimize(op);
+	}
+
+	/**
+	 * Find the enumerated sparql of a statement
+	 * 
+	 * @param statement
+	 *            a sparql statement
+	 * @return the enumerated sparql or null if the statement is not enumerated
+	 */
+	public static Sparqls of(String statement) {
+		for (Sparqls sparql : values()) {
+			if (sparql.statement.equals(statement)) {
+				return sparql;
+			}
+		}
+
+		return null;
+	}
+
 }
@@ -0,0 +1,86 @@
+package br.org.resys.rre.connector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+import br.org.resys.en.Smells;
+import br.org.resys.rre.IRefactoring;
+
+/**
+ * Immutable catalog of refactorings mined from a version of osore
+ * <p>
+ * Catalogs are never changed once they are loaded. When osore changes, a new
+ * catalog is loaded and replaces the previous one in {@link OsoreConnector}.
+ * Recommendations that hold the previous catalog keep using it until they
+ * finish.
+ *
+ * @author Luis Paulo
+ */
+public class Catalog {
+
+	private String version;
+	private Map<Smells, List<IRefactoring>> refactorings;
+
+	/**
+	 * @param version
+	 *            version of the catalog (hash of osore's content)
+	 * @param refactorings
+	 *            mapping of refactorings per smell
+	 */
+	public Catalog(String version, Map<Smells, List<IRefactoring>> refactorings) {
+		Map<Smells, List<IRefactoring>> copy = new HashMap<Smells, List<IRefactoring>>();
+		for (Entry<Smells, List<IRefactoring>> e : refactorings.entrySet()) {
+			copy.put(e.getKey(), Collections.unmodifiableList(new ArrayList<IRefactoring>(e.getValue())));
+		}
+
+		this.version = version;
+		this.refactorings = Collections.unmodifiableMap(copy);
+	}
+
+	/**
+	 * @return version of the catalog (hash of osore's content)
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return (read-only) mapping of refactorings per smell
+	 */
+	public Map<Smells, List<IRefactoring>> getRefactorings() {
+		return refactorings;
+	}
+
+	/**
+	 * Recommend a list of refactorings for a given mapping of smells and its
+	 * ontological instances (individuals)
+	 * 
+	 * @param smells
+	 *            mapping of smells and their respective ontological instances
+	 * @return a mapping between ontological instances of smells and
+	 *         refactorings
+	 * @see OsoreConnector#recommendRefactorings(Map)
+	 */
+	public Map<OWLNamedIndividual, List<IRefactoring>> recommendRefactorings(
+			Map<Smells, List<OWLNamedIndividual>> smells) {
+		Map<OWLNamedIndividual, List<IRefactoring>> refacs = new HashMap<OWLNamedIndividual, List<IRefactoring>>();
+
+		for (Entry<Smells, List<OWLNamedIndividual>> e : smells.entrySet()) {
+			Smells smell = e.getKey();
+
+			List<OWLNamedIndividual> smellInds = e.getValue();
+			for (OWLNamedIndividual smellInd : smellInds) {
+				refacs.put(smellInd, refactorings.get(smell));
+			}
+		}
+
+		return refacs;
+	}
+
+}
@@ -0,0 +1,238 @@
+package br.org.resys.rre.connector;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+
+import br.org.resys.en.Smells;
+import br.org.resys.rre.IRefactoring;
+import br.org.resys.rre.ITemplate;
+import br.org.resys.rre.impl.LazyTemplate;
+import br.org.resys.rre.impl.Refactoring;
+
+/**
+ * Binary snapshot of the catalog of refactorings mined from osore
+ * <p>
+ * Mining the catalog requires parsing osore and running a reasoner over it,
+ * which dominates the startup of the service. {@link OsoreConnector} thus
+ * saves the mined catalog (refactorings per smell) in a snapshot, which is
+ * read instead of osore as long as the version of the catalog (the hash of
+ * osore's content) does not change.
+ * <p>
+ * Format (all strings as length-prefixed UTF-8):
+ * <ul>
+ * <li>header: magic number, format version and catalog version</li>
+ * <li>refactorings: acronym, IRI, name, description and the offset of the
+ * template (-1 if there is none)</li>
+ * <li>smells: name and indexes of their refactorings</li>
+ * <li>templates: "before" and "after" samples</li>
+ * </ul>
+ * Templates are read lazily, only when they are accessed (see
+ * {@link LazyTemplate}).
+ *
+ * @author Luis Paulo
+ */
+public class CatalogSnapshot {
+	private static final int MAGIC = 0x52535953;
+	private static final int FORMAT = 1;
+
+	/**
+	 * Save a catalog of refactorings
+	 * <p>
+	 * The snapshot is written into a temporary file which replaces the previous
+	 * snapshot at the end.
+	 *
+	 * @param file
+	 *            the snapshot's file
+	 * @param version
+	 *            version of the catalog
+	 * @param refactorings
+	 *            the catalog (refactorings per smell)
+	 * @throws IOException
+	 *             if it fails to write the snapshot
+	 */
+	public static void write(File file, String version, Map<Smells, List<IRefactoring>> refactorings)
+			throws IOException {
+		// refactorings may be mapped to several smells, they are written once
+		Map<IRefactoring, Integer> indexes = new IdentityHashMap<IRefactoring, Integer>();
+		List<IRefactoring> distinct = new ArrayList<IRefactoring>();
+		for (List<IRefactoring> refacs : refactorings.values()) {
+			for (IRefactoring refactoring : refacs) {
+				if (!indexes.containsKey(refactoring)) {
+					indexes.put(refactoring, distinct.size());
+					distinct.add(refactoring);
+				}
+			}
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		try {
+			out.setLength(0);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			writeString(out, version);
+			// the offsets of the templates are written as the templates are
+			out.writeInt(distinct.size());
+			long[] templateOffsetPositions = new long[distinct.size()];
+			for (int i = 0; i < distinct.size(); i++) {
+				IRefactoring refactoring = distinct.get(i);
+				writeString(out, refactoring.getAcronym());
+				writeString(out, (refactoring.getOwlRefactoring() == null) ? null
+						: refactoring.getOwlRefactoring().getIRI().toString());
+				writeString(out, refactoring.getName());
+				writeString(out, refactoring.getDescription());
+				templateOffsetPositions[i] = out.getFilePointer();
+				out.writeLong(-1);
+			}
+			out.writeInt(refactorings.size());
+			for (Entry<Smells, List<IRefactoring>> e : refactorings.entrySet()) {
+				writeString(out, e.getKey().name());
+				out.writeInt(e.getValue().size());
+				for (IRefactoring refactoring : e.getValue()) {
+					out.writeInt(indexes.get(refactoring));
+				}
+			}
+			for (int i = 0; i < distinct.size(); i++) {
+				ITemplate template = distinct.get(i).getTemplate();
+				if (template != null) {
+					long offset = out.getFilePointer();
+					writeString(out, template.getBefore());
+					writeString(out, template.getAfter());
+					long end = out.getFilePointer();
+
+					out.seek(templateOffsetPositions[i]);
+					out.writeLong(offset);
+					out.seek(end);
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		file.delete();
+		if (!temp.renameTo(file)) {
+			throw new IOException("Unable to move " + temp + " to " + file);
+		}
+	}
+
+	/**
+	 * Load a catalog of refactorings
+	 *
+	 * @param file
+	 *            the snapshot's file
+	 * @param version
+	 *            expected version of the catalog
+	 * @return the catalog (refactorings per smell) or null if there is no
+	 *         snapshot of the given version
+	 * @throws IOException
+	 *             if it fails to read the snapshot
+	 */
+	public static Map<Smells, List<IRefactoring>> read(final File file, final String version) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (!readHeader(in, version)) {
+				return null;
+			}
+			// a plain factory (OWLManager would set up all of OWL API's modules)
+			OWLDataFactory factory = new OWLDataFactoryImpl();
+			List<IRefactoring> distinct = new ArrayList<IRefactoring>();
+			int numOfRefactorings = in.readInt();
+			for (int i = 0; i < numOfRefactorings; i++) {
+				Refactoring refactoring = new Refactoring();
+				refactoring.setAcronym(readString(in));
+				String iri = readString(in);
+				if (iri != null) {
+					refactoring.setOwlRefactoring(factory.getOWLNamedIndividual(IRI.create(iri)));
+				}
+				refactoring.setName(readString(in));
+				refactoring.setDescription(readString(in));
+				final long offset = in.readLong();
+				if (offset != -1) {
+					refactoring.setTemplate(new LazyTemplate(() -> readTemplate(file, version, offset)));
+				}
+				distinct.add(refactoring);
+			}
+
+			Map<Smells, List<IRefactoring>> refactorings = new HashMap<Smells, List<IRefactoring>>();
+			int numOfSmells = in.readInt();
+			for (int i = 0; i < numOfSmells; i++) {
+				Smells smell = Smells.valueOf(readString(in));
+				int numOfRefacs = in.readInt();
+				List<IRefactoring> refacs = new ArrayList<IRefactoring>();
+				for (int j = 0; j < numOfRefacs; j++) {
+					refacs.add(distinct.get(in.readInt()));
+				}
+				refactorings.put(smell, refacs);
+			}
+
+			return refactorings;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the samples of a template. The snapshot must not have changed since
+	 * the catalog was read.
+	 */
+	private static String[] readTemplate(File file, String version, long offset) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (!readHeader(in, version)) {
+				throw new IOException("Snapshot " + file + " has changed");
+			}
+			in.seek(offset);
+
+			return new String[] { readString(in), readString(in) };
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean readHeader(DataInput in, String version) throws IOException {
+		return (in.readInt() == MAGIC) && (in.readInt() == FORMAT) && version.equals(readString(in));
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
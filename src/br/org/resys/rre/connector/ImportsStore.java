@@ -0,0 +1,135 @@
+package br.org.resys.rre.connector;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.parameters.OntologyCopy;
+
+/**
+ * Process-wide store of the ontologies imported by ocean
+ * <p>
+ * Every recommendation creates its own {@link OWLOntologyManager} (see
+ * {@link OceanConnector}) which, in turn, used to parse metrics, codesmells
+ * and repositories again. This store parses them once and hands shallow
+ * copies to the per-request managers. Shallow copies share the (immutable)
+ * axioms of the stored ontologies, so nothing is parsed again. As the copies
+ * are already present in the managers, they are not loaded again when ocean
+ * declares its imports.
+ * <p>
+ * The stored ontologies are never changed. If their files change, they are
+ * reloaded by {@link #refresh()}.
+ *
+ * @author Luis Paulo
+ */
+public class ImportsStore {
+	private static ImportsStore instance;
+
+	/**
+	 * @return singleton instance of the store
+	 */
+	public static synchronized ImportsStore getInstance() {
+		if (instance == null) {
+			instance = new ImportsStore();
+		}
+
+		return instance;
+	}
+
+	private static final String[] FILES = { "metrics.owl", "codesmells.owl", "repositories.owl" };
+
+	private String path;
+	private long[] modified;
+	private List<OWLOntology> ontologies;
+
+	/**
+	 * Initialization routine. The ontologies are loaded only if they have not
+	 * been loaded from the same path before or if their files have changed.
+	 *
+	 * @param path
+	 *            the path where the ontologies are stored (ontos output path)
+	 * @return instance of #ImportsStore
+	 * @throws OWLOntologyCreationException
+	 *             if it fails to load the ontologies
+	 */
+	public synchronized ImportsStore init(String path) throws OWLOntologyCreationException {
+		if (!path.equals(this.path)) {
+			this.path = path;
+			this.ontologies = null;
+		}
+		if ((ontologies == null) || isStale()) {
+			refresh();
+		}
+
+		return this;
+	}
+
+	/**
+	 * (Re)load all imported ontologies
+	 * <p>
+	 * Managers that have received copies of the previous ontologies keep using
+	 * them. Only the managers created from now on will receive the new ones.
+	 *
+	 * @return instance of #ImportsStore
+	 * @throws OWLOntologyCreationException
+	 *             if it fails to load the ontologies
+	 */
+	public synchronized ImportsStore refresh() throws OWLOntologyCreationException {
+		OWLOntologyManager manager = OWLManager.createConcurrentOWLOntologyManager();
+		List<OWLOntology> loaded = new ArrayList<OWLOntology>();
+		long[] loadedModified = new long[FILES.length];
+		for (int i = 0; i < FILES.length; i++) {
+			File file = new File(path + "/" + FILES[i]);
+			loadedModified[i] = file.lastModified();
+
+			loaded.add(manager.loadOntologyFromOntologyDocument(file));
+		}
+		System.out.println("Imports loaded from: " + path);
+
+		ontologies = loaded;
+		modified = loadedModified;
+
+		return this;
+	}
+
+	/**
+	 * Verify if any of the ontologies has changed since they were loaded
+	 *
+	 * @return true if the ontologies must be reloaded
+	 */
+	public synchronized boolean isStale() {
+		for (int i = 0; i < FILES.length; i++) {
+			if (new File(path + "/" + FILES[i]).lastModified() != modified[i]) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Add (shallow copies of) the imported ontologies to a manager
+	 *
+	 * @param manager
+	 *            the manager that is going to load an instance of ocean
+	 * @return instance of #ImportsStore
+	 * @throws OWLOntologyCreationException
+	 *             if it fails to copy the ontologies
+	 */
+	public ImportsStore shareWith(OWLOntologyManager manager) throws OWLOntologyCreationException {
+		List<OWLOntology> shared;
+		synchronized (this) {
+			shared = ontologies;
+		}
+		for (OWLOntology ontology : shared) {
+			manager.copyOntology(ontology, OntologyCopy.SHALLOW);
+		}
+
+		return this;
+	}
+
+}
@@ -54,6 +54,8 @@ import org.semanticweb.owlapi.util.SimpleIRIMapper;
 
 import com.google.common.collect.Table;
 
+import br.org.resys.adapter.connector.BinaryRdf;
+import br.org.resys.adapter.connector.TdbStore;
 import br.org.resys.en.OntosIRI;
 import br.org.resys.en.Smells;
 import br.org.resys.rre.IRefactoring;
@@ -91,6 +93,8 @@ public class OceanConnector {
 	private OWLObjectProperty recommendedForProp;
 
 	private String inputPath, outputPath;
+	private String replica;
+	private TdbStore store;
 
 	/**
 	 * Initialization routine. It must be executed first, prior to manipulating
@@ -105,11 +109,16 @@ public class OceanConnector {
 	 * @return instance of #OceanConnector
 	 * @throws MalformedURLException
 	 *             if urls are malformed and ontologies cannot be found
+	 * @throws OWLOntologyCreationException
+	 *             if it fails to load the imported ontologies
 	 */
-	public OceanConnector init(Properties properties) throws MalformedURLException {
+	public OceanConnector init(Properties properties) throws MalformedURLException, OWLOntologyCreationException {
 		// configure urls & paths
 		inputPath = properties.getProperty("ontos.input.path");
 		outputPath = properties.getProperty("ontos.output.path");
+		// recommendations are also written into the persistent store (if any)
+		store = "tdb".equals(properties.getProperty("sparql.store", "memory")) ? TdbStore.getInstance(outputPath)
+				: null;
 
 		String metricsUrl = "file://" + outputPath + "/metrics.owl";
 		String codesmellsUrl = "file://" + outputPath + "/codesmells.owl";
@@ -126,6 +135,9 @@ public class OceanConnector {
 		manager.getIRIMappers().add(new SimpleIRIMapper(repositoriesIRI, repositoriesLocation));
 		manager.getIRIMappers().add(new SimpleIRIMapper(codesmellsIRI, codesmellsLocation));
 		manager.getIRIMappers().add(new SimpleIRIMapper(metricsIRI, metricsLocation));
+		// the referenced ontologies are parsed only once, the manager receives
+		// copies of them (mappers are kept as a fallback)
+		ImportsStore.getInstance().init(outputPath).shareWith(manager);
 
 		return this;
 	}
@@ -157,6 +169,7 @@ public class OceanConnector {
 
 		System.out.println("Reading smells from: " + url + "...");
 		ocean = manager.loadOntology(oceanLocation);
+		replica = newOnto;
 
 		return newOnto;
 	}
@@ -331,7 +344,11 @@ public class OceanConnector {
 	 * respective refactoring techniques.
 	 * <p>
 	 * As a result, a new instance of ocean, in which refactorings are bound to
-	 * smells, is generated.
+	 * smells, is generated. If a persistent store is configured, the new
+	 * instance is also ingested into it. A binary copy of the new instance is
+	 * written as well (see {@link BinaryRdf}), so exports do not parse it
+	 * again. Its materialized view and its entailments are built by the first
+	 * export that needs them, not here.
 	 * 
 	 * @param refactorings
 	 *            a mapping between ontological instances of smells and
@@ -339,10 +356,13 @@ public class OceanConnector {
 	 *            {@link OsoreConnector#recommendRefactorings(Map)}
 	 * @return instance of #OceanConnector
 	 * @throws OWLOntologyStorageException
+	 * @throws IOException
+	 *             if it fails to transcode the new instance or to ingest it
+	 *             into the store
 	 */
 	@SuppressWarnings("deprecation")
 	public OceanConnector saveRefactorings(Map<OWLNamedIndividual, List<IRefactoring>> refactorings)
-			throws OWLOntologyStorageException {
+			throws OWLOntologyStorageException, IOException {
 		// add osore as a new import in ocean
 		OWLImportsDeclaration importDeclaration = factory
 				.getOWLImportsDeclaration(IRI.create(OntosIRI.OSORE_IRI.getIri()));
@@ -374,6 +394,10 @@ public class OceanConnector {
 		OWLDocumentFormat format = new RDFXMLDocumentFormat();
 		manager.saveOntology(ocean, format);
 		System.out.println(numOfRefactorings + " refactorings recommended!");
+		BinaryRdf.transcode(new File(outputPath + "/" + replica));
+		if (store != null) {
+			store.ingest(replica);
+		}
 
 		return this;
 	}
@@ -1,5 +1,7 @@
 package br.org.resys.rre.connector;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -9,6 +11,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.IRI;
@@ -25,6 +31,9 @@ import org.semanticweb.owlapi.reasoner.OWLReasoner;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
 import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
 
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
 import br.org.resys.en.Smells;
 import br.org.resys.rre.IRefactoring;
 import br.org.resys.rre.ITemplate;
@@ -59,11 +68,16 @@ public class OsoreConnector {
 		return instance;
 	}
 
-	// pool of refactorings (refactorings per smell)
-	private Map<Smells, List<IRefactoring>> refactorings;
+	// current catalog of refactorings (refactorings per smell)
+	private AtomicReference<Catalog> catalog = new AtomicReference<Catalog>();
+	private Properties properties;
+	// catalogs are reloaded in the background, one at a time
+	private ExecutorService reloader = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "osore-reloader");
+		thread.setDaemon(true);
 
-	private OWLOntologyManager manager;
-	private OWLOntology osore;
+		return thread;
+	});
 
 	/**
 	 * Initialization routine. It must be executed first, prior to manipulating
@@ -71,27 +85,131 @@ public class OsoreConnector {
 	 * <p>
 	 * Property file must be (re)configured to meet specific osore referenced
 	 * path+file.
+	 * <p>
+	 * The refactorings mined from osore are saved in a {@link CatalogSnapshot}
+	 * ("osore.snapshot.path", by default "osore.snapshot" next to osore). As
+	 * long as osore does not change, further initializations read the snapshot
+	 * instead of parsing osore again.
 	 * 
 	 * @param properties
 	 *            props to configure osore's path+file.
 	 * @return instance of #OsoreConnector
 	 * @throws MalformedURLException
 	 *             if urls are malformed and ontologies cannot be found.
+	 * @throws IOException
+	 *             if it fails to read osore's physical file
+	 */
+	public OsoreConnector init(Properties properties)
+			throws MalformedURLException, OWLOntologyCreationException, IOException {
+		this.properties = properties;
+		catalog.set(loadCatalog(properties));
+
+		return this;
+	}
+
+	/**
+	 * Reload the catalog of refactorings in the background
+	 * <p>
+	 * The new catalog replaces the current one once it is completely loaded.
+	 * Recommendations that are running meanwhile keep using the current
+	 * catalog. The catalog is not replaced if osore has not changed.
+	 * 
+	 * @return the catalog that will be in use after the reload
+	 */
+	public Future<Catalog> reload() {
+		return reloader.submit(() -> {
+			Catalog current = catalog.get();
+			String version = getVersion(properties);
+			if ((current != null) && current.getVersion().equals(version)) {
+				return current;
+			}
+			Catalog loaded = loadCatalog(properties);
+			catalog.set(loaded);
+			System.out.println("Refactorings reloaded, catalog version: " + loaded.getVersion());
+
+			return loaded;
+		});
+	}
+
+	/**
+	 * @return the catalog of refactorings currently in use
+	 */
+	public Catalog getCatalog() {
+		return catalog.get();
+	}
+
+	/**
+	 * @return version of the catalog of refactorings currently in use (hash
+	 *         of osore's content)
+	 */
+	public String getCatalogVersion() {
+		return catalog.get().getVersion();
+	}
+
+	/**
+	 * @param properties
+	 *            props to configure osore's path+file.
+	 * @return version of osore's current content
+	 * @throws IOException
+	 *             if it fails to read osore's physical file
+	 */
+	private String getVersion(Properties properties) throws IOException {
+		return Files.asByteSource(new File(properties.getProperty("ontos.osore.path") + "/osore.owl"))
+				.hash(Hashing.sha256()).toString();
+	}
+
+	/**
+	 * Load a new catalog of refactorings, from its snapshot or from osore
+	 * 
+	 * @param properties
+	 *            props to configure osore's path+file.
+	 * @return the catalog
+	 * @throws MalformedURLException
+	 *             if urls are malformed and ontologies cannot be found.
+	 * @throws OWLOntologyCreationException
+	 *             if it fails to load osore
+	 * @throws IOException
+	 *             if it fails to read osore's physical file
 	 */
-	public OsoreConnector init(Properties properties) throws MalformedURLException, OWLOntologyCreationException {
+	private Catalog loadCatalog(Properties properties)
+			throws MalformedURLException, OWLOntologyCreationException, IOException {
 		// where is osore?
 		String url = "file://" + properties.getProperty("ontos.osore.path") + "/osore.owl";
 		System.out.println("Attempting to read OSORE at: " + url);
+		// the version of the catalog is the hash of its content
+		String version = getVersion(properties);
+		// the catalog is taken from its snapshot, unless osore has changed
+		File snapshot = new File(properties.getProperty("osore.snapshot.path",
+				properties.getProperty("ontos.osore.path") + "/osore.snapshot"));
+		Map<Smells, List<IRefactoring>> refactorings = null;
+		try {
+			refactorings = CatalogSnapshot.read(snapshot, version);
+		} catch (IOException e) {
+			System.err.println("Failed to read the snapshot of refactorings!");
+
+			e.printStackTrace();
+		}
+		if (refactorings != null) {
+			System.out.println("Refactorings read from snapshot: " + snapshot);
+
+			return new Catalog(version, refactorings);
+		}
 		// initiate everything
-		refactorings = new HashMap<Smells, List<IRefactoring>>();
-		manager = OWLManager.createOWLOntologyManager();
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
 		IRI osoreLocation = IRI.create(new URL(url));
 		// load osore
-		osore = manager.loadOntology(osoreLocation);
+		OWLOntology osore = manager.loadOntology(osoreLocation);
 		// populate pool of refactorings
-		loadRefactorings();
+		refactorings = loadRefactorings(osore);
+		try {
+			CatalogSnapshot.write(snapshot, version, refactorings);
+		} catch (IOException e) {
+			System.err.println("Failed to write the snapshot of refactorings!");
 
-		return this;
+			e.printStackTrace();
+		}
+
+		return new Catalog(version, refactorings);
 	}
 
 	/**
@@ -104,9 +222,12 @@ public class OsoreConnector {
 	 * instance of {@link Smells}. The resulting mapping will link 1-smell to
 	 * N-refactoring.
 	 * 
-	 * @return instance of #OsoreConnector
+	 * @param osore
+	 *            the ontology
+	 * @return mapping of refactorings per smell
 	 */
-	private OsoreConnector loadRefactorings() {
+	private Map<Smells, List<IRefactoring>> loadRefactorings(OWLOntology osore) {
+		Map<Smells, List<IRefactoring>> refactorings = new HashMap<Smells, List<IRefactoring>>();
 		OWLReasonerFactory reasonerFactory = new StructuralReasonerFactory();
 		// create a new structural reasoner to retrieve refactorings
 		OWLReasoner reasoner = reasonerFactory.createNonBufferingReasoner(osore);
@@ -118,15 +239,15 @@ public class OsoreConnector {
 				for (OWLNamedIndividual owlRefactoring : instances.getFlattened()) {
 					// ...that are transformed into a pair of
 					// 1-smell--->N-refactorings...
-					IRefactoring refactoring = fromOWLRefactoring(owlRefactoring);
+					IRefactoring refactoring = fromOWLRefactoring(osore, owlRefactoring);
 					List<Smells> targSmells = getTargetedSmells(osore.getDataPropertyAssertionAxioms(owlRefactoring));
 					// ...which is added to the refactoring pool
-					addToRefactorings(targSmells, refactoring);
+					addToRefactorings(refactorings, targSmells, refactoring);
 				}
 			}
 		}
 
-		return this;
+		return refactorings;
 	}
 
 	/**
@@ -137,11 +258,13 @@ public class OsoreConnector {
 	 * sample source-code or modeling diagram (usually, a UML class diagram). We
 	 * are mining only source-code-based templates.
 	 * 
+	 * @param osore
+	 *            the ontology
 	 * @param owlTemplate
 	 *            the ontological instance of template extracted from osore.
 	 * @return instance of {@link Template}
 	 */
-	private Template fromOWLTemplate(OWLIndividual owlTemplate) {
+	private Template fromOWLTemplate(OWLOntology osore, OWLIndividual owlTemplate) {
 		Template template = new Template();
 		// retrieve the set of data properties of a template...
 		Set<OWLDataPropertyAssertionAxiom> dataProps = osore.getDataPropertyAssertionAxioms(owlTemplate);
@@ -168,11 +291,13 @@ public class OsoreConnector {
 	 * A refactoring has a name, a description and a template, which shows how
 	 * the refactoring must be applied.
 	 * 
+	 * @param osore
+	 *            the ontology
 	 * @param owlRefactoring
 	 *            the ontological instance of refactoring extracted from osore.
 	 * @return instance of {@link Refactoring}
 	 */
-	private Refactoring fromOWLRefactoring(OWLNamedIndividual owlRefactoring) {
+	private Refactoring fromOWLRefactoring(OWLOntology osore, OWLNamedIndividual owlRefactoring) {
 		Refactoring refactoring = new Refactoring();
 		refactoring.setAcronym(owlRefactoring.getIRI().getRemainder().get());
 		// from a given ontological instance of a refactoring technique...
@@ -196,7 +321,7 @@ public class OsoreConnector {
 			// ...to find the ontological instance of the template that show how
 			// to apply the refactoring
 			if (prop.getProperty().toString().contains("#hasTemplate")) {
-				refactoring.setTemplate(fromOWLTemplate(prop.getObject()));
+				refactoring.setTemplate(fromOWLTemplate(osore, prop.getObject()));
 			}
 		}
 
@@ -242,13 +367,16 @@ public class OsoreConnector {
 	 * used to find them. Important to say: a refactoring can be mapped to more
 	 * than one smell.
 	 * 
+	 * @param refactorings
+	 *            the mapping being loaded
 	 * @param targetedSmells
 	 *            the list of smell which the refactoring is applicable to
 	 * @param refactoring
 	 *            the refactoring that is mapped to the smells
 	 * @return
 	 */
-	private OsoreConnector addToRefactorings(List<Smells> targetedSmells, IRefactoring refactoring) {
+	private OsoreConnector addToRefactorings(Map<Smells, List<IRefactoring>> refactorings,
+			List<Smells> targetedSmells, IRefactoring refactoring) {
 		// considering each smell in the list of targeted smells...
 		for (Smells smell : targetedSmells) {
 			// ...if the pool already contains the smell...
@@ -279,6 +407,10 @@ public class OsoreConnector {
 	 * {@link OceanConnector} to their correspondent {@link Smells}. For each
 	 * instance a list of refactorings is provided to be stored in a new
 	 * instance of ocean.
+	 * <p>
+	 * Refactorings are taken from the catalog currently in use. To know which
+	 * catalog has been used, call {@link Catalog#recommendRefactorings(Map)}
+	 * on {@link #getCatalog()} instead.
 	 * 
 	 * @param smells
 	 *            mapping of smells and their respective ontological instances
@@ -287,18 +419,7 @@ public class OsoreConnector {
 	 */
 	public Map<OWLNamedIndividual, List<IRefactoring>> recommendRefactorings(
 			Map<Smells, List<OWLNamedIndividual>> smells) {
-		Map<OWLNamedIndividual, List<IRefactoring>> refacs = new HashMap<OWLNamedIndividual, List<IRefactoring>>();
-
-		for (Entry<Smells, List<OWLNamedIndividual>> e : smells.entrySet()) {
-			Smells smell = e.getKey();
-
-			List<OWLNamedIndividual> smellInds = e.getValue();
-			for (OWLNamedIndividual smellInd : smellInds) {
-				refacs.put(smellInd, refactorings.get(smell));
-			}
-		}
-
-		return refacs;
+		return catalog.get().recommendRefactorings(smells);
 	}
 
 	/**
@@ -307,7 +428,7 @@ public class OsoreConnector {
 	 * @return instance of #OsoreConnector
 	 */
 	public OsoreConnector printRefactorings() {
-		for (Entry<Smells, List<IRefactoring>> e : refactorings.entrySet()) {
+		for (Entry<Smells, List<IRefactoring>> e : catalog.get().getRefactorings().entrySet()) {
 			System.out.println(e.getKey().getLabel() + " --> " + e.getValue());
 		}
 		
@@ -0,0 +1,87 @@
+package br.org.resys.rre.impl;
+
+import java.io.IOException;
+
+import br.org.resys.rre.ITemplate;
+
+/**
+ * @see ITemplate
+ *      <p>
+ *      A template whose "before" and "after" samples are only read when they
+ *      are accessed for the first time. Samples are, by far, the largest part
+ *      of a refactoring, and most of them are never displayed.
+ *
+ * @author Luis Paulo
+ */
+public class LazyTemplate implements ITemplate {
+
+	/**
+	 * Reader of the samples of a template
+	 */
+	public interface Loader {
+
+		/**
+		 * @return "before" and "after" samples (in this order)
+		 * @throws IOException
+		 *             if it fails to read the samples
+		 */
+		public String[] load() throws IOException;
+
+	}
+
+	private Loader loader;
+	private Template template;
+
+	/**
+	 * @param loader
+	 *            reader of the template's samples
+	 */
+	public LazyTemplate(Loader loader) {
+		this.loader = loader;
+	}
+
+	private synchronized Template getTemplate() {
+		if (template == null) {
+			try {
+				String[] samples = loader.load();
+				template = new Template();
+				template.setBefore(samples[0]);
+				template.setAfter(samples[1]);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to load template", e);
+			}
+		}
+
+		return template;
+	}
+
+	@Override
+	public ITemplate setBefore(String before) {
+		getTemplate().setBefore(before);
+
+		return this;
+	}
+
+	@Override
+	public String getBefore() {
+		return getTemplate().getBefore();
+	}
+
+	@Override
+	public ITemplate setAfter(String after) {
+		getTemplate().setAfter(after);
+
+		return this;
+	}
+
+	@Override
+	public String getAfter() {
+		return getTemplate().getAfter();
+	}
+
+	@Override
+	public String toJson() {
+		return getTemplate().toJson();
+	}
+
+}
@@ -1,35 +1,63 @@
 package br.org.resys.si;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.nio.file.Files;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.TreeMap;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.rdf.model.RDFNode;
 import org.semanticweb.owlapi.model.OWLNamedIndividual;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyStorageException;
 
 import com.google.common.collect.Table;
 
+import br.org.resys.adapter.IOutputStreamAdapter;
+import br.org.resys.adapter.ISparqlProcessingAdapter;
+import br.org.resys.adapter.connector.BinaryRdf;
+import br.org.resys.adapter.connector.Budget;
+import br.org.resys.adapter.connector.ImportClosure;
+import br.org.resys.adapter.connector.QueryProfile;
 import br.org.resys.adapter.connector.SparqlConnector;
+import br.org.resys.adapter.impl.CompositeAdapter;
+import br.org.resys.adapter.impl.CrossProjectIncidenceAdapter;
 import br.org.resys.adapter.impl.EffortContextualizedIncidenceOfRefactorings;
 import br.org.resys.adapter.impl.IncidenceOfRefactoringsAdapter;
 import br.org.resys.adapter.impl.RefactoringsByCommittersAdapter;
+import br.org.resys.adapter.impl.SparqlResultsAdapter;
+import br.org.resys.adapter.view.ViewIndex;
 import br.org.resys.en.Smells;
 import br.org.resys.rre.IRefactoring;
+import br.org.resys.rre.connector.Catalog;
 import br.org.resys.rre.connector.ECCOBAConnector;
 import br.org.resys.rre.connector.OceanConnector;
 import br.org.resys.rre.connector.OsoreConnector;
+import br.org.resys.util.ResultCache;
 
 /**
  * Recommendation web service interface
@@ -78,6 +106,17 @@ public class Service {
 		}
 	}
 
+	// budget of the exports of a request (see #getBudget()), e.g.
+	// ?job=j1&millis=5000&rows=1000&memory=256
+	@QueryParam("job")
+	private String job;
+	@QueryParam("millis")
+	private Long maxMillis;
+	@QueryParam("rows")
+	private Long maxRows;
+	@QueryParam("memory")
+	private Long maxMemory;
+
 	/**
 	 * @return current version of the service
 	 */
@@ -88,6 +127,59 @@ public class Service {
 		return VERSION;
 	}
 
+	/**
+	 * @return json string containing statistics of the cache of parsed
+	 *         ontologies used by the exports (size, hits, misses...)
+	 */
+	@GET
+	@Path("/cache")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String getCacheStatistics() {
+		return SparqlConnector.getInstance().init(properties).getModelCache().toJson();
+	}
+
+	/**
+	 * @return json string containing statistics of the cache of results
+	 *         (entries, size, hits, misses...)
+	 */
+	@GET
+	@Path("/results")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String getResultCacheStatistics() {
+		return ResultCache.getInstance().init(properties).toJson();
+	}
+
+	/**
+	 * @return json string containing the version of the catalog of
+	 *         refactorings currently in use
+	 */
+	@GET
+	@Path("/osore/version")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String getCatalogVersion() {
+		return "{\"catalog\" : \"" + OsoreConnector.getInstance().getCatalogVersion() + "\"}";
+	}
+
+	/**
+	 * Reload the catalog of refactorings after osore has been changed
+	 * <p>
+	 * The catalog is loaded in the background. Recommendations keep using the
+	 * current catalog until the new one is loaded.
+	 * 
+	 * @return json string containing the version of the catalog currently in
+	 *         use (the new version is reported by {@link #getCatalogVersion()}
+	 *         once it is loaded)
+	 */
+	@GET
+	@Path("/osore/reload")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String reloadCatalog() {
+		OsoreConnector.getInstance().reload();
+
+		return "{\"catalog\" : \"" + OsoreConnector.getInstance().getCatalogVersion()
+				+ "\", \"reloading\" : \"true\"}";
+	}
+
 	/**
 	 * @return smells we can recommend refactorings to
 	 */
@@ -119,7 +211,7 @@ public class Service {
 	 * @return json string containing information about the recommendation.
 	 *         Format:
 	 *         <p>
-	 *         {"onto" : "*.zip", "millis" : "9999"}
+	 *         {"onto" : "*.zip", "catalog" : "...", "millis" : "9999"}
 	 *         <p>
 	 *         "onto": name of a zip file containing:
 	 *         <ul>
@@ -127,7 +219,8 @@ public class Service {
 	 *         recommendations</li>
 	 *         <li>all imported ontologies</li>
 	 *         </ul>
-	 *         "millis": the duration of the recommendation
+	 *         "catalog": version of the catalog of refactorings used in the
+	 *         recommendation; "millis": the duration of the recommendation
 	 */
 	@GET
 	@Path("/recommend/{ocean}")
@@ -154,7 +247,7 @@ public class Service {
 	 * @return json string containing information about the recommendation.
 	 *         Format:
 	 *         <p>
-	 *         {"onto" : "*.zip", "millis" : "9999"}
+	 *         {"onto" : "*.zip", "catalog" : "...", "millis" : "9999"}
 	 *         <p>
 	 *         "onto": name of a zip file containing:
 	 *         <ul>
@@ -162,7 +255,8 @@ public class Service {
 	 *         recommendations</li>
 	 *         <li>all imported ontologies</li>
 	 *         </ul>
-	 *         "millis": the duration of the recommendation
+	 *         "catalog": version of the catalog of refactorings used in the
+	 *         recommendation; "millis": the duration of the recommendation
 	 */
 	@GET
 	@Path("/recommend/byeffortcorrelation/{ocean}/{eccoba.dataset}/{minimal.correlation}")
@@ -173,28 +267,55 @@ public class Service {
 		String result = "";
 
 		try {
-			OceanConnector oceanConnector = OceanConnector.getInstance().init(properties);
-			String newOnto = oceanConnector.loadAndReplicate(ocean);
-
-			oceanConnector.prepareRecommendation();
-
-			Map<Smells, List<OWLNamedIndividual>> smells = null;
+			// the same catalog of refactorings is used throughout the
+			// recommendation, even if it is reloaded meanwhile
+			Catalog catalog = OsoreConnector.getInstance().getCatalog();
+			// identical recommendations are taken from the cache of results
+			ResultCache results = ResultCache.getInstance().init(properties);
+			ResultCache.KeyBuilder keyBuilder = results.newKey().putString("recommend")
+					.putFile(new File(properties.getProperty("ontos.input.path") + "/" + ocean))
+					.putString(catalog.getVersion());
 			if (dataset != null) {
-				ECCOBAConnector eccobaConnector = ECCOBAConnector.getInstance().init(properties);
-				Table<Date, String, Double> correlationsByDateAndCommit = eccobaConnector.loadCorrelations(dataset)
-						.getCorrelationsByDateAndCommit();
-				smells = oceanConnector.addEffortContext(minimalCorrelation).loadSmells(correlationsByDateAndCommit);
-			} else {
-				smells = oceanConnector.loadSmells();
+				keyBuilder.putFile(new File(properties.getProperty("csv.input.path") + "/" + dataset))
+						.putString(String.valueOf(minimalCorrelation));
 			}
+			String key = keyBuilder.build();
+
+			Map<String, File> artifacts = results.get(key);
+			if (artifacts == null) {
+				OceanConnector oceanConnector = OceanConnector.getInstance().init(properties);
+				String newOnto = oceanConnector.loadAndReplicate(ocean);
+
+				oceanConnector.prepareRecommendation();
 
-			Map<OWLNamedIndividual, List<IRefactoring>> refactorings = OsoreConnector.getInstance()
-					.recommendRefactorings(smells);
-			String newZip = oceanConnector.saveRefactorings(refactorings).zip(newOnto);
+				Map<Smells, List<OWLNamedIndividual>> smells = null;
+				if (dataset != null) {
+					ECCOBAConnector eccobaConnector = ECCOBAConnector.getInstance().init(properties);
+					Table<Date, String, Double> correlationsByDateAndCommit = eccobaConnector
+							.loadCorrelations(dataset).getCorrelationsByDateAndCommit();
+					smells = oceanConnector.addEffortContext(minimalCorrelation)
+							.loadSmells(correlationsByDateAndCommit);
+				} else {
+					smells = oceanConnector.loadSmells();
+				}
+
+				Map<OWLNamedIndividual, List<IRefactoring>> refactorings = catalog.recommendRefactorings(smells);
+				String newZip = oceanConnector.saveRefactorings(refactorings).zip(newOnto);
+
+				String outputPath = properties.getProperty("ontos.output.path");
+				artifacts = new LinkedHashMap<String, File>();
+				artifacts.put("onto", new File(outputPath + "/" + newOnto));
+				artifacts.put("binary", BinaryRdf.getBinaryFile(new File(outputPath + "/" + newOnto)));
+				artifacts.put("zip", new File(outputPath + "/" + newZip));
+				results.put(key, artifacts);
+			}
+			String newOnto = artifacts.get("onto").getName();
+			String newZip = artifacts.get("zip").getName();
 
 			millis = (new Date()).getTime() - millis;
 
-			result = "{\"onto\" : \"" + newOnto + "\", \"zip\" : \"" + newZip + "\", \"millis\" : \"" + millis + "\"}";
+			result = "{\"onto\" : \"" + newOnto + "\", \"zip\" : \"" + newZip + "\", \"catalog\" : \""
+					+ catalog.getVersion() + "\", \"millis\" : \"" + millis + "\"}";
 		} catch (OWLOntologyCreationException | IOException | OWLOntologyStorageException | ParseException e) {
 			result = "failed to recommend refactorings";
 
@@ -218,7 +339,10 @@ public class Service {
 	 *         {"csv" : "*.csv", "millis" : "9999"}
 	 *         <p>
 	 *         "csv": name of a csv file contained all processed data "millis":
-	 *         the duration of the recommendation
+	 *         the duration of the recommendation. If the budget of the export
+	 *         (see {@link #getBudget(ISparqlProcessingAdapter)}) is exhausted,
+	 *         the csv is partial and "truncated" tells what ran out (time,
+	 *         rows, memory or cancelled)
 	 */
 	@GET
 	@Path("/refactoringsbycommitters/{ocean}")
@@ -230,13 +354,9 @@ public class Service {
 		SparqlConnector sparqlConn = SparqlConnector.getInstance().init(properties);
 		try {
 			RefactoringsByCommittersAdapter adapter = new RefactoringsByCommittersAdapter();
-			adapter.init(properties);
-
-			sparqlConn.adapt(ocean, adapter);
-
-			millis = (new Date()).getTime() - millis;
 
-			result = "{\"csv\" : \"" + adapter.getCSVFileName() + "\", \"millis\" : \"" + millis + "\"}";
+			result = export(millis, getExportKey(ocean, adapter), adapter,
+					budget -> sparqlConn.adapt(ocean, adapter, budget));
 		} catch (Exception e) {
 			result = "failed to export the refactorings by committers";
 
@@ -260,7 +380,10 @@ public class Service {
 	 *         {"csv" : "*.csv", "millis" : "9999"}
 	 *         <p>
 	 *         "csv": name of a csv file contained all processed data "millis":
-	 *         the duration of the recommendation
+	 *         the duration of the recommendation. If the budget of the export
+	 *         (see {@link #getBudget(ISparqlProcessingAdapter)}) is exhausted,
+	 *         the csv is partial and "truncated" tells what ran out (time,
+	 *         rows, memory or cancelled)
 	 */
 	@GET
 	@Path("/incidenceofrefactorings/{ocean}")
@@ -271,14 +394,11 @@ public class Service {
 
 		SparqlConnector sparqlConn = SparqlConnector.getInstance().init(properties);
 		try {
-			IncidenceOfRefactoringsAdapter adapter = new IncidenceOfRefactoringsAdapter();
-			adapter.init(properties);
-
-			sparqlConn.adapt(ocean, adapter);
-
-			millis = (new Date()).getTime() - millis;
+			IncidenceOfRefactoringsAdapter adapter = new IncidenceOfRefactoringsAdapter()
+					.setAggregated(isAggregated());
 
-			result = "{\"csv\" : \"" + adapter.getCSVFileName() + "\", \"millis\" : \"" + millis + "\"}";
+			result = export(millis, getExportKey(ocean, adapter), adapter,
+					budget -> sparqlConn.adapt(ocean, adapter, budget));
 		} catch (Exception e) {
 			result = "unable to export the incidence of refactorings";
 
@@ -303,7 +423,10 @@ public class Service {
 	 *         {"csv" : "*.csv", "millis" : "9999"}
 	 *         <p>
 	 *         "csv": name of a csv file contained all processed data "millis":
-	 *         the duration of the recommendation
+	 *         the duration of the recommendation. If the budget of the export
+	 *         (see {@link #getBudget(ISparqlProcessingAdapter)}) is exhausted,
+	 *         the csv is partial and "truncated" tells what ran out (time,
+	 *         rows, memory or cancelled)
 	 */
 
 	@GET
@@ -318,15 +441,322 @@ public class Service {
 		try {
 			EffortContextualizedIncidenceOfRefactorings adapter = new EffortContextualizedIncidenceOfRefactorings(
 					correlation);
+			adapter.setAggregated(isAggregated());
+
+			result = export(millis, getExportKey(ocean, adapter), adapter,
+					budget -> sparqlConn.adapt(ocean, adapter, budget));
+		} catch (Exception e) {
+			result = "unable to export the incidence of refactorings";
+
+			e.printStackTrace();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Stream the refactorings by committers of an instance of ocean (see
+	 * {@link #exportRefactoringsByCommitters(String)}) as the body of the
+	 * response, instead of writing them to a file
+	 * <p>
+	 * The csv is written as it is produced, in chunks, and it is compressed if
+	 * the client accepts gzip (Accept-Encoding). If the export is cached, the
+	 * cached file is streamed instead. If the export exceeds its budget, the
+	 * connection is aborted after the rows produced so far (see
+	 * {@link #abortIfTruncated(String, Budget)}).
+	 * 
+	 * @param ocean
+	 *            instance of ocean previously uploaded to ontos input path
+	 * @return the csv, or a message if the ocean is unknown
+	 */
+	@GET
+	@Path("/stream/refactoringsbycommitters/{ocean}")
+	@Produces("text/csv")
+	public Response streamRefactoringsByCommitters(@PathParam("ocean") String ocean) {
+		return stream(ocean, new RefactoringsByCommittersAdapter());
+	}
+
+	/**
+	 * Stream the incidence of refactorings of an instance of ocean (see
+	 * {@link #exportIncidenceOfRefactorings(String)}) as the body of the
+	 * response. See {@link #streamRefactoringsByCommitters(String)}
+	 * 
+	 * @param ocean
+	 *            instance of ocean previously uploaded to ontos input path
+	 * @return the csv, or a message if the ocean is unknown
+	 */
+	@GET
+	@Path("/stream/incidenceofrefactorings/{ocean}")
+	@Produces("text/csv")
+	public Response streamIncidenceOfRefactorings(@PathParam("ocean") String ocean) {
+		return stream(ocean, new IncidenceOfRefactoringsAdapter().setAggregated(isAggregated()));
+	}
+
+	/**
+	 * Stream the incidence of refactorings contextualized by effort of an
+	 * instance of ocean (see
+	 * {@link #exportEffortContextualizedIncidenceOfRefactorings(String, double)})
+	 * as the body of the response. See
+	 * {@link #streamRefactoringsByCommitters(String)}
+	 * 
+	 * @param ocean
+	 *            instance of ocean previously uploaded to ontos input path
+	 * @param correlation
+	 *            minimal correlation
+	 * @return the csv, or a message if the ocean is unknown
+	 */
+	@GET
+	@Path("/stream/incidenceofrefactorings/contextualizedbyeffort/{ocean}/{correlation}")
+	@Produces("text/csv")
+	public Response streamEffortContextualizedIncidenceOfRefactorings(@PathParam("ocean") String ocean,
+			@PathParam("correlation") double correlation) {
+		return stream(ocean, new EffortContextualizedIncidenceOfRefactorings(correlation)
+				.setAggregated(isAggregated()));
+	}
+
+	private Response stream(String ocean, IOutputStreamAdapter adapter) {
+		if (!new File(properties.getProperty("ontos.output.path") + "/" + ocean).exists()) {
+			return Response.status(Response.Status.NOT_FOUND).type(MediaType.TEXT_PLAIN)
+					.entity("unknown ocean: " + ocean).build();
+		}
+
+		SparqlConnector sparqlConn = SparqlConnector.getInstance().init(properties);
+		StreamingOutput csv = out -> {
+			Budget budget = getBudget(adapter);
+			try {
+				Map<String, File> artifacts = ResultCache.getInstance().init(properties)
+						.get(getExportKey(ocean, adapter));
+				if (artifacts != null) {
+					Files.copy(artifacts.get("csv").toPath(), out);
+				} else {
+					adapter.setOutputStream(out).init(properties);
+
+					sparqlConn.adapt(ocean, adapter, budget);
+				}
+			} catch (Exception e) {
+				System.err.println("Failed to stream the export of " + ocean);
+
+				e.printStackTrace();
+				throw new WebApplicationException(e);
+			}
+			abortIfTruncated(ocean, budget);
+		};
+
+		return Response.ok(csv, "text/csv").build();
+	}
+
+	/**
+	 * Run all exports of an instance of ocean in a single job: the incidence
+	 * of refactorings, the refactorings by committers and the incidence of
+	 * refactorings contextualized by effort at several correlations
+	 * <p>
+	 * The ocean is loaded once for all exports (see {@link CompositeAdapter}).
+	 * Exports that are already cached are not run again.
+	 * 
+	 * @param ocean
+	 *            instance of ocean previously uploaded to ontos input path
+	 * @param correlations
+	 *            minimal correlations, separated by commas (e.g. 0.3,0.5)
+	 * @return json string containing the csv files of all exports. Format:
+	 *         <p>
+	 *         {"csvs" : {"incidence" : "*.csv", "refactoringsbycommitters" :
+	 *         "*.csv", "contextualizedbyeffort/0.5" : "*.csv"}, "millis" :
+	 *         "9999"}
+	 *         <p>
+	 *         The exports share a single budget. If it is exhausted, the csvs
+	 *         that were not cached are partial and "truncated" is added (see
+	 *         {@link #exportIncidenceOfRefactorings(String)})
+	 */
+	@GET
+	@Path("/batch/{ocean}/{correlations}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String exportAll(@PathParam("ocean") String ocean, @PathParam("correlations") String correlations) {
+		long millis = (new Date()).getTime();
+		String result = "";
+
+		SparqlConnector sparqlConn = SparqlConnector.getInstance().init(properties);
+		try {
+			boolean aggregated = isAggregated();
+			Map<String, ISparqlProcessingAdapter> adapters = new LinkedHashMap<String, ISparqlProcessingAdapter>();
+			adapters.put("incidence", new IncidenceOfRefactoringsAdapter().setAggregated(aggregated));
+			adapters.put("refactoringsbycommitters", new RefactoringsByCommittersAdapter());
+			for (String correlation : correlations.split(",")) {
+				EffortContextualizedIncidenceOfRefactorings adapter = new EffortContextualizedIncidenceOfRefactorings(
+						Double.parseDouble(correlation.trim()));
+				adapter.setAggregated(aggregated);
+				adapters.put("contextualizedbyeffort/" + adapter.getCorrelation(), adapter);
+			}
+
+			Map<String, File> csvs = new LinkedHashMap<String, File>();
+			Map<String, String> keys = new LinkedHashMap<String, String>();
+			CompositeAdapter composite = new CompositeAdapter();
+			Budget budget = getBudget(composite);
+			for (Entry<String, ISparqlProcessingAdapter> adapter : adapters.entrySet()) {
+				String key = getExportKey(ocean, adapter.getValue());
+				Map<String, File> artifacts = ResultCache.getInstance().init(properties).get(key);
+				if (artifacts != null) {
+					csvs.put(adapter.getKey(), artifacts.get("csv"));
+				} else {
+					keys.put(adapter.getKey(), key);
+					composite.add(adapter.getValue());
+				}
+			}
+			if (!composite.getAdapters().isEmpty()) {
+				composite.init(properties);
+
+				sparqlConn.adapt(ocean, composite, budget);
+
+				for (Entry<String, String> key : keys.entrySet()) {
+					File csv = new File(properties.getProperty("csv.output.path") + "/"
+							+ getCSVFileName(adapters.get(key.getKey())));
+					if (!budget.isTruncated()) {
+						ResultCache.getInstance().put(key.getValue(), Collections.singletonMap("csv", csv));
+					}
+					csvs.put(key.getKey(), csv);
+				}
+			}
+
+			millis = (new Date()).getTime() - millis;
+
+			StringBuilder json = new StringBuilder();
+			for (Entry<String, File> csv : csvs.entrySet()) {
+				json.append((json.length() > 0) ? ", " : "").append("\"" + csv.getKey() + "\" : \"")
+						.append(csv.getValue().getName()).append("\"");
+			}
+			result = "{\"csvs\" : {" + json + "}, \"millis\" : \"" + millis + "\"" + getTruncation(budget) + "}";
+		} catch (Exception e) {
+			result = "unable to run the batch of exports";
+
+			e.printStackTrace();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Process the incidence of refactorings through a timeline of occurrence of
+	 * smells of several projects at once (see
+	 * {@link CrossProjectIncidenceAdapter})
+	 * <p>
+	 * As a result, a single csv file is produced, with the project of each
+	 * incidence
+	 * 
+	 * @param oceans
+	 *            instances of ocean previously uploaded to ontos input path,
+	 *            separated by commas (e.g. junit.owl,guava.owl)
+	 * @return json string containing information about the incidence of
+	 *         refactorings. Format: see
+	 *         {@link #exportIncidenceOfRefactorings(String)}
+	 */
+	@GET
+	@Path("/crossproject/incidenceofrefactorings/{oceans}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String exportCrossProjectIncidenceOfRefactorings(@PathParam("oceans") String oceans) {
+		return exportCrossProject(oceans, new IncidenceOfRefactoringsAdapter().setAggregated(isAggregated()));
+	}
+
+	/**
+	 * Process the incidence of refactorings of several projects at once,
+	 * except that only the refactorings recommended for smells that
+	 * correlated with development effort are taken in consideration
+	 * 
+	 * @param oceans
+	 *            instances of ocean previously uploaded to ontos input path,
+	 *            separated by commas (e.g. junit.owl,guava.owl)
+	 * @param correlation
+	 *            minimal correlation
+	 * @return json string containing information about the incidence of
+	 *         refactorings. Format: see
+	 *         {@link #exportIncidenceOfRefactorings(String)}
+	 */
+	@GET
+	@Path("/crossproject/incidenceofrefactorings/contextualizedbyeffort/{oceans}/{correlation}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String exportCrossProjectEffortContextualizedIncidenceOfRefactorings(@PathParam("oceans") String oceans,
+			@PathParam("correlation") double correlation) {
+		return exportCrossProject(oceans,
+				new EffortContextualizedIncidenceOfRefactorings(correlation).setAggregated(isAggregated()));
+	}
+
+	private String exportCrossProject(String oceans, IncidenceOfRefactoringsAdapter prototype) {
+		long millis = (new Date()).getTime();
+		String result = "";
+
+		SparqlConnector sparqlConn = SparqlConnector.getInstance().init(properties);
+		try {
+			List<String> files = new ArrayList<String>();
+			for (String ocean : oceans.split(",")) {
+				files.add(ocean.trim());
+			}
+			CrossProjectIncidenceAdapter adapter = new CrossProjectIncidenceAdapter(prototype);
+
+			result = export(millis, getExportKey(files, adapter), adapter,
+					budget -> sparqlConn.adapt(files, adapter, budget));
+		} catch (Exception e) {
+			result = "unable to export the cross-project incidence of refactorings";
+
+			e.printStackTrace();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Profile the statement of an export on an instance of ocean, to find out
+	 * how it performs on the dataset (see {@link QueryProfile})
+	 * <p>
+	 * The statement is executed even if the export is cached or the ocean has
+	 * a materialized view. Profiles are logged as well.
+	 * 
+	 * @param ocean
+	 *            instance of ocean previously uploaded to ontos input path
+	 * @param export
+	 *            path of the export, as in the export's own route:
+	 *            "incidenceofrefactorings", "refactoringsbycommitters" or
+	 *            "incidenceofrefactorings/contextualizedbyeffort/{correlation}"
+	 * @return json string containing the profiles. Format:
+	 *         <p>
+	 *         {"profiles" : [{"statement" : "SPARQL_...", "executor" :
+	 *         "hashjoin", "algebra" : "(project...)", "patterns" : [{"pattern"
+	 *         : "?commit repo:datetime ?datetime", "cardinality" : "99"}],
+	 *         "steps" : [{"step" : "join ?commit repo:datetime ?datetime",
+	 *         "rows" : "99"}], "parse" : "0.010", "plan" : "9.999", "execute"
+	 *         : "9.999", "rows" : "99"}], "millis" : "9999"}
+	 */
+	@GET
+	@Path("/explain/{ocean}/{export: .+}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String explain(@PathParam("ocean") String ocean, @PathParam("export") String export) {
+		long millis = (new Date()).getTime();
+		String result = "";
+
+		SparqlConnector sparqlConn = SparqlConnector.getInstance().init(properties);
+		try {
+			boolean aggregated = isAggregated();
+			ISparqlProcessingAdapter adapter;
+			if (export.equals("incidenceofrefactorings")) {
+				adapter = new IncidenceOfRefactoringsAdapter().setAggregated(aggregated);
+			} else if (export.equals("refactoringsbycommitters")) {
+				adapter = new RefactoringsByCommittersAdapter();
+			} else if (export.startsWith("incidenceofrefactorings/contextualizedbyeffort/")) {
+				adapter = new EffortContextualizedIncidenceOfRefactorings(
+						Double.parseDouble(export.substring(export.lastIndexOf('/') + 1))).setAggregated(aggregated);
+			} else {
+				throw new IllegalArgumentException("Unknown export: " + export);
+			}
 			adapter.init(properties);
 
-			sparqlConn.adapt(ocean, adapter);
+			List<QueryProfile> profiles = sparqlConn.explain(ocean, adapter);
 
 			millis = (new Date()).getTime() - millis;
 
-			result = "{\"csv\" : \"" + adapter.getCSVFileName() + "\", \"millis\" : \"" + millis + "\"}";
+			StringBuilder json = new StringBuilder();
+			for (QueryProfile profile : profiles) {
+				json.append((json.length() > 0) ? ", " : "").append(profile.toJson());
+			}
+			result = "{\"profiles\" : [" + json + "], \"millis\" : \"" + millis + "\"}";
 		} catch (Exception e) {
-			result = "unable to export the incidence of refactorings";
+			result = "unable to explain the export";
 
 			e.printStackTrace();
 		}
@@ -334,4 +764,334 @@ public class Service {
 		return result;
 	}
 
+	/**
+	 * Execute an ad-hoc SELECT statement on an instance of ocean and stream
+	 * its rows back as they are produced (see {@link SparqlResultsAdapter})
+	 * <p>
+	 * The ocean is loaded as for the exports (cached models, configured store
+	 * and spec) and the execution is bounded by the budget of the request. If
+	 * the budget is exceeded, the connection is aborted after the rows
+	 * produced so far (see {@link #abortIfTruncated(String, Budget)}).
+	 * Statements other than SELECT are rejected.
+	 * 
+	 * @param ocean
+	 *            instance of ocean previously uploaded to ontos input path
+	 * @param sparql
+	 *            the statement (?query=...)
+	 * @param format
+	 *            csv (default), tsv or json (?format=...)
+	 * @return the rows, in the SPARQL 1.1 result format requested, or a
+	 *         message if the statement, the format or the ocean is invalid
+	 */
+	@GET
+	@Path("/sparql/{ocean}")
+	public Response query(@PathParam("ocean") String ocean, @QueryParam("query") String sparql,
+			@QueryParam("format") @DefaultValue("csv") String format) {
+		if (sparql == null) {
+			return badRequest("missing statement (?query=...)");
+		}
+		try {
+			Query query = QueryFactory.create(sparql);
+			if (!query.isSelectType()) {
+				return badRequest("only SELECT statements are accepted");
+			}
+		} catch (QueryParseException e) {
+			return badRequest("invalid statement: " + e.getMessage());
+		}
+		SparqlResultsAdapter.Format resultFormat;
+		try {
+			resultFormat = SparqlResultsAdapter.Format.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return badRequest("unknown format: " + format);
+		}
+		if (!new File(properties.getProperty("ontos.output.path") + "/" + ocean).exists()) {
+			return Response.status(Response.Status.NOT_FOUND).type(MediaType.TEXT_PLAIN)
+					.entity("unknown ocean: " + ocean).build();
+		}
+
+		SparqlConnector sparqlConn = SparqlConnector.getInstance().init(properties);
+		StreamingOutput results = out -> {
+			SparqlResultsAdapter adapter = new SparqlResultsAdapter(sparql, resultFormat, out);
+			Budget budget = getBudget(adapter);
+			try {
+				adapter.init(properties);
+
+				sparqlConn.adapt(ocean, adapter, budget);
+			} catch (Exception e) {
+				System.err.println("Failed to query " + ocean);
+
+				e.printStackTrace();
+				throw new WebApplicationException(e);
+			}
+			abortIfTruncated(ocean, budget);
+		};
+
+		return Response.ok(results, resultFormat.getMediaType()).build();
+	}
+
+	/**
+	 * Abort a streamed response whose rows were truncated by its budget. The
+	 * status (200) has been sent along with the first rows, so the response
+	 * cannot be marked as truncated: it is left unterminated instead (the
+	 * container drops the connection), lest clients take the rows for all of
+	 * them.
+	 * 
+	 * @param ocean
+	 *            instance of ocean being streamed
+	 * @param budget
+	 *            budget of the response
+	 * @throws IOException
+	 *             if the rows were truncated
+	 */
+	private void abortIfTruncated(String ocean, Budget budget) throws IOException {
+		if (budget.isTruncated()) {
+			System.err.println("Stream of " + ocean + " truncated (" + budget.getReason() + "), aborting it");
+
+			throw new IOException("truncated: " + budget.getReason());
+		}
+	}
+
+	private Response badRequest(String message) {
+		return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN).entity(message).build();
+	}
+
+	/**
+	 * Cancel a running export (see {@link SparqlConnector#cancel(String)}).
+	 * The export completes with the rows produced so far, marked as
+	 * truncated.
+	 * 
+	 * @param job
+	 *            the job given to the export (?job=...)
+	 * @return json string. Format:
+	 *         <p>
+	 *         {"job" : "j1", "cancelled" : "true"}
+	 *         <p>
+	 *         "cancelled" is false if no export of the job is running
+	 */
+	@GET
+	@Path("/cancel/{job}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String cancel(@PathParam("job") String job) {
+		boolean cancelled = SparqlConnector.getInstance().init(properties).cancel(job);
+
+		return "{\"job\" : \"" + job + "\", \"cancelled\" : \"" + cancelled + "\"}";
+	}
+
+	/**
+	 * Execution of an export within a budget
+	 */
+	private interface Export {
+		void run(Budget budget) throws Exception;
+	}
+
+	/**
+	 * Run an export, unless its result is cached, and describe its csv
+	 * <p>
+	 * The export is bounded by the budget of the adapter (see
+	 * {@link #getBudget(ISparqlProcessingAdapter)}). Partial outputs are not
+	 * cached.
+	 * 
+	 * @param millis
+	 *            when the request started
+	 * @param key
+	 *            key of the export in the {@link ResultCache}
+	 * @param adapter
+	 *            the adapter, not initialized yet
+	 * @param export
+	 *            execution of the adapter's statement
+	 * @return json string containing the csv file and the duration of the
+	 *         request (see {@link #exportIncidenceOfRefactorings(String)})
+	 * @throws Exception
+	 *             if the export fails
+	 */
+	private String export(long millis, String key, ISparqlProcessingAdapter adapter, Export export)
+			throws Exception {
+		Budget budget = getBudget(adapter);
+		Map<String, File> artifacts = ResultCache.getInstance().init(properties).get(key);
+		if (artifacts == null) {
+			adapter.init(properties);
+
+			export.run(budget);
+
+			artifacts = Collections.singletonMap("csv",
+					new File(properties.getProperty("csv.output.path") + "/" + getCSVFileName(adapter)));
+			// partial outputs are not cached
+			if (!budget.isTruncated()) {
+				ResultCache.getInstance().put(key, artifacts);
+			}
+		}
+
+		millis = (new Date()).getTime() - millis;
+
+		return "{\"csv\" : \"" + artifacts.get("csv").getName() + "\", \"millis\" : \"" + millis + "\""
+				+ getTruncation(budget) + "}";
+	}
+
+	/**
+	 * Budget of an export: the configured budget of the adapter (see
+	 * {@link Budget#of}), overridden by the parameters of the request: "job"
+	 * (id to cancel the export by), "millis", "rows" and "memory" (in MB)
+	 */
+	private Budget getBudget(ISparqlProcessingAdapter adapter) {
+		Budget budget = Budget.of(properties, adapter).setJob(job);
+		if (maxMillis != null) {
+			budget.setMillis(maxMillis);
+		}
+		if (maxRows != null) {
+			budget.setRows(maxRows);
+		}
+		if (maxMemory != null) {
+			budget.setMemory(maxMemory * 1024 * 1024);
+		}
+
+		return budget;
+	}
+
+	/**
+	 * Verify if incidence exports are counted in the query engine
+	 * ("sparql.aggregate", default: false), instead of passing every row of
+	 * the join to the adapter
+	 */
+	private boolean isAggregated() {
+		return Boolean.parseBoolean(properties.getProperty("sparql.aggregate", "false"));
+	}
+
+	private String getTruncation(Budget budget) {
+		return budget.isTruncated() ? ", \"truncated\" : \"" + budget.getReason() + "\"" : "";
+	}
+
+	private String getCSVFileName(ISparqlProcessingAdapter adapter) {
+		if (adapter instanceof IncidenceOfRefactoringsAdapter) {
+			return ((IncidenceOfRefactoringsAdapter) adapter).getCSVFileName();
+		}
+		if (adapter instanceof CrossProjectIncidenceAdapter) {
+			return ((CrossProjectIncidenceAdapter) adapter).getCSVFileName();
+		}
+
+		return ((RefactoringsByCommittersAdapter) adapter).getCSVFileName();
+	}
+
+	/**
+	 * Look up the smells found in a source location (e.g.
+	 * org/proj/C26.java#m1, with "#" encoded as %23) and their refactorings
+	 * 
+	 * @param ocean
+	 *            instance of ocean for which refactorings were recommended
+	 * @param location
+	 *            the location of the smells
+	 * @return json string containing the smells. Format: see
+	 *         {@link #lookup(String, ViewIndex.Key, String)}
+	 */
+	@GET
+	@Path("/lookup/location/{ocean}/{location: .+}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String lookupByLocation(@PathParam("ocean") String ocean, @PathParam("location") String location) {
+		return lookup(ocean, ViewIndex.Key.LOCATION, location);
+	}
+
+	/**
+	 * Look up the smells introduced by a committer and their refactorings
+	 * 
+	 * @param ocean
+	 *            instance of ocean for which refactorings were recommended
+	 * @param committer
+	 *            the committer's id (the fragment of its IRI)
+	 * @return json string containing the smells. Format: see
+	 *         {@link #lookup(String, ViewIndex.Key, String)}
+	 */
+	@GET
+	@Path("/lookup/committer/{ocean}/{committer}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String lookupByCommitter(@PathParam("ocean") String ocean, @PathParam("committer") String committer) {
+		return lookup(ocean, ViewIndex.Key.COMMITTER, committer);
+	}
+
+	/**
+	 * Look up the smells introduced by a commit and their refactorings
+	 * 
+	 * @param ocean
+	 *            instance of ocean for which refactorings were recommended
+	 * @param commit
+	 *            the commit's hash (the fragment of its IRI)
+	 * @return json string containing the smells. Format: see
+	 *         {@link #lookup(String, ViewIndex.Key, String)}
+	 */
+	@GET
+	@Path("/lookup/commit/{ocean}/{commit}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String lookupByCommit(@PathParam("ocean") String ocean, @PathParam("commit") String commit) {
+		return lookup(ocean, ViewIndex.Key.COMMIT, commit);
+	}
+
+	/**
+	 * Look up smells through the secondary indexes of an instance of ocean
+	 * 
+	 * @return json string containing the smells. Format:
+	 *         <p>
+	 *         {"smells" : [{"smell" : "s1", "types" : ["LongMethod"],
+	 *         "committer" : "alice", "commit" : "c1", "datetime" : "2016-12-09
+	 *         00:48:00", "location" : "org/proj/C1.java#m1", "refactorings" :
+	 *         ["ExtractMethod"]}], "millis" : "9"}
+	 */
+	private String lookup(String ocean, ViewIndex.Key key, String value) {
+		long millis = (new Date()).getTime();
+		String result = "";
+
+		SparqlConnector sparqlConn = SparqlConnector.getInstance().init(properties);
+		try {
+			List<String> smells = sparqlConn.lookup(ocean, key, value);
+
+			millis = (new Date()).getTime() - millis;
+
+			result = "{\"smells\" : " + smells + ", \"millis\" : \"" + millis + "\"}";
+		} catch (Exception e) {
+			result = "unable to look up the smells";
+
+			e.printStackTrace();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Create the key of an export in the {@link ResultCache}
+	 * <p>
+	 * The result of an export depends on the content of the ocean and of its
+	 * imports (including the version of osore), on the adapter's SPARQL
+	 * statement and its parameters, and on the settings of the connector that
+	 * change the rows or their order (see
+	 * {@link SparqlConnector#getSettings(ISparqlProcessingAdapter)}).
+	 * 
+	 * @param ocean
+	 *            instance of ocean to be exported
+	 * @param adapter
+	 *            the adapter that exports the ocean
+	 * @return the key
+	 * @throws IOException
+	 *             if it fails to read the ontologies' physical files
+	 */
+	private String getExportKey(String ocean, ISparqlProcessingAdapter adapter) throws IOException {
+		return getExportKey(Collections.singletonList(ocean), adapter);
+	}
+
+	private String getExportKey(List<String> oceans, ISparqlProcessingAdapter adapter) throws IOException {
+		String outputPath = properties.getProperty("ontos.output.path");
+		ResultCache.KeyBuilder keyBuilder = ResultCache.getInstance().init(properties).newKey()
+				.putString(adapter.getClass().getName()).putString(adapter.getSparql())
+				.putString(OsoreConnector.getInstance().getCatalogVersion())
+				.putString(SparqlConnector.getInstance().init(properties).getSettings(adapter));
+		for (String ocean : oceans) {
+			keyBuilder.putFile(new File(outputPath + "/" + ocean));
+		}
+		Map<String, RDFNode> parameters = new TreeMap<String, RDFNode>(adapter.getParameters().asMap());
+		for (Entry<String, RDFNode> parameter : parameters.entrySet()) {
+			keyBuilder.putString(parameter.getKey()).putString(parameter.getValue().toString());
+		}
+		for (File file : ImportClosure.getFiles(outputPath)) {
+			keyBuilder.putFile(file);
+		}
+
+		return keyBuilder.build();
+	}
+
 }
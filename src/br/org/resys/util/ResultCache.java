@@ -0,0 +1,288 @@
+package br.org.resys.util;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Persistent, content-addressed cache of the artifacts produced by the service
+ * (recommended ontologies, zip files, csv files...)
+ * <p>
+ * Each result is indexed by a {@link KeyBuilder key}: a SHA-256 hash of
+ * everything that determines it, i.e., the content of the input files (ocean,
+ * ECCOBA's dataset...), the version of osore, the SPARQL statement and the
+ * parameters. Identical requests thus produce the same key and the artifacts
+ * of the first one are returned to the others, no matter how they have been
+ * named.
+ * <p>
+ * Every entry is a directory (named after the key) containing copies of the
+ * artifacts and a file describing where they were originally written. If the
+ * originals are deleted, they are restored from the copies. Entries that have
+ * not been used for longer than the max. age are evicted, as well as the least
+ * recently used entries once the sum of their sizes exceeds the budget.
+ *
+ * @author Luis Paulo
+ */
+public class ResultCache {
+	private static final String ENTRY = "entry.properties";
+	private static final long MEGABYTE = 1024 * 1024;
+	private static final long HOUR = 60 * 60 * 1000;
+	private static ResultCache instance;
+
+	/**
+	 * @return singleton instance of the cache
+	 */
+	public static synchronized ResultCache getInstance() {
+		if (instance == null) {
+			instance = new ResultCache();
+		}
+
+		return instance;
+	}
+
+	private File path;
+	private long budget;
+	private long maxAge;
+	private boolean enabled;
+	private long hits, misses, evictions;
+	// hashes of files already read (by path, modification time and size)
+	private Map<String, String> fileHashes = new HashMap<String, String>();
+
+	/**
+	 * Initialization routine. The cache is configured by the following
+	 * properties:
+	 * <ul>
+	 * <li>"result.cache.enabled": true or false (default)</li>
+	 * <li>"result.cache.path": where entries are stored (default: "results/"
+	 * in the ontos output path)</li>
+	 * <li>"result.cache.budget.mb": max. size of all entries (default:
+	 * 1024)</li>
+	 * <li>"result.cache.max.age.hours": max. time an entry is kept without
+	 * being used (default: 168)</li>
+	 * </ul>
+	 *
+	 * @param properties
+	 *            props to configure the cache
+	 * @return instance of #ResultCache
+	 */
+	public synchronized ResultCache init(Properties properties) {
+		path = new File(properties.getProperty("result.cache.path",
+				properties.getProperty("ontos.output.path") + "/results"));
+		budget = Long.parseLong(properties.getProperty("result.cache.budget.mb", "1024")) * MEGABYTE;
+		maxAge = Long.parseLong(properties.getProperty("result.cache.max.age.hours", "168")) * HOUR;
+		enabled = Boolean.parseBoolean(properties.getProperty("result.cache.enabled", "false"));
+
+		return this;
+	}
+
+	/**
+	 * @return a builder of a new key
+	 */
+	public KeyBuilder newKey() {
+		return new KeyBuilder();
+	}
+
+	/**
+	 * Retrieve the artifacts of a cached result
+	 * <p>
+	 * Artifacts that are no longer found where they were written are restored
+	 * from the cache.
+	 *
+	 * @param key
+	 *            key of the result
+	 * @return the artifacts (by their roles, e.g. "csv") or null if the result
+	 *         has not been cached
+	 * @throws IOException
+	 *             if it fails to read the entry or to restore its artifacts
+	 */
+	public synchronized Map<String, File> get(String key) throws IOException {
+		File entry = new File(path, key);
+		File entryFile = new File(entry, ENTRY);
+		if (!enabled || !entryFile.exists() || (System.currentTimeMillis() - entryFile.lastModified() > maxAge)) {
+			misses++;
+
+			return null;
+		}
+
+		Properties description = new Properties();
+		FileReader reader = new FileReader(entryFile);
+		description.load(reader);
+		reader.close();
+
+		Map<String, File> artifacts = new LinkedHashMap<String, File>();
+		for (String role : description.stringPropertyNames()) {
+			File original = new File(description.getProperty(role));
+			File copy = new File(entry, original.getName());
+			if (!original.exists() || (original.length() != copy.length())) {
+				FileUtils.copyFile(copy, original);
+			}
+			artifacts.put(role, original);
+		}
+		// marks the entry as recently used
+		entryFile.setLastModified(System.currentTimeMillis());
+		hits++;
+
+		return artifacts;
+	}
+
+	/**
+	 * Cache the artifacts of a result
+	 *
+	 * @param key
+	 *            key of the result
+	 * @param artifacts
+	 *            the artifacts (by their roles, e.g. "csv")
+	 * @return instance of #ResultCache
+	 * @throws IOException
+	 *             if it fails to copy the artifacts
+	 */
+	public synchronized ResultCache put(String key, Map<String, File> artifacts) throws IOException {
+		if (!enabled) {
+			return this;
+		}
+		File entry = new File(path, key);
+		File temp = new File(path, key + ".tmp");
+		FileUtils.deleteDirectory(temp);
+		temp.mkdirs();
+
+		Properties description = new Properties();
+		for (Entry<String, File> artifact : artifacts.entrySet()) {
+			FileUtils.copyFileToDirectory(artifact.getValue(), temp);
+			description.setProperty(artifact.getKey(), artifact.getValue().getAbsolutePath());
+		}
+		FileWriter writer = new FileWriter(new File(temp, ENTRY));
+		description.store(writer, null);
+		writer.close();
+
+		FileUtils.deleteDirectory(entry);
+		if (!temp.renameTo(entry)) {
+			FileUtils.deleteDirectory(temp);
+			throw new IOException("Unable to move " + temp + " to " + entry);
+		}
+		evict();
+
+		return this;
+	}
+
+	/**
+	 * Evict expired entries and, if the budget is exceeded, the least recently
+	 * used ones
+	 */
+	private void evict() throws IOException {
+		File[] entries = path.listFiles(file -> new File(file, ENTRY).exists());
+		if (entries == null) {
+			return;
+		}
+		Arrays.sort(entries, Comparator.comparingLong((File file) -> new File(file, ENTRY).lastModified()).reversed());
+
+		long now = System.currentTimeMillis();
+		long usage = 0;
+		List<File> evicted = new ArrayList<File>();
+		for (File entry : entries) {
+			usage += FileUtils.sizeOfDirectory(entry);
+			if ((usage > budget) || (now - new File(entry, ENTRY).lastModified() > maxAge)) {
+				evicted.add(entry);
+			}
+		}
+		for (File entry : evicted) {
+			FileUtils.deleteDirectory(entry);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Remove all entries
+	 *
+	 * @return instance of #ResultCache
+	 * @throws IOException
+	 *             if it fails to delete the entries
+	 */
+	public synchronized ResultCache clear() throws IOException {
+		FileUtils.deleteDirectory(path);
+
+		return this;
+	}
+
+	/**
+	 * @return json string containing the cache's statistics
+	 */
+	public synchronized String toJson() {
+		File[] entries = path.listFiles(file -> new File(file, ENTRY).exists());
+		long usage = path.exists() ? FileUtils.sizeOfDirectory(path) : 0;
+
+		return "{\"entries\" : \"" + ((entries == null) ? 0 : entries.length) + "\", \"usage\" : \"" + usage
+				+ "\", \"budget\" : \"" + budget + "\", \"hits\" : \"" + hits + "\", \"misses\" : \"" + misses
+				+ "\", \"evictions\" : \"" + evictions + "\"}";
+	}
+
+	/**
+	 * Hash of a file's content. Hashes are kept as long as the file's
+	 * modification time and size do not change, so a file is read only once.
+	 */
+	private String hash(File file) throws IOException {
+		String version = file.getAbsolutePath() + "@" + file.lastModified() + "/" + file.length();
+		synchronized (fileHashes) {
+			String hash = fileHashes.get(version);
+			if (hash == null) {
+				hash = Files.asByteSource(file).hash(Hashing.sha256()).toString();
+				fileHashes.put(version, hash);
+			}
+
+			return hash;
+		}
+	}
+
+	/**
+	 * Builder of keys of results
+	 */
+	public class KeyBuilder {
+		private Hasher hasher = Hashing.sha256().newHasher();
+
+		/**
+		 * @param file
+		 *            an input file (its content is part of the key)
+		 * @return instance of #KeyBuilder
+		 * @throws IOException
+		 *             if it fails to read the file
+		 */
+		public KeyBuilder putFile(File file) throws IOException {
+			return putString(hash(file));
+		}
+
+		/**
+		 * @param value
+		 *            a statement, parameter, version...
+		 * @return instance of #KeyBuilder
+		 */
+		public KeyBuilder putString(String value) {
+			hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+
+			return this;
+		}
+
+		/**
+		 * @return the key
+		 */
+		public String build() {
+			return hasher.hash().toString();
+		}
+	}
+
+}
@@ -0,0 +1,346 @@
+package br.org.resys.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Aggregation of values by key within a memory budget
+ * <p>
+ * Values of equal keys are summed in a sorted map. Once the (estimated) size
+ * of the map exceeds the budget, the map is spilled to disk as a sorted run and
+ * cleared. Entries are visited in order of their keys: if anything has been
+ * spilled, the runs are merged (k-way) and the values of keys found in several
+ * runs are summed as they are visited. Thus, the memory used by an aggregation
+ * is bounded by the budget (plus a buffer per run), whatever the number of
+ * keys. If there are too many runs to be merged at once, they are merged into
+ * larger runs first.
+ * <p>
+ * Runs are temporary files, deleted by {@link #close()}.
+ *
+ * @author Luis Paulo
+ */
+public class SpillingAggregator {
+	private static final long MEGABYTE = 1024 * 1024;
+	// estimated overhead of an entry of the map (node, string and value)
+	private static final long ENTRY_OVERHEAD = 96;
+	// max. number of runs merged (i.e. open) at once
+	private static final int FAN_IN = 64;
+
+	/**
+	 * Visitor of the entries of an aggregation
+	 */
+	public interface Visitor {
+		public void visit(String key, long value) throws Exception;
+	}
+
+	/**
+	 * Create the configured aggregation of an adapter
+	 * <p>
+	 * The budget is read from "aggregation.memory.mb" (default: 64, 0 means
+	 * the aggregation is never spilled) and the runs are written to
+	 * "aggregation.spill.path" (default: the temporary directory of the
+	 * jvm). Both can be overridden per adapter by appending the simple name of
+	 * the adapter's class (e.g.
+	 * "aggregation.memory.mb.RefactoringsByCommittersAdapter").
+	 *
+	 * @param properties
+	 *            the configuration
+	 * @param adapter
+	 *            simple name of the adapter's class
+	 * @param comparator
+	 *            order of the keys
+	 * @return the aggregation
+	 */
+	public static SpillingAggregator of(Properties properties, String adapter, Comparator<String> comparator) {
+		String memory = properties.getProperty("aggregation.memory.mb." + adapter,
+				properties.getProperty("aggregation.memory.mb", "64"));
+		String path = properties.getProperty("aggregation.spill.path." + adapter, properties
+				.getProperty("aggregation.spill.path", System.getProperty("java.io.tmpdir")));
+
+		return new SpillingAggregator(new File(path), Long.parseLong(memory) * MEGABYTE, comparator);
+	}
+
+	private File directory;
+	private long memory;
+	private Comparator<String> comparator;
+
+	private TreeMap<String, long[]> entries;
+	private long size;
+	private List<Run> runs = new ArrayList<Run>();
+
+	/**
+	 * @param directory
+	 *            where runs are written
+	 * @param memory
+	 *            max. size of the map, in bytes (0: unlimited)
+	 * @param comparator
+	 *            order of the keys
+	 */
+	public SpillingAggregator(File directory, long memory, Comparator<String> comparator) {
+		this.directory = directory;
+		this.memory = memory;
+		this.comparator = comparator;
+		this.entries = new TreeMap<String, long[]>(comparator);
+	}
+
+	/**
+	 * Add a value to the aggregation of a key, spilling the map if it exceeds
+	 * the budget
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            value to add
+	 * @return instance of #SpillingAggregator
+	 * @throws IOException
+	 *             if it fails to spill
+	 */
+	public SpillingAggregator add(String key, long value) throws IOException {
+		long[] aggregated = entries.get(key);
+		if (aggregated == null) {
+			entries.put(key, new long[] { value });
+			size += ENTRY_OVERHEAD + 2 * key.length();
+			if ((memory > 0) && (size > memory)) {
+				spill();
+			}
+		} else {
+			aggregated[0] += value;
+		}
+
+		return this;
+	}
+
+	/**
+	 * Add the entries of another aggregation (with the same order) to this
+	 * one. Its runs are taken over, so it must not be used afterwards.
+	 *
+	 * @param other
+	 *            the other aggregation
+	 * @return instance of #SpillingAggregator
+	 * @throws IOException
+	 *             if it fails to spill
+	 */
+	public SpillingAggregator merge(SpillingAggregator other) throws IOException {
+		runs.addAll(other.runs);
+		other.runs.clear();
+		for (Entry<String, long[]> entry : other.entries.entrySet()) {
+			add(entry.getKey(), entry.getValue()[0]);
+		}
+		other.entries.clear();
+		other.size = 0;
+
+		return this;
+	}
+
+	/**
+	 * Write the map to a sorted run and clear it
+	 */
+	private void spill() throws IOException {
+		if (entries.isEmpty()) {
+			return;
+		}
+		try (RunWriter writer = new RunWriter()) {
+			for (Entry<String, long[]> entry : entries.entrySet()) {
+				writer.write(entry.getKey(), entry.getValue()[0]);
+			}
+			runs.add(writer.getRun());
+		}
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Visit every key (and the sum of its values) in order
+	 *
+	 * @param visitor
+	 *            the visitor
+	 * @throws Exception
+	 *             if it fails to read the runs or the visitor fails
+	 */
+	public void forEach(Visitor visitor) throws Exception {
+		if (runs.isEmpty()) {
+			for (Entry<String, long[]> entry : entries.entrySet()) {
+				visitor.visit(entry.getKey(), entry.getValue()[0]);
+			}
+
+			return;
+		}
+		spill();
+
+		while (runs.size() > FAN_IN) {
+			List<Run> merged = new ArrayList<Run>(runs.subList(0, FAN_IN));
+			try (RunWriter writer = new RunWriter()) {
+				merge(merged, writer::write);
+				runs.add(writer.getRun());
+			}
+			runs.removeAll(merged);
+			delete(merged);
+		}
+		merge(runs, visitor);
+	}
+
+	/**
+	 * Merge sorted runs, summing the values of equal keys
+	 */
+	private void merge(List<Run> runs, Visitor visitor) throws Exception {
+		PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(runs.size(),
+				(a, b) -> comparator.compare(a.key, b.key));
+		List<RunReader> opened = new ArrayList<RunReader>();
+		try {
+			for (Run run : runs) {
+				RunReader reader = new RunReader(run);
+				opened.add(reader);
+				if (reader.next()) {
+					readers.add(reader);
+				}
+			}
+			while (!readers.isEmpty()) {
+				RunReader head = readers.poll();
+				String key = head.key;
+				long value = head.value;
+				if (head.next()) {
+					readers.add(head);
+				}
+				while (!readers.isEmpty() && (comparator.compare(readers.peek().key, key) == 0)) {
+					RunReader reader = readers.poll();
+					value += reader.value;
+					if (reader.next()) {
+						readers.add(reader);
+					}
+				}
+				visitor.visit(key, value);
+			}
+		} finally {
+			for (RunReader reader : opened) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * @return number of runs spilled so far
+	 */
+	public int getRuns() {
+		return runs.size();
+	}
+
+	/**
+	 * Discard the aggregation, deleting its runs
+	 */
+	public void close() {
+		delete(runs);
+		runs.clear();
+		entries.clear();
+		size = 0;
+	}
+
+	private static void delete(List<Run> runs) {
+		for (Run run : runs) {
+			if (!run.file.delete()) {
+				System.err.println("Could not delete " + run.file);
+			}
+		}
+	}
+
+	/**
+	 * A sorted run and its number of entries
+	 */
+	private static class Run {
+		private File file;
+		private long entries;
+
+		private Run(File file, long entries) {
+			this.file = file;
+			this.entries = entries;
+		}
+	}
+
+	/**
+	 * Writer of a new run, whose entries must be written in order
+	 */
+	private class RunWriter implements AutoCloseable {
+		private File file;
+		private DataOutputStream out;
+		private long entries;
+
+		private RunWriter() throws IOException {
+			directory.mkdirs();
+			this.file = File.createTempFile("spill_", ".run", directory);
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		}
+
+		private void write(String key, long value) throws IOException {
+			byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeLong(value);
+			entries++;
+		}
+
+		/**
+		 * @return the run, once all of its entries have been written
+		 */
+		private Run getRun() throws IOException {
+			out.flush();
+
+			return new Run(file, entries);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Cursor over the entries of a run
+	 */
+	private static class RunReader {
+		private DataInputStream in;
+		private long remaining;
+		private String key;
+		private long value;
+
+		private RunReader(Run run) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), 64 * 1024));
+			this.remaining = run.entries;
+		}
+
+		/**
+		 * Read the next entry
+		 *
+		 * @return false if the run is over
+		 */
+		private boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			key = new String(bytes, StandardCharsets.UTF_8);
+			value = in.readLong();
+			remaining--;
+
+			return true;
+		}
+
+		private void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+package br.org.resys.adapter.connector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import br.org.resys.adapter.impl.EffortContextualizedIncidenceOfRefactorings;
+import br.org.resys.adapter.impl.IncidenceOfRefactoringsAdapter;
+import br.org.resys.adapter.impl.RefactoringsByCommittersAdapter;
+
+/**
+ * Exports of a fixture ocean must match the CSVs written by the original
+ * connector (a fresh OWL_MEM_RDFS_INF model per request, queried by ARQ),
+ * whatever the settings of {@link SparqlConnector}: the shipped
+ * configuration and each of the optional execution paths.
+ * <p>
+ * The fixture is imported by the ontologies of web/ontos/output (OWL/XML).
+ * Exports must match line by line, in order, unless the incidence is not
+ * counted in the order of the statement (streamed, scanned from a view or
+ * counted by several forks): such incidence is written in order of month and
+ * refactoring, so the rows of each month are compared sorted.
+ *
+ * @author Luis Paulo
+ */
+@RunWith(Parameterized.class)
+public class BaselineParityTest {
+	private static final String OCEAN = "ocean_fixture.owl";
+	private static final String[] IMPORTS = { "metrics.owl", "codesmells.owl", "repositories.owl", "osore.owl" };
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> getSettings() {
+		return Arrays.asList(new Object[][] { { "shipped", new String[0], true },
+				{ "arq", new String[] { "sparql.executor=arq", "sparql.view=false", "sparql.stream=false",
+						"sparql.aggregate=false" }, true },
+				{ "hashjoin", new String[] { "sparql.executor=hashjoin", "sparql.view=false", "sparql.stream=true",
+						"sparql.aggregate=true" }, false },
+				{ "view", new String[] { "sparql.view=true" }, false },
+				{ "entailments", new String[] { "sparql.spec=OWL_MEM", "sparql.entailments=true",
+						"sparql.view=false", "sparql.executor=hashjoin" }, true },
+				{ "parallel", new String[] { "sparql.parallelism=4", "sparql.spec=OWL_MEM", "sparql.entailments=true",
+						"sparql.view=false", "sparql.executor=hashjoin", "sparql.aggregate=true" }, false },
+				{ "mmap", new String[] { "sparql.store=mmap", "sparql.view=false", "sparql.executor=hashjoin" }, true },
+				{ "tdb", new String[] { "sparql.store=tdb", "sparql.view=false" }, true } });
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String[] settings;
+	// true if the incidence is counted in the order of the statement
+	private boolean ordered;
+	private Properties properties;
+
+	public BaselineParityTest(String name, String[] settings, boolean ordered) {
+		this.settings = settings;
+		this.ordered = ordered;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		File ontos = folder.newFolder("ontos");
+		for (String imported : IMPORTS) {
+			Files.copy(new File("web/ontos/output/" + imported).toPath(), new File(ontos, imported).toPath());
+		}
+		try (InputStream in = getClass().getResourceAsStream("baseline/" + OCEAN)) {
+			Files.copy(in, new File(ontos, OCEAN).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		properties = new Properties();
+		try (InputStream in = getClass().getResourceAsStream("/config.properties")) {
+			properties.load(in);
+		}
+		properties.setProperty("ontos.output.path", ontos.getPath());
+		properties.setProperty("csv.output.path", folder.newFolder("csv").getPath());
+		properties.setProperty("aggregation.spill.path", folder.newFolder("spill").getPath());
+		for (String setting : settings) {
+			properties.setProperty(setting.substring(0, setting.indexOf('=')),
+					setting.substring(setting.indexOf('=') + 1));
+		}
+	}
+
+	@Test
+	public void testIncidenceOfRefactorings() throws Exception {
+		IncidenceOfRefactoringsAdapter adapter = new IncidenceOfRefactoringsAdapter().setAggregated(isAggregated());
+		adapter.init(properties);
+		SparqlConnector.getInstance().init(properties).adapt(OCEAN, adapter);
+
+		assertParity("incidence.csv", adapter.getCSVFileName(), ordered, 0);
+	}
+
+	@Test
+	public void testRefactoringsByCommitters() throws Exception {
+		RefactoringsByCommittersAdapter adapter = new RefactoringsByCommittersAdapter();
+		adapter.init(properties);
+		SparqlConnector.getInstance().init(properties).adapt(OCEAN, adapter);
+
+		assertParity("refactoringsbycommitter.csv", adapter.getCSVFileName(), true, 2);
+	}
+
+	@Test
+	public void testEffortContextualizedIncidenceOfRefactorings() throws Exception {
+		EffortContextualizedIncidenceOfRefactorings adapter = new EffortContextualizedIncidenceOfRefactorings(0.5);
+		adapter.setAggregated(isAggregated());
+		adapter.init(properties);
+		SparqlConnector.getInstance().init(properties).adapt(OCEAN, adapter);
+
+		assertParity("effort.csv", adapter.getCSVFileName(), ordered, 0);
+	}
+
+	private boolean isAggregated() {
+		return Boolean.parseBoolean(properties.getProperty("sparql.aggregate", "false"));
+	}
+
+	/**
+	 * Compare an exported CSV to the baseline's: the same lines in the same
+	 * order or, if the export is not ordered as the baseline, the same dates
+	 * in the same order and, for each date, the same rows sorted
+	 *
+	 * @param baseline
+	 *            name of the baseline's CSV
+	 * @param exported
+	 *            name of the exported CSV
+	 * @param ordered
+	 *            true if the rows of each date must be in the same order
+	 * @param date
+	 *            index of the column of the dates
+	 */
+	private void assertParity(String baseline, String exported, boolean ordered, int date) throws Exception {
+		List<String> expected = Files.readAllLines(
+				new File(getClass().getResource("baseline/" + baseline).toURI()).toPath(), StandardCharsets.UTF_8);
+		List<String> actual = Files.readAllLines(
+				new File(properties.getProperty("csv.output.path"), exported).toPath(), StandardCharsets.UTF_8);
+
+		if (ordered) {
+			assertEquals(expected, actual);
+		} else {
+			assertEquals(sort(expected, date), actual);
+		}
+	}
+
+	/**
+	 * Sort the rows of each date of a CSV, keeping the order of the dates
+	 */
+	private static List<String> sort(List<String> lines, int date) {
+		List<String> sorted = new ArrayList<String>(lines.subList(0, 1));
+		int start = 1;
+		for (int i = 1; i <= lines.size(); i++) {
+			if ((i == lines.size()) || !lines.get(i).split(",")[date].equals(lines.get(start).split(",")[date])) {
+				List<String> group = new ArrayList<String>(lines.subList(start, i));
+				Collections.sort(group);
+				sorted.addAll(group);
+				start = i;
+			}
+		}
+
+		return sorted;
+	}
+
+}
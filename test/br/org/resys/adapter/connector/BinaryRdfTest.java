@@ -0,0 +1,63 @@
+package br.org.resys.adapter.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.jena.rdf.model.Model;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The binary copy of an ontology must hold the same triples as its RDF/XML
+ * file, and it is stale once the file's modification time or size changes.
+ *
+ * @author Luis Paulo
+ */
+public class BinaryRdfTest {
+	private static final String OCEAN = "ocean_fixture.owl";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = new File(folder.getRoot(), OCEAN);
+		try (InputStream in = getClass().getResourceAsStream("baseline/" + OCEAN)) {
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		assertFalse(BinaryRdf.isFresh(file));
+		Model parsed = BinaryRdf.read(file);
+
+		assertTrue(BinaryRdf.isFresh(file));
+		assertTrue(parsed.isIsomorphicWith(BinaryRdf.read(file)));
+	}
+
+	@Test
+	public void testStale() throws Exception {
+		BinaryRdf.transcode(file);
+		assertTrue(BinaryRdf.isFresh(file));
+
+		// same modification time, another size
+		long modified = file.lastModified();
+		Files.write(file.toPath(), Files.readAllLines(file.toPath()).subList(0, 1));
+		file.setLastModified(modified);
+
+		assertEquals(modified, BinaryRdf.getBinaryFile(file).lastModified());
+		assertFalse(BinaryRdf.isFresh(file));
+	}
+
+}
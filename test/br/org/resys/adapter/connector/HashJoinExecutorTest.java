@@ -0,0 +1,242 @@
+package br.org.resys.adapter.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.SortCondition;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import br.org.resys.adapter.ISparqlProcessingAdapter;
+import br.org.resys.en.Sparqls;
+
+/**
+ * Rows produced by {@link HashJoinExecutor} must be the same as ARQ's, for
+ * every statement in {@link Sparqls} and for SELECT * (BIND variables
+ * included), over a generated ocean. Rows of equal sort keys may come in any
+ * order.
+ *
+ * @author Luis Paulo
+ */
+public class HashJoinExecutorTest {
+	private static final String OCEAN = "http://www.semanticweb.org/resys/ontologies/2016/2/ocean#";
+	private static final String REPO = "http://www.semanticweb.org/resys/ontologies/2016/1/repositories#";
+	private static final String SMELLS = "http://www.semanticweb.org/resys/ontologies/2016/1/codesmells#";
+	private static final String OSORE = "http://www.semanticweb.org/resys/ontologies/2017/4/osore#";
+
+	private static final String PREFIXES = "PREFIX ocean: <" + OCEAN + "> \n" + "PREFIX repo: <" + REPO + "> \n";
+
+	private static Model model;
+
+	@BeforeClass
+	public static void createOcean() {
+		model = ModelFactory.createDefaultModel();
+		Random random = new Random(7);
+		Property hasCommited = model.createProperty(REPO, "hasCommited");
+		Property datetime = model.createProperty(REPO, "datetime");
+		Property hasIntroduced = model.createProperty(OCEAN, "hasIntroduced");
+		Property foundIn = model.createProperty(OCEAN, "foundIn");
+		Property refactoredBy = model.createProperty(OCEAN, "refactoredBy");
+		Property hasRecommendedFor = model.createProperty(OCEAN, "hasRecommendedFor");
+		Property contextualizedBy = model.createProperty(OSORE, "contextualizedBy");
+		Property correlation = model.createProperty(OSORE, "correlation");
+		String[] types = { "LongMethod", "GodClass", "FeatureEnvy" };
+
+		int smells = 0;
+		for (int i = 0; i < 60; i++) {
+			Resource committer = model.createResource(OCEAN + "committer" + (i % 4));
+			Resource commit = model.createResource(OCEAN + "commit" + i);
+			committer.addProperty(hasCommited, commit);
+			// pairs of commits share their datetime
+			commit.addProperty(datetime, String.format("2016-%02d-%02d 10:00:00", 1 + (i / 10), 1 + (i / 2) % 5));
+			for (int j = random.nextInt(4); j > 0; j--) {
+				Resource smell = model.createResource(OCEAN + "smell" + smells++);
+				commit.addProperty(hasIntroduced, smell);
+				smell.addProperty(RDF.type, model.createResource(SMELLS + types[random.nextInt(types.length)]));
+				// a few smells are not located
+				if (random.nextInt(10) > 0) {
+					smell.addProperty(foundIn, "org/x/C" + random.nextInt(8) + ".java#m" + j);
+				}
+				for (int k = random.nextInt(3); k > 0; k--) {
+					smell.addProperty(refactoredBy, model.createResource(OSORE + "refactoring" + random.nextInt(6)));
+				}
+				if (random.nextBoolean()) {
+					Resource effort = model.createResource(OCEAN + "effort" + smells);
+					effort.addLiteral(correlation, random.nextDouble());
+					model.createResource(OCEAN + "recommendation" + smells).addProperty(hasRecommendedFor, smell)
+							.addProperty(contextualizedBy, effort);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStatements() throws Exception {
+		QuerySolutionMap parameters = new QuerySolutionMap();
+		parameters.add("correlation", model.createTypedLiteral(0.5));
+
+		for (Sparqls sparql : Sparqls.values()) {
+			assertTrue(sparql.name(), HashJoinExecutor.supports(sparql.getQuery()));
+			assertSameRows(sparql.name(), sparql.getQuery(), parameters);
+			assertSameRows(sparql.name(), sparql.getUnorderedQuery(), parameters);
+		}
+	}
+
+	@Test
+	public void testSelectAllWithBinds() throws Exception {
+		String[] statements = { PREFIXES + "SELECT * WHERE { \n" + "?committer repo:hasCommited ?commit . \n"
+				+ "?commit repo:datetime ?datetime . \n" + "BIND (SUBSTR(STR(?datetime), 1, 7) AS ?month) . \n"
+				+ "BIND (STR(?committer) AS ?name) . \n" + "}",
+				PREFIXES + "SELECT * WHERE { \n" + "?commit repo:datetime ?datetime . \n"
+						+ "?commit ocean:hasIntroduced ?codesmell . \n" + "FILTER (?datetime < \"2016-04\") . \n"
+						+ "BIND (SUBSTR(STR(?datetime), 6, 2) AS ?month) . \n" + "} ORDER BY DESC (?datetime)" };
+
+		for (String statement : statements) {
+			Query query = QueryFactory.create(statement);
+			assertTrue(HashJoinExecutor.supports(query));
+			List<Map<String, String>> rows = assertSameRows(statement, query, new QuerySolutionMap());
+			assertTrue(rows.get(0).containsKey("month"));
+		}
+	}
+
+	@Test
+	public void testUnsupported() {
+		assertFalse(HashJoinExecutor.supports(QueryFactory.create(PREFIXES
+				+ "SELECT * WHERE { ?commit repo:datetime ?datetime . OPTIONAL { ?commit ocean:hasIntroduced ?s } }")));
+		assertFalse(HashJoinExecutor.supports(QueryFactory
+				.create(PREFIXES + "SELECT DISTINCT ?commit WHERE { ?commit repo:datetime ?datetime . }")));
+		assertFalse(HashJoinExecutor.supports(QueryFactory.create(PREFIXES
+				+ "SELECT ?commit WHERE { ?commit repo:datetime ?datetime . BIND (1 AS ?x) . FILTER (?x > 0) }")));
+	}
+
+	/**
+	 * Run a query with both executors and compare their rows
+	 *
+	 * @return the rows
+	 */
+	private static List<Map<String, String>> assertSameRows(String message, Query query,
+			QuerySolutionMap parameters) throws Exception {
+		List<Map<String, String>> expected = new ArrayList<Map<String, String>>();
+		try (QueryExecution execution = QueryExecutionFactory.create(query, model, parameters)) {
+			ResultSet results = execution.execSelect();
+			while (results.hasNext()) {
+				expected.add(toRow(results.nextSolution()));
+			}
+		}
+
+		Query bound = parameters.asMap().isEmpty() ? query
+				: QueryTransformOps.transformQuery(query, parameters.asMap());
+		List<Map<String, String>> actual = new ArrayList<Map<String, String>>();
+		new HashJoinExecutor(bound, new Budget()).execute(model, new Collector(actual));
+
+		assertTrue(message, !expected.isEmpty());
+		assertEquals(message, getSortKeys(query, expected), getSortKeys(query, actual));
+		assertEquals(message, sort(expected), sort(actual));
+
+		return actual;
+	}
+
+	private static Map<String, String> toRow(QuerySolution solution) {
+		Map<String, String> row = new TreeMap<String, String>();
+		for (Iterator<String> names = solution.varNames(); names.hasNext();) {
+			String name = names.next();
+			RDFNode node = solution.get(name);
+			if (node != null) {
+				row.put(name, node.toString());
+			}
+		}
+
+		return row;
+	}
+
+	/**
+	 * @return the values of the ORDER BY variables, row by row
+	 */
+	private static List<String> getSortKeys(Query query, List<Map<String, String>> rows) {
+		List<String> keys = new ArrayList<String>();
+		if (query.hasOrderBy()) {
+			for (Map<String, String> row : rows) {
+				StringBuilder key = new StringBuilder();
+				for (SortCondition condition : query.getOrderBy()) {
+					key.append(row.get(condition.getExpression().getVarName())).append('|');
+				}
+				keys.add(key.toString());
+			}
+		}
+
+		return keys;
+	}
+
+	private static List<String> sort(List<Map<String, String>> rows) {
+		List<String> sorted = new ArrayList<String>();
+		for (Map<String, String> row : rows) {
+			sorted.add(row.toString());
+		}
+		Collections.sort(sorted);
+
+		return sorted;
+	}
+
+	/**
+	 * Adapter that keeps every row
+	 */
+	private static class Collector implements ISparqlProcessingAdapter {
+		private List<Map<String, String>> rows;
+
+		private Collector(List<Map<String, String>> rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public String getSparql() {
+			return null;
+		}
+
+		@Override
+		public QuerySolutionMap getParameters() {
+			return new QuerySolutionMap();
+		}
+
+		@Override
+		public ISparqlProcessingAdapter init(Properties properties) throws Exception {
+			return this;
+		}
+
+		@Override
+		public ISparqlProcessingAdapter processing(QuerySolution row) throws Exception {
+			rows.add(toRow(row));
+
+			return this;
+		}
+
+		@Override
+		public ISparqlProcessingAdapter conclude() throws Exception {
+			return this;
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package br.org.resys.adapter.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The imports of web/ontos/output are OWL/XML: they are skipped, as the
+ * original connector did, unless they are converted.
+ *
+ * @author Luis Paulo
+ */
+public class ImportClosureTest {
+	private static final String[] IMPORTS = { "metrics.owl", "codesmells.owl", "repositories.owl", "osore.owl" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File ontos;
+
+	@Before
+	public void setUp() throws Exception {
+		ontos = folder.newFolder("ontos");
+		for (String imported : IMPORTS) {
+			Files.copy(new File("web/ontos/output/" + imported).toPath(), new File(ontos, imported).toPath());
+		}
+	}
+
+	@Test
+	public void testSkipped() throws Exception {
+		ImportClosure closure = new ImportClosure(ontos.getPath(), false);
+
+		assertFalse(closure.isConverted());
+		assertEquals(0, closure.getModel().size());
+	}
+
+	@Test
+	public void testConverted() throws Exception {
+		ImportClosure closure = new ImportClosure(ontos.getPath(), true);
+
+		assertTrue(closure.isConverted());
+		assertTrue(closure.getModel().contains(null, RDFS.subClassOf));
+	}
+
+	@Test
+	public void testStale() throws Exception {
+		ImportClosure closure = new ImportClosure(ontos.getPath(), false);
+		assertFalse(closure.isStale());
+
+		// same modification time, another size
+		File file = new File(ontos, "osore.owl");
+		long modified = file.lastModified();
+		Files.write(file.toPath(), "<?xml version=\"1.0\"?>".getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(modified);
+
+		assertTrue(closure.isStale());
+	}
+
+}
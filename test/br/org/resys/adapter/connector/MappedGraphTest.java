@@ -0,0 +1,132 @@
+package br.org.resys.adapter.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Every triple pattern (any combination of concrete and variable terms) must
+ * find the same triples in a {@link MappedGraph} as in Jena's in-memory graph
+ * it was converted from, whether {@link MappedStore} converts it within its
+ * budget or spilling many runs.
+ *
+ * @author Luis Paulo
+ */
+public class MappedGraphTest {
+	private static final String NS = "http://www.semanticweb.org/resys/ontologies/2016/2/ocean#";
+	private static final String OCEAN = "ocean_mapped.owl";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Model model;
+
+	@Before
+	public void setUp() throws Exception {
+		model = ModelFactory.createDefaultModel();
+		Random random = new Random(11);
+		for (int i = 0; i < 2000; i++) {
+			Resource subject = model.createResource(NS + "s" + random.nextInt(300));
+			Property property = model.createProperty(NS, "p" + random.nextInt(12));
+			switch (random.nextInt(4)) {
+			case 0:
+				subject.addProperty(property, model.createResource(NS + "s" + random.nextInt(300)));
+				break;
+			case 1:
+				subject.addProperty(property, "location ção " + random.nextInt(200));
+				break;
+			case 2:
+				subject.addLiteral(property, model.createTypedLiteral(random.nextInt(50)));
+				break;
+			default:
+				subject.addProperty(property, "text " + random.nextInt(20), "en");
+			}
+		}
+	}
+
+	@Test
+	public void testPatterns() throws Exception {
+		assertSameTriples(convert(64 * 1024 * 1024));
+	}
+
+	@Test
+	public void testPatternsSpilled() throws Exception {
+		// a few hundred bytes: hundreds of runs of terms and of triples
+		assertSameTriples(convert(512));
+	}
+
+	@Test
+	public void testLiteralsMatchedByValue() throws Exception {
+		Property count = model.createProperty(NS, "count");
+		model.createResource(NS + "a").addProperty(count, "01", XSDDatatype.XSDint);
+		model.createResource(NS + "b").addProperty(count, "1", XSDDatatype.XSDint);
+		model.createResource(NS + "c").addProperty(count, "01");
+		MappedGraph graph = convert(64 * 1024 * 1024);
+
+		Node one = NodeFactory.createLiteral("1", XSDDatatype.XSDint);
+		assertEquals(2, graph.find(Node.ANY, count.asNode(), one).toList().size());
+		assertEquals(find(model.getGraph(), Triple.create(Node.ANY, Node.ANY, one)),
+				find(graph, Triple.create(Node.ANY, Node.ANY, one)));
+		// strings are not numbers
+		assertEquals(1, graph.find(Node.ANY, count.asNode(), NodeFactory.createLiteral("01")).toList().size());
+		assertTrue(graph.find(Node.ANY, count.asNode(), NodeFactory.createLiteral("1")).toList().isEmpty());
+	}
+
+	private MappedGraph convert(long memory) throws Exception {
+		File ontos = folder.newFolder();
+		try (OutputStream out = new FileOutputStream(new File(ontos, OCEAN))) {
+			model.write(out, "RDF/XML");
+		}
+
+		return MappedStore.getInstance(ontos.getPath()).setMemory(memory).open(OCEAN);
+	}
+
+	/**
+	 * Look up, for each triple, the eight patterns built from its terms
+	 */
+	private void assertSameTriples(MappedGraph graph) {
+		Graph expected = model.getGraph();
+		assertEquals(expected.size(), graph.size());
+
+		List<Triple> triples = expected.find(Node.ANY, Node.ANY, Node.ANY).toList();
+		for (int i = 0; i < triples.size(); i += 7) {
+			Triple triple = triples.get(i);
+			for (int mask = 0; mask < 8; mask++) {
+				Triple pattern = Triple.create((mask & 4) == 0 ? Node.ANY : triple.getSubject(),
+						(mask & 2) == 0 ? Node.ANY : triple.getPredicate(),
+						(mask & 1) == 0 ? Node.ANY : triple.getObject());
+				assertEquals(pattern.toString(), find(expected, pattern), find(graph, pattern));
+			}
+		}
+		// terms that are not in the dictionary
+		Node unknown = NodeFactory.createURI(NS + "unknown");
+		assertTrue(graph.find(unknown, Node.ANY, Node.ANY).toList().isEmpty());
+		assertTrue(graph.find(Node.ANY, Node.ANY, unknown).toList().isEmpty());
+	}
+
+	private static Set<Triple> find(Graph graph, Triple pattern) {
+		return new HashSet<Triple>(graph.find(pattern).toList());
+	}
+
+}
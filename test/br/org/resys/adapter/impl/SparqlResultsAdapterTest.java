@@ -0,0 +1,129 @@
+package br.org.resys.adapter.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.ResultSetFactory;
+import org.apache.jena.query.ResultSetRewindable;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.resultset.ResultSetCompare;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import br.org.resys.adapter.impl.SparqlResultsAdapter.Format;
+
+/**
+ * Results written by {@link SparqlResultsAdapter} must be read back by ARQ's
+ * parsers (JSON and TSV) as the rows they were written from, and CSV values
+ * must be escaped as in RFC 4180. Terms include IRIs, blank nodes, typed,
+ * language-tagged and plain literals with separators, quotes and line breaks,
+ * and unbound variables.
+ *
+ * @author Luis Paulo
+ */
+public class SparqlResultsAdapterTest {
+	private static final String NS = "http://www.semanticweb.org/resys/ontologies/2016/2/ocean#";
+	private static final String SPARQL = "PREFIX ocean: <" + NS + "> \n"
+			+ "SELECT ?smell ?location ?effort WHERE { \n" + "?smell ocean:foundIn ?location . \n"
+			+ "OPTIONAL { ?smell ocean:effort ?effort } \n" + "} ORDER BY ?location";
+
+	private static Model model;
+
+	@BeforeClass
+	public static void createOcean() {
+		model = ModelFactory.createDefaultModel();
+		Property foundIn = model.createProperty(NS, "foundIn");
+		Property effort = model.createProperty(NS, "effort");
+
+		model.createResource(NS + "smell0").addProperty(foundIn, "org/x/A.java#m()").addLiteral(effort, 0.5);
+		model.createResource(NS + "smell1").addProperty(foundIn, "org/x/B.java#m(int, \"s\")");
+		model.createResource(NS + "smell2").addProperty(foundIn, "C.java\tline 1\nline 2\r\n", "en");
+		Resource blank = model.createResource();
+		blank.addProperty(foundIn, "D.java \u00e7\u00e3o").addProperty(effort, "7", XSDDatatype.XSDint);
+	}
+
+	@Test
+	public void testJson() throws Exception {
+		String json = write(Format.JSON);
+
+		assertTrue(json.startsWith("{\"head\" : {\"vars\" : [\"smell\", \"location\", \"effort\"]}"));
+		assertSameRows(ResultSetFactory.fromJSON(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void testTsv() throws Exception {
+		String tsv = write(Format.TSV);
+
+		assertTrue(tsv.startsWith("?smell\t?location\t?effort\n"));
+		assertSameRows(ResultSetFactory.fromTSV(new ByteArrayInputStream(tsv.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void testCsv() throws Exception {
+		// labels of blank nodes are not kept
+		String csv = write(Format.CSV).replaceFirst("_:[^,]+,", "_:b,");
+
+		assertEquals("smell,location,effort\r\n" + NS + "smell2,\"C.java\tline 1\nline 2\r\n\",\r\n"
+				+ "_:b,D.java \u00e7\u00e3o,7\r\n" + NS + "smell0,org/x/A.java#m(),0.5\r\n" + NS
+				+ "smell1,\"org/x/B.java#m(int, \"\"s\"\")\",\r\n", csv);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SparqlResultsAdapter adapter = new SparqlResultsAdapter(SPARQL, Format.JSON, out);
+		adapter.init(new Properties());
+		adapter.conclude();
+
+		ResultSet results = ResultSetFactory.fromJSON(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(0, adapter.getRows());
+		assertEquals(3, results.getResultVars().size());
+		assertTrue(!results.hasNext());
+	}
+
+	/**
+	 * Run the statement with ARQ, passing its rows to the adapter
+	 *
+	 * @return the results written
+	 */
+	private static String write(Format format) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SparqlResultsAdapter adapter = new SparqlResultsAdapter(SPARQL, format, out);
+		adapter.init(new Properties());
+		try (QueryExecution execution = QueryExecutionFactory.create(SPARQL, model)) {
+			ResultSet results = execution.execSelect();
+			while (results.hasNext()) {
+				adapter.processing(results.next());
+			}
+		}
+		adapter.conclude();
+		assertEquals(4, adapter.getRows());
+
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compare results read back with ARQ's (blank nodes are compared by
+	 * isomorphism)
+	 */
+	private static void assertSameRows(ResultSet actual) {
+		try (QueryExecution execution = QueryExecutionFactory.create(SPARQL, model)) {
+			ResultSetRewindable expected = ResultSetFactory.copyResults(execution.execSelect());
+
+			assertTrue(ResultSetCompare.equalsByTerm(expected, ResultSetFactory.copyResults(actual)));
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package br.org.resys.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Entries visited by a {@link SpillingAggregator} must be the same (keys in
+ * order, values summed) whether it spills or not, when runs are merged in
+ * several passes and when aggregations are merged.
+ *
+ * @author Luis Paulo
+ */
+public class SpillingAggregatorTest {
+	private static final Comparator<String> DESCENDING = Comparator.reverseOrder();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testInMemory() throws Exception {
+		TreeMap<String, long[]> expected = new TreeMap<String, long[]>(DESCENDING);
+		SpillingAggregator aggregator = new SpillingAggregator(folder.getRoot(), 0, DESCENDING);
+		add(aggregator, expected, 5000, 1);
+
+		assertEquals(0, aggregator.getRuns());
+		assertEquals(toList(expected), visit(aggregator));
+	}
+
+	@Test
+	public void testSpilled() throws Exception {
+		TreeMap<String, long[]> expected = new TreeMap<String, long[]>(DESCENDING);
+		// a few entries per run: more runs than can be merged at once
+		SpillingAggregator aggregator = new SpillingAggregator(folder.getRoot(), 1024, DESCENDING);
+		add(aggregator, expected, 5000, 2);
+
+		assertTrue(aggregator.getRuns() > 64);
+		assertEquals(toList(expected), visit(aggregator));
+
+		aggregator.close();
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testMerged() throws Exception {
+		TreeMap<String, long[]> expected = new TreeMap<String, long[]>(DESCENDING);
+		SpillingAggregator aggregator = new SpillingAggregator(folder.getRoot(), 1024, DESCENDING);
+		SpillingAggregator other = new SpillingAggregator(folder.getRoot(), 0, DESCENDING);
+		add(aggregator, expected, 500, 3);
+		add(other, expected, 500, 4);
+
+		aggregator.merge(other);
+		assertEquals(toList(expected), visit(aggregator));
+		aggregator.close();
+	}
+
+	@Test
+	public void testConfigured() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("aggregation.memory.mb", "0");
+		properties.setProperty("aggregation.spill.path", folder.getRoot().getPath());
+		properties.setProperty("aggregation.memory.mb.Adapter", "1");
+
+		SpillingAggregator aggregator = SpillingAggregator.of(properties, "Adapter", DESCENDING);
+		TreeMap<String, long[]> expected = new TreeMap<String, long[]>(DESCENDING);
+		// about 2MB of entries
+		add(aggregator, expected, 20000, 5);
+
+		assertTrue(aggregator.getRuns() > 0);
+		assertEquals(toList(expected), visit(aggregator));
+		aggregator.close();
+	}
+
+	/**
+	 * Add random values (many of them to keys already added) to an
+	 * aggregation and to the expected sums
+	 */
+	private static void add(SpillingAggregator aggregator, TreeMap<String, long[]> expected, int count, long seed)
+			throws Exception {
+		Random random = new Random(seed);
+		for (int i = 0; i < count; i++) {
+			String key = "2016-" + random.nextInt(count / 2) + ",committer ção" + random.nextInt(4);
+			long value = random.nextInt(10);
+			aggregator.add(key, value);
+			expected.computeIfAbsent(key, k -> new long[1])[0] += value;
+		}
+	}
+
+	private static List<String> visit(SpillingAggregator aggregator) throws Exception {
+		List<String> entries = new ArrayList<String>();
+		aggregator.forEach((key, value) -> entries.add(key + "=" + value));
+
+		return entries;
+	}
+
+	private static List<String> toList(TreeMap<String, long[]> expected) {
+		List<String> entries = new ArrayList<String>();
+		for (Entry<String, long[]> entry : expected.entrySet()) {
+			entries.add(entry.getKey() + "=" + entry.getValue()[0]);
+		}
+
+		return entries;
+	}
+
+}